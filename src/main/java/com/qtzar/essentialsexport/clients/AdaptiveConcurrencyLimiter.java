@@ -0,0 +1,152 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit on the number of EAS requests in flight across all exports.
+ * Each request answered within the healthy latency adds 1/limit to the limit, so it grows by
+ * roughly one per round trip, while an overload signal (429, 503, a timeout) multiplies it by the
+ * backoff ratio. A Retry-After from EAS also pauses all new requests until it has passed.
+ * Callers that find the limit reached wait until a request completes.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long healthyLatencyNanos;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long pausedUntilNanos;
+    private long lastDecreaseNanos;
+    private boolean decreased;
+
+    AdaptiveConcurrencyLimiter(EASResilienceProperties properties) {
+        this.minLimit = Math.max(1, properties.getMinConcurrency());
+        this.maxLimit = Math.max(minLimit, properties.getMaxConcurrency());
+        this.healthyLatencyNanos = properties.getHealthyLatency().toNanos();
+        this.backoffRatio = Math.clamp(properties.getBackoffRatio(), 0.1, 0.9);
+        this.limit = Math.clamp(properties.getInitialConcurrency(), minLimit, maxLimit);
+        this.pausedUntilNanos = System.nanoTime();
+    }
+
+    /**
+     * Wait for a free slot and take it. Every successful call must be followed by exactly one of
+     * {@link #onSuccess}, {@link #onOverload} or {@link #onRelease}.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long pausedFor = pausedUntilNanos - System.nanoTime();
+                if (pausedFor > 0) {
+                    released.awaitNanos(pausedFor);
+                } else if (inFlight >= (int) limit) {
+                    released.await();
+                } else {
+                    inFlight++;
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a slot after a successful request, growing the limit if the request was fast.
+     *
+     * @param latencyNanos How long the request took
+     */
+    void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            // Only grow while the limit is actually being used, otherwise it drifts up unchecked
+            if (latencyNanos <= healthyLatencyNanos && inFlight >= (int) limit / 2) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a slot after EAS signalled it is overloaded, shrinking the limit. Requests that were
+     * already in flight when the limit shrank are likely to fail too, so the limit shrinks at most
+     * once per healthy latency window.
+     *
+     * @param retryAfter Time EAS asked clients to wait, or null if it did not say
+     */
+    void onOverload(Duration retryAfter) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (!decreased || now - lastDecreaseNanos >= healthyLatencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+                decreased = true;
+            }
+            if (retryAfter != null && !retryAfter.isNegative()) {
+                long resumeAt = now + retryAfter.toNanos();
+                if (resumeAt - pausedUntilNanos > 0) {
+                    pausedUntilNanos = resumeAt;
+                }
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a slot without changing the limit, for failures that say nothing about EAS load.
+     */
+    void onRelease() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current number of requests allowed in flight
+     */
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests currently in flight
+     */
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        inFlight--;
+        released.signalAll();
+    }
+}
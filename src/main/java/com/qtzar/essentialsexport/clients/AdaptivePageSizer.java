@@ -0,0 +1,82 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
+
+/**
+ * Chooses the page size for instance pagination of a single class.
+ * The size doubles while pages come back well inside the latency and payload targets and
+ * throughput keeps improving, halves when a page overshoots either target, and falls back to
+ * the best size seen so far when throughput drops.
+ * Not thread-safe; one sizer is used by the thread consuming the pages of one class.
+ */
+class AdaptivePageSizer {
+
+    /**
+     * Throughput has to fall below this fraction of the best seen before the sizer backs off
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetLatencyNanos;
+    private final long maxPageBytes;
+
+    private int pageSize;
+    private int bestPageSize;
+    private double bestThroughput;
+
+    AdaptivePageSizer(EASFetchProperties properties, int startPageSize) {
+        this.minPageSize = Math.max(1, properties.getMinPageSize());
+        this.maxPageSize = Math.max(minPageSize, properties.getMaxPageSize());
+        this.targetLatencyNanos = properties.getTargetPageLatency().toNanos();
+        this.maxPageBytes = properties.getMaxPageBytes().toBytes();
+        this.pageSize = clamp(startPageSize);
+        this.bestPageSize = pageSize;
+    }
+
+    /**
+     * @return The page size to request next
+     */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Record the outcome of a page request and adjust the page size.
+     *
+     * @param requested The page size that was requested
+     * @param instances The number of instances returned
+     * @param bytes The payload size of the response
+     * @param latencyNanos The time the request took
+     */
+    void record(int requested, int instances, long bytes, long latencyNanos) {
+        // A short page is the tail of the class and says nothing about larger pages
+        if (instances < requested || instances == 0 || latencyNanos <= 0) {
+            return;
+        }
+
+        if (latencyNanos > targetLatencyNanos || bytes > maxPageBytes) {
+            pageSize = clamp(requested / 2);
+            return;
+        }
+
+        double throughput = instances / (double) latencyNanos;
+        if (throughput < bestThroughput * THROUGHPUT_TOLERANCE) {
+            pageSize = bestPageSize;
+            return;
+        }
+
+        if (throughput > bestThroughput) {
+            bestThroughput = throughput;
+            bestPageSize = requested;
+        }
+
+        if (latencyNanos < targetLatencyNanos / 2 && bytes < maxPageBytes / 2) {
+            pageSize = clamp(requested * 2);
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.clamp(size, minPageSize, maxPageSize);
+    }
+}
@@ -1,23 +1,74 @@
 package com.qtzar.essentialsexport.clients;
 
-import com.qtzar.essentialsexport.model.essential.request.BearerTokenBody;
-import com.qtzar.essentialsexport.model.essential.request.RefreshTokenBody;
-import com.qtzar.essentialsexport.model.essential.response.BearerTokenResponse;
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
+import com.qtzar.essentialsexport.configuration.EASHttpProperties;
+import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+import tools.jackson.databind.json.JsonMapper;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
+@Slf4j
 @Service
 public class EASClient {
+    private static final ResponseErrorHandler RESPONSE_ERROR_HANDLER = new DefaultResponseErrorHandler();
+    private static final Pattern PAGINATION_PATTERN = Pattern.compile("start=(\\d+),count=(\\d+)");
+
+    private final EASRepositoriesProperties easRepositoriesProperties;
+    private final EASFetchProperties easFetchProperties;
+    private final EASHttpProperties easHttpProperties;
+    private final HttpClient easHttpClient;
+    private final JsonMapper jsonMapper;
+    private final MeterRegistry meterRegistry;
+    private final InstancePageParser instancePageParser;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final EASRetryPolicy retryPolicy;
+    private final ExecutorService pageExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final java.util.Map<String, AtomicInteger> learnedPageSizes = new ConcurrentHashMap<>();
+
     private RestClient easRestClient;
+    private EASTokenManager tokenManager;
 
     @Value("${eas.endpoint}")
     private String endpoint;
@@ -31,62 +82,60 @@ public class EASClient {
     @Value("${eas.password}")
     private String password;
 
-    private String authToken = "";
-    private String refreshToken = "";
-    private Instant authExpires = Instant.now().minus(1, ChronoUnit.MINUTES);
-    private Instant refreshExpires = Instant.now().minus(1, ChronoUnit.MINUTES);
+    public EASClient(EASRepositoriesProperties easRepositoriesProperties, EASFetchProperties easFetchProperties,
+                     EASHttpProperties easHttpProperties, EASResilienceProperties easResilienceProperties,
+                     HttpClient easHttpClient, JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        this.easRepositoriesProperties = easRepositoriesProperties;
+        this.easFetchProperties = easFetchProperties;
+        this.easHttpProperties = easHttpProperties;
+        this.easHttpClient = easHttpClient;
+        this.jsonMapper = jsonMapper;
+        this.meterRegistry = meterRegistry;
+        this.instancePageParser = new InstancePageParser(jsonMapper);
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(easResilienceProperties);
+        this.retryPolicy = new EASRetryPolicy(easResilienceProperties);
+
+        Gauge.builder("eas.concurrency.limit", concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("EAS requests currently allowed in flight")
+                .register(meterRegistry);
+        Gauge.builder("eas.concurrency.in-flight", concurrencyLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("EAS requests currently in flight")
+                .register(meterRegistry);
+    }
 
     @PostConstruct
     public void init() {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(easHttpClient);
+        requestFactory.setReadTimeout(easHttpProperties.getReadTimeout());
+        // Decompression is done in readBody so the bytes on the wire can be measured
+        requestFactory.enableCompression(false);
+
         easRestClient = RestClient.builder()
+                .requestFactory(requestFactory)
                 .baseUrl(endpoint)
                 .defaultHeader("User-Agent", "Essential Export Application")
                 .build();
-    }
+        tokenManager = new EASTokenManager(easRestClient, apiKey, username, password);
 
-    private void checkAuth() {
-        Instant now = Instant.now().plusSeconds(60);
-        if (authToken.isEmpty() || authExpires.isBefore(now)) {
-            getAuthToken();
-        }
+        warmUpConnections();
     }
 
-    private void getAuthToken() {
-        //log.info("EAS API HIT : getAuthToken");
-
-        BearerTokenResponse response;
-
-        if (!refreshToken.isEmpty() && refreshExpires.isBefore(Instant.now().minusSeconds(60))) {
-            RefreshTokenBody refreshTokenBody = new RefreshTokenBody();
-            refreshTokenBody.setGrantType("refresh_token");
-            refreshTokenBody.setRefreshToken(refreshToken);
-            response = easRestClient.post()
-                    .uri("/oauth/token")
-                    .body(refreshTokenBody)
-                    .header("x-api-key", apiKey)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .retrieve()
-                    .body(BearerTokenResponse.class);
-        } else {
-            BearerTokenBody body = new BearerTokenBody();
-            body.setGrantType("password");
-            body.setUsername(username);
-            body.setPassword(password);
-            response = easRestClient.post()
-                    .uri("/oauth/token")
-                    .body(body)
-                    .header("x-api-key", apiKey)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .retrieve()
-                    .body(BearerTokenResponse.class);
+    /**
+     * Open connections to the EAS endpoint in the background so the first export reuses them
+     * rather than paying for the TLS handshakes. Any response, even an error status, is enough.
+     */
+    private void warmUpConnections() {
+        for (int i = 0; i < easHttpProperties.getWarmupConnections(); i++) {
+            pageExecutor.submit(() -> {
+                try {
+                    easRestClient.head().uri("/").retrieve().toBodilessEntity();
+                } catch (RestClientResponseException _) {
+                    // The connection is open, which is all warm-up needs
+                } catch (RuntimeException e) {
+                    log.debug("EAS connection warm-up failed: {}", e.getMessage());
+                }
+            });
         }
-
-        assert response != null;
-        authToken = "Bearer " + response.getBearerToken();
-        refreshToken = response.getRefreshToken();
-        authExpires = Instant.now().plus(response.getExpiresInMinutes(), ChronoUnit.MINUTES);
-        refreshExpires = Instant.now().plus(response.getRefreshTokenExpiresInMinutes(), ChronoUnit.MINUTES);
-
     }
 
     /**
@@ -97,29 +146,52 @@ public class EASClient {
      * @return Map of class metadata with nested slots
      */
     public Object getClassesMetadata(String repoId) {
-        checkAuth();
-
-        return easRestClient.get()
+        return callWithRetry("meta-data", () -> easRestClient.get()
                 .uri("/essential-utility/v3/repositories/" + repoId + "/classes/meta-data")
-                .header("Authorization",  authToken)
+                .header("Authorization", tokenManager.getAuthorization())
                 .header("x-api-key", apiKey)
-                .retrieve()
-                .body(Object.class);
+                .headers(this::acceptCompressed)
+                .exchange((request, response) -> {
+                    if (RESPONSE_ERROR_HANDLER.hasError(response)) {
+                        RESPONSE_ERROR_HANDLER.handleError(request.getURI(), request.getMethod(), response);
+                    }
+                    return readBody(response, "meta-data", body -> jsonMapper.readValue(body, Object.class));
+                }));
     }
 
     /**
-     * Get all instances as raw Map data for dynamic field access from a specific repository.
-     * This bypasses Instance.java deserialization to support arbitrary EAS slots.
+     * Get all instances of a class as compact records for dynamic field access from a specific repository.
+     * Pages are parsed as a stream straight into {@link EASInstance} records to support arbitrary
+     * EAS slots without holding a generic map per instance. When the repository has a prefetch
+     * depth above one and the pagination offsets are predictable, upcoming pages are requested
+     * concurrently and reassembled in order.
      *
      * @param repoId The repository ID to query
      * @param instanceType The class name
      * @param depthCount Max depth for nested objects
      * @param slotValues Caret-separated list of slots to retrieve
-     * @return List of instances as Maps with all requested fields
+     * @return List of instances with all requested fields
      */
-    public List<java.util.Map<String, Object>> getAllInstancesAsMap(String repoId, String instanceType, int depthCount, String slotValues) {
-        List<java.util.Map<String, Object>> results = new ArrayList<>();
+    public List<EASInstance> getAllInstances(String repoId, String instanceType, int depthCount, String slotValues) {
+        List<EASInstance> results = new ArrayList<>();
+        streamInstances(repoId, instanceType, depthCount, slotValues, results::addAll);
+        return results;
+    }
 
+    /**
+     * Get all instances of a class a page at a time, handing each page to a consumer in order as
+     * soon as it has been fetched rather than collecting them. Pages are fetched the same way as
+     * by {@link #getAllInstances}; a consumer that blocks holds back the requests for further
+     * pages once the prefetch window is full, so a slow consumer bounds how many pages are held.
+     *
+     * @param repoId The repository ID to query
+     * @param instanceType The class name
+     * @param depthCount Max depth for nested objects
+     * @param slotValues Caret-separated list of slots to retrieve
+     * @param pages Consumer of each page of instances, called on the calling thread
+     */
+    public void streamInstances(String repoId, String instanceType, int depthCount, String slotValues,
+                                Consumer<List<EASInstance>> pages) {
         String endpoint;
         if (slotValues != null) {
             endpoint = "/essential-utility/v3/repositories/" + repoId + "/classes/" + instanceType + "/instances?maxdepth=" + depthCount + "&slots=" + slotValues;
@@ -127,33 +199,334 @@ public class EASClient {
             endpoint = "/essential-utility/v3/repositories/" + repoId + "/classes/" + instanceType + "/instances?maxdepth=" + depthCount;
         }
 
-        String pagination = "start=0,count=100";
+        int prefetchDepth = Math.max(1, getPrefetchDepth(repoId));
+        AdaptivePageSizer pageSizer = new AdaptivePageSizer(easFetchProperties, learnedPageSize(repoId, instanceType).get());
+        PageMetrics pageMetrics = new PageMetrics(repoId, instanceType);
+        String pagination = pagination(0, pageSizer.getPageSize());
 
         while (pagination != null) {
-            pagination = "&" + pagination.replace(",", "&");
-            String pagedEndpoint = endpoint + pagination;
+            Matcher offsets = PAGINATION_PATTERN.matcher(pagination);
 
-            checkAuth();
+            if (!offsets.matches()) {
+                // Offsets unknown, follow next_page one request at a time
+                InstancePage page = getInstancePage(endpoint, pagination);
+                pageMetrics.record(page);
+                pages.accept(page.instances());
+                pagination = page.nextPage();
+                continue;
+            }
+
+            pagination = prefetchPages(endpoint, Integer.parseInt(offsets.group(1)), prefetchDepth, pageSizer, pageMetrics, pages);
+        }
 
-            java.util.Map<String, Object> response = easRestClient.get()
+        learnedPageSize(repoId, instanceType).set(pageSizer.getPageSize());
+    }
+
+    /**
+     * Fetch pages through a sliding window of concurrent requests, assuming each page starts
+     * where the previous one ended. Every new request uses the page size currently chosen by
+     * the sizer. Stops as soon as a page reports a next_page that does not match that assumption.
+     *
+     * @param endpoint The instances endpoint without pagination
+     * @param start Offset of the first page to fetch
+     * @param prefetchDepth Number of pages in flight at once
+     * @param pageSizer Chooses the size of each requested page
+     * @param pageMetrics Records the requested and returned size, payload and latency of each page
+     * @param pages Consumer of the fetched pages, in page order
+     * @return The next_page of the last consumed page when it broke the pattern, or null when done
+     */
+    private String prefetchPages(String endpoint, int start, int prefetchDepth, AdaptivePageSizer pageSizer,
+                                 PageMetrics pageMetrics, Consumer<List<EASInstance>> pages) {
+        Deque<PendingPage> window = new ArrayDeque<>();
+        int nextStart = start;
+
+        try {
+            for (int i = 0; i < prefetchDepth; i++) {
+                PendingPage pending = submitInstancePage(endpoint, nextStart, pageSizer.getPageSize());
+                window.add(pending);
+                nextStart += pending.count();
+            }
+
+            while (!window.isEmpty()) {
+                PendingPage pending = window.poll();
+                InstancePage page = awaitInstancePage(pending.page());
+                pageSizer.record(pending.count(), page.instances().size(), page.bytes(), page.latencyNanos());
+                pageMetrics.record(pending.count(), page);
+                pages.accept(page.instances());
+
+                if (page.nextPage() == null) {
+                    return null;
+                }
+                Matcher offsets = PAGINATION_PATTERN.matcher(page.nextPage());
+                if (!offsets.matches() || Integer.parseInt(offsets.group(1)) != pending.start() + pending.count()) {
+                    return page.nextPage();
+                }
+
+                PendingPage next = submitInstancePage(endpoint, nextStart, pageSizer.getPageSize());
+                window.add(next);
+                nextStart += next.count();
+            }
+            return null;
+        } finally {
+            // Discard speculative requests past the end of the data
+            window.forEach(pending -> pending.page().cancel(true));
+        }
+    }
+
+    private PendingPage submitInstancePage(String endpoint, int start, int count) {
+        String pagination = pagination(start, count);
+        return new PendingPage(start, count, pageExecutor.submit(() -> getInstancePage(endpoint, pagination)));
+    }
+
+    private InstancePage awaitInstancePage(Future<InstancePage> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching instance page", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Failed to fetch instance page", e.getCause());
+        }
+    }
+
+    /**
+     * Fetch a single page of instances, retrying just this page if EAS is overloaded.
+     *
+     * @param endpoint The instances endpoint without pagination
+     * @param pagination Pagination in the EAS next_page form, e.g. start=0,count=100
+     * @return The page of instances and the pagination of the following page
+     */
+    private InstancePage getInstancePage(String endpoint, String pagination) {
+        String pagedEndpoint = endpoint + "&" + pagination.replace(",", "&");
+
+        return callWithRetry("instances", () -> {
+            long started = System.nanoTime();
+            return easRestClient.get()
                     .uri(pagedEndpoint)
-                    .header("Authorization", authToken)
+                    .header("Authorization", tokenManager.getAuthorization())
                     .header("x-api-key", apiKey)
-                    .retrieve()
-                    .body(new ParameterizedTypeReference<>() {});
-
-            if (response != null && response.containsKey("instances")) {
-                @SuppressWarnings("unchecked")
-                List<java.util.Map<String, Object>> instances = (List<java.util.Map<String, Object>>) response.get("instances");
-                results.addAll(instances);
-
-                // Check for next page
-                pagination = (String) response.get("next_page");
-            } else {
-                pagination = null;
+                    .headers(this::acceptCompressed)
+                    .exchange((request, response) -> {
+                        if (RESPONSE_ERROR_HANDLER.hasError(response)) {
+                            RESPONSE_ERROR_HANDLER.handleError(request.getURI(), request.getMethod(), response);
+                        }
+
+                        return readBody(response, "instances", body -> {
+                            InstancePageParser.ParsedPage page = instancePageParser.parse(body);
+                            return new InstancePage(page.instances(), page.nextPage(), body.getCount(), System.nanoTime() - started);
+                        });
+                    });
+        });
+    }
+
+    /**
+     * Make a request to EAS through the concurrency limiter. Requests that fail because EAS is
+     * overloaded or unreachable shrink the limit and are retried after a backoff; any other
+     * failure is passed straight on.
+     *
+     * @param endpoint Endpoint name used in logs and to tag the retry metric
+     * @param call Makes the request and reads the response
+     * @return The result of the call
+     */
+    private <T> T callWithRetry(String endpoint, Supplier<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                concurrencyLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call EAS", e);
+            }
+
+            RuntimeException failure;
+            long started = System.nanoTime();
+            try {
+                T result = call.get();
+                concurrencyLimiter.onSuccess(System.nanoTime() - started);
+                return result;
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                concurrencyLimiter.onRelease();
+                throw e;
+            }
+
+            if (!retryPolicy.isOverload(failure) || Thread.currentThread().isInterrupted()) {
+                concurrencyLimiter.onRelease();
+                throw failure;
+            }
+
+            Duration retryAfter = retryPolicy.retryAfter(failure);
+            concurrencyLimiter.onOverload(retryAfter);
+            if (!retryPolicy.canRetry(attempt)) {
+                throw failure;
+            }
+
+            Duration delay = retryPolicy.backoff(attempt, retryAfter);
+            meterRegistry.counter("eas.requests.retried", "endpoint", endpoint).increment();
+            log.warn("EAS {} request failed on attempt {} ({}), retrying in {} ms",
+                    endpoint, attempt, failure.getMessage(), delay.toMillis());
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
             }
         }
+    }
 
-        return results;
+    private void acceptCompressed(HttpHeaders headers) {
+        if (easHttpProperties.isCompression()) {
+            headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+    }
+
+    /**
+     * Read a response body, decompressing it on the fly when the server sent it gzip encoded, and
+     * record the bytes on the wire and after decoding for the endpoint.
+     *
+     * @param response The response to read
+     * @param endpoint Endpoint name used to tag the transfer metrics
+     * @param reader Reads the decoded body; its count is the decoded size
+     * @return The result of the reader
+     */
+    private <T> T readBody(ClientHttpResponse response, String endpoint, Function<CountingInputStream, T> reader) throws IOException {
+        CountingInputStream wire = new CountingInputStream(response.getBody());
+        try {
+            CountingInputStream decoded = "gzip".equalsIgnoreCase(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))
+                    ? new CountingInputStream(new GZIPInputStream(wire, 8192))
+                    : wire;
+            T result = reader.apply(decoded);
+            meterRegistry.counter("eas.transfer.bytes", "endpoint", endpoint, "form", "decoded").increment(decoded.getCount());
+            return result;
+        } finally {
+            meterRegistry.counter("eas.transfer.bytes", "endpoint", endpoint, "form", "wire").increment(wire.getCount());
+        }
+    }
+
+    /**
+     * Page size learned for a class on its last fetch, exposed as the eas.fetch.page.size.learned gauge.
+     */
+    private AtomicInteger learnedPageSize(String repoId, String instanceType) {
+        return learnedPageSizes.computeIfAbsent(repoId + "/" + instanceType, _ -> {
+            AtomicInteger pageSize = new AtomicInteger(easFetchProperties.getInitialPageSize());
+            Gauge.builder("eas.fetch.page.size.learned", pageSize, AtomicInteger::get)
+                    .description("Page size the adaptive pagination settled on for a class")
+                    .tag("repository", repoId)
+                    .tag("class", instanceType)
+                    .register(meterRegistry);
+            return pageSize;
+        });
+    }
+
+    /**
+     * Resolve the prefetch depth for a repository, falling back to eas.fetch.prefetch-depth.
+     */
+    private int getPrefetchDepth(String repoId) {
+        return easRepositoriesProperties.getRepositories().stream()
+                .filter(repository -> repoId.equals(repository.getRepoId()))
+                .map(EASRepositoriesProperties.Repository::getPrefetchDepth)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(easFetchProperties.getPrefetchDepth());
+    }
+
+    private static String pagination(int start, int count) {
+        return "start=" + start + ",count=" + count;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pageExecutor.shutdownNow();
+        tokenManager.close();
+    }
+
+    private record InstancePage(List<EASInstance> instances, String nextPage, long bytes, long latencyNanos) {
+    }
+
+    private record PendingPage(int start, int count, Future<InstancePage> page) {
+    }
+
+    /**
+     * Counts the bytes read from a response body.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Per-class page metrics: requested and returned page sizes, payload bytes and latency.
+     */
+    private class PageMetrics {
+        private final DistributionSummary pageSizes;
+        private final DistributionSummary pageInstances;
+        private final DistributionSummary pageBytes;
+        private final Timer pageLatency;
+
+        PageMetrics(String repoId, String instanceType) {
+            Tags tags = Tags.of("repository", repoId, "class", instanceType);
+            pageSizes = DistributionSummary.builder("eas.fetch.page.size")
+                    .description("Instances requested per page")
+                    .tags(tags)
+                    .register(meterRegistry);
+            pageInstances = DistributionSummary.builder("eas.fetch.page.instances")
+                    .description("Instances returned per page")
+                    .tags(tags)
+                    .register(meterRegistry);
+            pageBytes = DistributionSummary.builder("eas.fetch.page.bytes")
+                    .description("Payload size per page")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry);
+            pageLatency = Timer.builder("eas.fetch.page.latency")
+                    .description("Time to fetch a page")
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Record a page requested with a known count, as chosen by the page sizer.
+         */
+        void record(int requested, InstancePage page) {
+            pageSizes.record(requested);
+            record(page);
+        }
+
+        /**
+         * Record a page followed from a next_page link whose count is unknown, so only what it returned.
+         */
+        void record(InstancePage page) {
+            pageInstances.record(page.instances().size());
+            pageBytes.record(page.bytes());
+            pageLatency.record(page.latencyNanos(), TimeUnit.NANOSECONDS);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed EAS requests are retried and how long to wait before the next attempt.
+ * Delays grow exponentially from the initial backoff with equal jitter, so that requests
+ * rejected together do not come back together, and never undercut a Retry-After from EAS.
+ */
+class EASRetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    EASRetryPolicy(EASResilienceProperties properties) {
+        this.maxAttempts = Math.max(1, properties.getMaxAttempts());
+        this.initialBackoffNanos = Math.max(1, properties.getInitialBackoff().toNanos());
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, properties.getMaxBackoff().toNanos());
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1
+     * @return Whether another attempt may be made
+     */
+    boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Whether a failure means EAS is overloaded or rate limiting: 429, 502, 503 and 504 responses
+     * and requests that failed or timed out before a response arrived. These are both retried and
+     * fed back to the concurrency limiter.
+     */
+    boolean isOverload(RuntimeException e) {
+        if (e instanceof RestClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        return e instanceof ResourceAccessException;
+    }
+
+    /**
+     * Read the Retry-After header of a failed request, in either delta-seconds or HTTP-date form.
+     *
+     * @param e The failure
+     * @return The requested delay capped at the maximum backoff, or null if EAS did not send one
+     */
+    Duration retryAfter(RuntimeException e) {
+        if (!(e instanceof RestClientResponseException response) || response.getResponseHeaders() == null) {
+            return null;
+        }
+        String value = response.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+
+        Duration delay;
+        try {
+            delay = Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException _) {
+            try {
+                delay = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException _) {
+                return null;
+            }
+        }
+        if (delay.isNegative()) {
+            return Duration.ZERO;
+        }
+        return delay.toNanos() > maxBackoffNanos ? Duration.ofNanos(maxBackoffNanos) : delay;
+    }
+
+    /**
+     * Delay before the next attempt: half of the exponential backoff plus a random share of the
+     * other half, and at least the Retry-After if EAS sent one.
+     *
+     * @param attempt The attempt that just failed, starting at 1
+     * @param retryAfter The delay EAS asked for, or null
+     * @return The delay before the next attempt
+     */
+    Duration backoff(int attempt, Duration retryAfter) {
+        long ceiling = initialBackoffNanos << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffNanos) {
+            ceiling = maxBackoffNanos;
+        }
+        long half = ceiling / 2;
+        long delay = half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+        if (retryAfter != null) {
+            delay = Math.max(delay, retryAfter.toNanos());
+        }
+        return Duration.ofNanos(delay);
+    }
+}
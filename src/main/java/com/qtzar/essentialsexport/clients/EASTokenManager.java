@@ -0,0 +1,183 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.model.essential.request.BearerTokenBody;
+import com.qtzar.essentialsexport.model.essential.request.RefreshTokenBody;
+import com.qtzar.essentialsexport.model.essential.response.BearerTokenResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the EAS bearer token for all threads of the client.
+ * Reads are lock-free against an immutable snapshot; when the token needs replacing only one
+ * thread calls /oauth/token while the others wait for its result. The refresh grant is used
+ * while the refresh token is still valid, and a token that is in use is renewed in the
+ * background shortly before it expires.
+ */
+@Slf4j
+class EASTokenManager implements AutoCloseable {
+
+    /**
+     * Tokens this close to expiry are treated as expired
+     */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(60);
+
+    /**
+     * How long before expiry a token in use is renewed in the background
+     */
+    private static final Duration RENEW_AHEAD = Duration.ofMinutes(2);
+
+    private final RestClient restClient;
+    private final String apiKey;
+    private final String username;
+    private final String password;
+
+    private final AtomicReference<TokenSnapshot> current = new AtomicReference<>(TokenSnapshot.NONE);
+    private final AtomicBoolean usedSinceIssue = new AtomicBoolean();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final ScheduledExecutorService renewalScheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("eas-token-renewal").factory());
+
+    EASTokenManager(RestClient restClient, String apiKey, String username, String password) {
+        this.restClient = restClient;
+        this.apiKey = apiKey;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Get the value for the Authorization header, refreshing the token first if it has expired.
+     *
+     * @return The bearer authorization header value
+     */
+    String getAuthorization() {
+        usedSinceIssue.set(true);
+        TokenSnapshot token = current.get();
+        if (token.isValidAt(Instant.now().plus(EXPIRY_MARGIN))) {
+            return token.authorization();
+        }
+        return refresh(false).authorization();
+    }
+
+    /**
+     * Replace the current token. Only one refresh runs at a time; a caller that waited for
+     * another thread's refresh uses that result unless {@code force} is set.
+     *
+     * @param force Replace the token even if it is still valid
+     * @return The token to use
+     */
+    private TokenSnapshot refresh(boolean force) {
+        refreshLock.lock();
+        try {
+            TokenSnapshot token = current.get();
+            if (!force && token.isValidAt(Instant.now().plus(EXPIRY_MARGIN))) {
+                return token;
+            }
+
+            TokenSnapshot fresh = requestToken(token);
+            current.set(fresh);
+            usedSinceIssue.set(false);
+            scheduleRenewal(fresh);
+            return fresh;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private TokenSnapshot requestToken(TokenSnapshot token) {
+        if (token.canRefreshAt(Instant.now().plus(EXPIRY_MARGIN))) {
+            try {
+                RefreshTokenBody refreshTokenBody = new RefreshTokenBody();
+                refreshTokenBody.setGrantType("refresh_token");
+                refreshTokenBody.setRefreshToken(token.refreshToken());
+                return TokenSnapshot.from(postToken(refreshTokenBody));
+            } catch (RestClientException e) {
+                log.warn("EAS token refresh failed, requesting a new token: {}", e.getMessage());
+            }
+        }
+
+        BearerTokenBody body = new BearerTokenBody();
+        body.setGrantType("password");
+        body.setUsername(username);
+        body.setPassword(password);
+        return TokenSnapshot.from(postToken(body));
+    }
+
+    private BearerTokenResponse postToken(Object body) {
+        BearerTokenResponse response = restClient.post()
+                .uri("/oauth/token")
+                .body(body)
+                .header("x-api-key", apiKey)
+                .contentType(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .body(BearerTokenResponse.class);
+
+        if (response == null) {
+            throw new IllegalStateException("EAS returned an empty token response");
+        }
+        return response;
+    }
+
+    /**
+     * Renew the token shortly before it expires, but only if it was used since it was issued.
+     * Tokens too short-lived to renew ahead of time are refreshed on demand instead.
+     */
+    private void scheduleRenewal(TokenSnapshot token) {
+        long delayMillis = Duration.between(Instant.now(), token.authExpires().minus(RENEW_AHEAD)).toMillis();
+        if (delayMillis <= 0 || renewalScheduler.isShutdown()) {
+            return;
+        }
+
+        renewalScheduler.schedule(() -> {
+            if (current.get() != token || !usedSinceIssue.get()) {
+                return;
+            }
+            try {
+                refresh(true);
+            } catch (RuntimeException e) {
+                log.warn("Background renewal of the EAS token failed: {}", e.getMessage());
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        renewalScheduler.shutdownNow();
+    }
+
+    /**
+     * Immutable view of the tokens issued by EAS.
+     */
+    private record TokenSnapshot(String authorization, String refreshToken, Instant authExpires, Instant refreshExpires) {
+
+        static final TokenSnapshot NONE = new TokenSnapshot("", "", Instant.MIN, Instant.MIN);
+
+        static TokenSnapshot from(BearerTokenResponse response) {
+            Instant now = Instant.now();
+            return new TokenSnapshot(
+                    "Bearer " + response.getBearerToken(),
+                    response.getRefreshToken() != null ? response.getRefreshToken() : "",
+                    now.plus(response.getExpiresInMinutes(), ChronoUnit.MINUTES),
+                    now.plus(response.getRefreshTokenExpiresInMinutes(), ChronoUnit.MINUTES));
+        }
+
+        boolean isValidAt(Instant instant) {
+            return !authorization.isEmpty() && authExpires.isAfter(instant);
+        }
+
+        boolean canRefreshAt(Instant instant) {
+            return !refreshToken.isEmpty() && refreshExpires.isAfter(instant);
+        }
+    }
+}
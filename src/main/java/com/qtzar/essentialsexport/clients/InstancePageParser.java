@@ -0,0 +1,176 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming parser for pages of the EAS /instances endpoint.
+ * Reads the instances array token by token straight into {@link EASInstance} records, interning
+ * slot and class names and sharing one slot name array between instances with the same layout,
+ * instead of materialising a generic map per instance.
+ */
+class InstancePageParser {
+
+    private static final String[] NO_SLOTS = new String[0];
+
+    private final JsonMapper jsonMapper;
+
+    /**
+     * Slot and class names seen so far; the set of names in a repository is small and stable
+     */
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    InstancePageParser(JsonMapper jsonMapper) {
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * Parse one page of instances.
+     *
+     * @param body The response body
+     * @return The instances on the page and the next_page pagination, if any
+     */
+    ParsedPage parse(InputStream body) {
+        List<EASInstance> instances = new ArrayList<>();
+        String nextPage = null;
+
+        try (JsonParser parser = jsonMapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new ParsedPage(instances, null);
+            }
+
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if ("instances".equals(field) && token == JsonToken.START_ARRAY) {
+                    readInstances(parser, instances);
+                } else if ("next_page".equals(field) && token == JsonToken.VALUE_STRING) {
+                    nextPage = parser.getString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        return new ParsedPage(instances, nextPage);
+    }
+
+    private void readInstances(JsonParser parser, List<EASInstance> instances) {
+        List<String> slotNames = new ArrayList<>();
+        List<Object> slotValues = new ArrayList<>();
+        String[] layout = NO_SLOTS;
+
+        for (JsonToken token = parser.nextToken(); token != null && token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            // A null or other non-object element is not an instance, but must not end the array
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            String id = null;
+            String name = null;
+            String className = null;
+            slotNames.clear();
+            slotValues.clear();
+
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String slotName = intern(parser.currentName());
+                parser.nextToken();
+
+                switch (slotName) {
+                    case "id" -> id = readString(parser);
+                    case "name" -> name = readString(parser);
+                    case "className" -> className = intern(readString(parser));
+                    default -> {
+                        slotNames.add(slotName);
+                        slotValues.add(readValue(parser));
+                    }
+                }
+            }
+
+            if (!sameLayout(layout, slotNames)) {
+                layout = slotNames.toArray(NO_SLOTS);
+            }
+            instances.add(new EASInstance(id, name, className, layout, slotValues.toArray()));
+        }
+    }
+
+    /**
+     * Read the value at the current token, producing the same types as a generic Jackson map
+     * but with interned object keys and class names.
+     */
+    private Object readValue(JsonParser parser) {
+        return switch (parser.currentToken()) {
+            case VALUE_STRING -> parser.getString();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case START_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(readValue(parser));
+                }
+                yield list;
+            }
+            case START_OBJECT -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String key = intern(parser.currentName());
+                    parser.nextToken();
+                    Object value = readValue(parser);
+                    map.put(key, "className".equals(key) && value instanceof String s ? intern(s) : value);
+                }
+                yield map;
+            }
+            default -> null;
+        };
+    }
+
+    private String readString(JsonParser parser) {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+    }
+
+    private String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String existing = names.putIfAbsent(name, name);
+        return existing != null ? existing : name;
+    }
+
+    private static boolean sameLayout(String[] layout, List<String> slotNames) {
+        if (layout.length != slotNames.size()) {
+            return false;
+        }
+        for (int i = 0; i < layout.length; i++) {
+            // Names are interned so identity is enough
+            if (layout[i] != slotNames.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A parsed page of instances.
+     *
+     * @param instances The instances on the page
+     * @param nextPage Pagination of the following page, or null on the last page
+     */
+    record ParsedPage(List<EASInstance> instances, String nextPage) {
+    }
+}
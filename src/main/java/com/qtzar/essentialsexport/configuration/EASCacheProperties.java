@@ -0,0 +1,40 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Options for the in-memory cache of instances fetched from EAS, so that repeated exports of the
+ * same classes do not refetch them.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.cache")
+@Getter
+@Setter
+public class EASCacheProperties {
+
+    /**
+     * Whether fetched instances are cached at all
+     */
+    private boolean enabled = true;
+
+    /**
+     * How long fetched instances are served from the cache before they are fetched again
+     */
+    private Duration ttl = Duration.ofMinutes(10);
+
+    /**
+     * Maximum number of cached instance lists, one per repository, class, slot set and depth
+     */
+    private int maxEntries = 500;
+
+    /**
+     * Maximum number of slot values held across all cached lists; the least recently used lists
+     * are evicted beyond this. Each instance weighs its slot count plus its id, name and class
+     */
+    private long maxWeight = 5_000_000;
+}
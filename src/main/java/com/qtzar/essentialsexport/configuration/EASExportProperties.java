@@ -0,0 +1,38 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+/**
+ * Options for generating DUP exports.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.export")
+@Getter
+@Setter
+public class EASExportProperties {
+
+    /**
+     * Estimated heap each export may hold its fetched instances in until its script has been
+     * written. Instances beyond it, from the page of a class being fetched that no longer fits,
+     * are spilled to a temporary file and read back as the script is written. Zero for no limit
+     */
+    private DataSize memoryBudget = DataSize.ofMegabytes(512);
+
+    /**
+     * Directory for the temporary files of exports that exceed their memory budget, and of
+     * pipelined exports
+     */
+    private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+
+    /**
+     * Number of instance pages, and of 64KB blocks of script, each stage of a pipelined export
+     * may queue for the next before it has to wait
+     */
+    private int pipelineQueueCapacity = 8;
+}
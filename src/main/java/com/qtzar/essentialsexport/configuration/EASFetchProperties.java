@@ -0,0 +1,55 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Tuning options for how instance data is fetched from EAS during an export.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.fetch")
+@Getter
+@Setter
+public class EASFetchProperties {
+
+    /**
+     * Maximum number of classes fetched from EAS at the same time during a single export
+     */
+    private int maxConcurrentClasses = 8;
+
+    /**
+     * Number of instance pages requested concurrently for one class when a repository
+     * does not set its own prefetch depth. A value of 1 disables prefetching.
+     */
+    private int prefetchDepth = 4;
+
+    /**
+     * Page size used for the first page of a class that has not been fetched before
+     */
+    private int initialPageSize = 100;
+
+    /**
+     * Smallest page size the adaptive pagination will shrink to
+     */
+    private int minPageSize = 25;
+
+    /**
+     * Largest page size the adaptive pagination will grow to
+     */
+    private int maxPageSize = 2000;
+
+    /**
+     * Pages slower than this make the adaptive pagination shrink the page size
+     */
+    private Duration targetPageLatency = Duration.ofSeconds(2);
+
+    /**
+     * Pages larger than this make the adaptive pagination shrink the page size
+     */
+    private DataSize maxPageBytes = DataSize.ofMegabytes(8);
+}
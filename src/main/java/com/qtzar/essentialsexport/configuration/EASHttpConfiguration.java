@@ -0,0 +1,55 @@
+package com.qtzar.essentialsexport.configuration;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the shared HTTP client used for all EAS calls, so concurrent fetches reuse pooled
+ * connections (or HTTP/2 streams) instead of opening a new connection per request.
+ * <p>
+ * The size of the connection pool and how long idle connections are kept are not settings of the
+ * client: the JDK reads them once per JVM, the first time any HTTP client is created, from the
+ * {@code jdk.httpclient.connectionPoolSize}, {@code jdk.httpclient.keepalive.timeout} and
+ * {@code jdk.httpclient.keepalive.timeout.h2} system properties. Set them as JVM flags, e.g.
+ * {@code -Djdk.httpclient.connectionPoolSize=32 -Djdk.httpclient.keepalive.timeout=300}.
+ */
+@Configuration
+public class EASHttpConfiguration {
+
+    // Not closed by the client, as it did not create it
+    private final ExecutorService easHttpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Bean(destroyMethod = "close")
+    public HttpClient easHttpClient(EASHttpProperties properties) {
+        return httpClientBuilder(properties, easHttpExecutor).build();
+    }
+
+    /**
+     * Create a builder for the EAS HTTP client with the configured transport settings applied.
+     *
+     * @param properties The transport settings
+     * @param executor Runs the client's asynchronous tasks; the caller closes it once the client is closed
+     * @return The configured builder
+     */
+    public static HttpClient.Builder httpClientBuilder(EASHttpProperties properties, Executor executor) {
+        return HttpClient.newBuilder()
+                .version(properties.getVersion())
+                .connectTimeout(properties.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor);
+    }
+
+    /**
+     * Close the executor of the HTTP client, which is closed first as it depends on this configuration.
+     */
+    @PreDestroy
+    public void shutdown() {
+        easHttpExecutor.close();
+    }
+}
@@ -0,0 +1,47 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Transport settings for the HTTP client used to talk to EAS. The connection pool is configured
+ * with JVM flags instead, as described on {@link EASHttpConfiguration}.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.http")
+@Getter
+@Setter
+public class EASHttpProperties {
+
+    /**
+     * Preferred HTTP version. HTTP_2 multiplexes concurrent requests over one connection
+     * when the server supports it and falls back to HTTP/1.1 otherwise
+     */
+    private HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+    /**
+     * Maximum time to establish a connection
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Maximum time to wait for a response
+     */
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Number of connections opened to the EAS endpoint at startup so the first export does not
+     * pay for the TLS handshakes. 0 disables warm-up
+     */
+    private int warmupConnections = 2;
+
+    /**
+     * Ask EAS for gzip compressed instance pages and class metadata and decompress them while parsing
+     */
+    private boolean compression = true;
+}
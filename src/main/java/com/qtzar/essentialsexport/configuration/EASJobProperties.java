@@ -0,0 +1,46 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Options for export jobs, which generate DUP exports in the background and keep the finished
+ * archives on disk until they are downloaded.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.jobs")
+@Getter
+@Setter
+public class EASJobProperties {
+
+    /**
+     * Number of export jobs run at the same time
+     */
+    private int maxConcurrentJobs = 2;
+
+    /**
+     * Number of submitted export jobs that may wait for one of the running jobs to finish before
+     * further submissions are refused
+     */
+    private int queueCapacity = 16;
+
+    /**
+     * Directory holding the archive of every finished export job
+     */
+    private Path artifactDirectory = Path.of("data", "exports");
+
+    /**
+     * Finished jobs and their archives are deleted once they are older than this
+     */
+    private Duration retention = Duration.ofHours(24);
+
+    /**
+     * How often jobs past their retention are looked for
+     */
+    private Duration sweepInterval = Duration.ofMinutes(10);
+}
@@ -0,0 +1,33 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Options for the cached class metadata served to the UI by /api/dup/classes.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.metadata")
+@Getter
+@Setter
+public class EASMetadataProperties {
+
+    /**
+     * Load the metadata of every configured repository in the background once the application has started
+     */
+    private boolean prewarm = true;
+
+    /**
+     * How often the cached metadata of every known repository is reloaded in the background
+     */
+    private Duration refreshInterval = Duration.ofMinutes(15);
+
+    /**
+     * Metadata older than this, because background refreshes kept failing, is reloaded on request
+     */
+    private Duration maxAge = Duration.ofHours(1);
+}
@@ -21,5 +21,10 @@ public class EASRepositoriesProperties {
     public static class Repository {
         private String name;
         private String repoId;
+
+        /**
+         * Pages prefetched concurrently for this repository, overriding eas.fetch.prefetch-depth
+         */
+        private Integer prefetchDepth;
     }
 }
@@ -0,0 +1,58 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Limits on concurrent EAS requests and how failed requests are retried.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.resilience")
+@Getter
+@Setter
+public class EASResilienceProperties {
+
+    /**
+     * Number of EAS requests allowed in flight before the limiter has seen any responses
+     */
+    private int initialConcurrency = 16;
+
+    /**
+     * The limiter never shrinks below this many requests in flight
+     */
+    private int minConcurrency = 1;
+
+    /**
+     * The limiter never grows beyond this many requests in flight
+     */
+    private int maxConcurrency = 64;
+
+    /**
+     * Requests answered within this time let the limiter grow; slower ones hold it steady
+     */
+    private Duration healthyLatency = Duration.ofSeconds(2);
+
+    /**
+     * Factor the limit is multiplied by when EAS is overloaded
+     */
+    private double backoffRatio = 0.5;
+
+    /**
+     * Attempts made for one request, including the first, before the error is passed on
+     */
+    private int maxAttempts = 5;
+
+    /**
+     * Delay before the first retry; doubled for each further attempt
+     */
+    private Duration initialBackoff = Duration.ofMillis(500);
+
+    /**
+     * Upper bound on the delay between attempts, including delays asked for by Retry-After
+     */
+    private Duration maxBackoff = Duration.ofSeconds(30);
+}
@@ -0,0 +1,46 @@
+package com.qtzar.essentialsexport.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Options for the on-disk snapshots of instance data fetched from EAS, which let later exports
+ * be rendered without downloading the same classes again.
+ */
+@Component
+@ConfigurationProperties(prefix = "eas.snapshot")
+@Getter
+@Setter
+public class EASSnapshotProperties {
+
+    /**
+     * Whether fetched classes are written to snapshots and exports read them back instead of
+     * fetching them from EAS. Off by default, as an export served from a snapshot can be up to the
+     * maximum age out of date; an export that does read one names the classes it read and when
+     * they were fetched
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory holding one snapshot file per repository
+     */
+    private Path dataDirectory = Path.of("data", "snapshots");
+
+    /**
+     * Snapshots older than this are ignored and the class is fetched from EAS again. They are
+     * deleted from disk the next time a class of their repository is written
+     */
+    private Duration maxAge = Duration.ofHours(24);
+
+    /**
+     * A snapshot file is compacted once the records superseded by newer fetches take up more
+     * than this, and more than the live records
+     */
+    private DataSize compactThreshold = DataSize.ofMegabytes(64);
+}
@@ -1,19 +1,22 @@
 package com.qtzar.essentialsexport.controllers;
 
-import com.qtzar.essentialsexport.clients.EASClient;
 import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
 import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
+import com.qtzar.essentialsexport.services.ClassMetadataCache;
 import com.qtzar.essentialsexport.services.DUPExportService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Controller for DUP (Data Update Package) export operations.
@@ -25,7 +28,7 @@ import java.util.List;
 public class DUPExportController {
 
     private final DUPExportService dupExportService;
-    private final EASClient easClient;
+    private final ClassMetadataCache classMetadataCache;
     private final EASRepositoriesProperties easRepositoriesProperties;
 
     /**
@@ -50,10 +53,41 @@ public class DUPExportController {
                     .body(resource);
 
         } catch (IOException e) {
+            log.error("Error generating DUP export for repository {}: {}", request.getRepoId(), e.getMessage(), e);
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    /**
+     * Generates a DUP export file and streams it to the client as it is written, without holding
+     * the archive in memory or knowing its length up front. The response starts before anything
+     * is fetched, so the download begins straight away instead of once every class has been
+     * fetched, and a pipelined export sends the archive as its instances arrive. As the response
+     * has already started, a failed fetch can no longer become a 500: the response is aborted
+     * instead, and the archive left incomplete.
+     *
+     * @param request The export request containing class and field selections
+     * @return ResponseEntity streaming the .dup file for download
+     */
+    @PostMapping("/export/stream")
+    public ResponseEntity<StreamingResponseBody> streamExport(@RequestBody DUPExportRequest request) {
+        String filename = sanitizeFilename(request.getExternalRepositoryName()) + ".dup";
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(out -> {
+                    // Sends the headers, so the client sees the download start while the instances are fetched
+                    out.flush();
+                    try {
+                        dupExportService.writeDUPExport(request, out);
+                    } catch (IOException e) {
+                        log.error("Error streaming DUP export for repository {}: {}", request.getRepoId(), e.getMessage(), e);
+                        throw e;
+                    }
+                });
+    }
+
     /**
      * Get list of available EAS repositories.
      *
@@ -67,17 +101,28 @@ public class DUPExportController {
     /**
      * Get all available EAS classes metadata with nested slots for a specific repository.
      * Returns a map structure where keys are class names and values contain slot information.
+     * The metadata is served from the cache as pre-serialized JSON with an ETag, so a browser that
+     * already holds the current metadata gets a 304 Not Modified.
      *
      * @param repoId The repository ID to query
-     * @return Map of class metadata with nested slots
+     * @return Map of class metadata with nested slots, or 404 if the repository is not configured
      */
     @GetMapping("/classes")
     public ResponseEntity<Object> getClasses(@RequestParam String repoId) {
         try {
             log.debug("Fetching classes metadata for repository: {}", repoId);
-            Object classes = easClient.getClassesMetadata(repoId);
+            Optional<ClassMetadataCache.ClassMetadata> cached = classMetadataCache.get(repoId);
+            if (cached.isEmpty()) {
+                log.warn("Classes metadata requested for unconfigured repository: {}", repoId);
+                return ResponseEntity.notFound().build();
+            }
+            ClassMetadataCache.ClassMetadata classes = cached.get();
             log.debug("Successfully fetched classes metadata");
-            return ResponseEntity.ok(classes);
+            return ResponseEntity.ok()
+                    .eTag(classes.etag())
+                    .cacheControl(CacheControl.noCache())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(classes.json());
         } catch (Exception e) {
             log.error("Error fetching classes metadata for repository {}: {}", repoId, e.getMessage(), e);
             return ResponseEntity.internalServerError()
@@ -91,7 +136,7 @@ public class DUPExportController {
      * @param input The input string
      * @return A sanitized filename
      */
-    private String sanitizeFilename(String input) {
+    static String sanitizeFilename(String input) {
         if (input == null || input.isBlank()) {
             return "export";
         }
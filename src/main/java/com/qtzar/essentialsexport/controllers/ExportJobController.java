@@ -0,0 +1,111 @@
+package com.qtzar.essentialsexport.controllers;
+
+import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
+import com.qtzar.essentialsexport.services.ExportJobService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Controller for DUP exports run as background jobs, whose archives are downloaded once they
+ * have been written rather than streamed while the request is held open.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/dup/jobs")
+@RequiredArgsConstructor
+public class ExportJobController {
+
+    private final ExportJobService exportJobService;
+
+    /**
+     * Queues a DUP export to run in the background.
+     *
+     * @param request The export request containing class and field selections
+     * @return 202 Accepted with the queued job and its location, or 503 if too many jobs are queued
+     */
+    @PostMapping
+    public ResponseEntity<ExportJobService.ExportJob> submitJob(@RequestBody DUPExportRequest request) {
+        try {
+            ExportJobService.ExportJob job = exportJobService.submit(request);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/dup/jobs/" + job.id()))
+                    .body(job);
+        } catch (RejectedExecutionException e) {
+            log.warn("Refused export job for repository {}: too many jobs queued", request.getRepoId());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Lists the export jobs, the most recently submitted first.
+     *
+     * @return The jobs
+     */
+    @GetMapping
+    public ResponseEntity<List<ExportJobService.ExportJob>> listJobs() {
+        return ResponseEntity.ok(exportJobService.list());
+    }
+
+    /**
+     * Gets the state of an export job.
+     *
+     * @param id The job ID
+     * @return The job, or 404 if there is no such job
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<ExportJobService.ExportJob> getJob(@PathVariable String id) {
+        return ResponseEntity.of(exportJobService.get(id));
+    }
+
+    /**
+     * Downloads the .dup file of a finished export job. Range requests are supported, so an
+     * interrupted download of a large archive can be resumed; the ETag, which stays the same for
+     * as long as the job exists, tells a client that the archive is still the one it started on.
+     *
+     * @param id The job ID
+     * @return The .dup file, 404 if there is no such job, or 409 if it has not succeeded
+     */
+    @GetMapping("/{id}/download")
+    public ResponseEntity<Resource> downloadJob(@PathVariable String id) {
+        Optional<ExportJobService.ExportJob> job = exportJobService.get(id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Optional<Path> archive = exportJobService.archive(id);
+        if (archive.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        String filename = DUPExportController.sanitizeFilename(job.get().externalRepositoryName()) + ".dup";
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .eTag("\"" + id + "\"")
+                .lastModified(job.get().finishedAt())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(new FileSystemResource(archive.get()));
+    }
+
+    /**
+     * Deletes an export job and its archive, cancelling it if it has not finished.
+     *
+     * @param id The job ID
+     * @return 204 No Content, or 404 if there is no such job
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteJob(@PathVariable String id) {
+        return exportJobService.delete(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
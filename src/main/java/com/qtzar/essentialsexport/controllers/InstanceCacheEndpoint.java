@@ -0,0 +1,86 @@
+package com.qtzar.essentialsexport.controllers;
+
+import com.qtzar.essentialsexport.services.InstanceCache;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint for the instance cache.
+ * GET /actuator/instancecache lists the cached entries, DELETE /actuator/instancecache clears the
+ * cache and DELETE /actuator/instancecache/{repoId}?className= invalidates a repository or one
+ * of its classes.
+ */
+@Component
+@Endpoint(id = "instancecache")
+@RequiredArgsConstructor
+public class InstanceCacheEndpoint {
+
+    private final InstanceCache instanceCache;
+
+    /**
+     * List the live cache entries, least recently used first.
+     *
+     * @return Summary of each entry
+     */
+    @ReadOperation
+    public List<EntryDescriptor> entries() {
+        return instanceCache.getEntries().stream()
+                .map(entry -> new EntryDescriptor(
+                        entry.key().repoId(),
+                        entry.key().className(),
+                        entry.key().maxDepth(),
+                        entry.key().slots() != null ? List.copyOf(entry.key().slots()) : null,
+                        entry.instances().size(),
+                        entry.weight(),
+                        entry.loadedAt(),
+                        entry.expiresAt()))
+                .toList();
+    }
+
+    /**
+     * Remove every entry from the cache.
+     *
+     * @return The number of entries removed
+     */
+    @DeleteOperation
+    public Map<String, Integer> invalidateAll() {
+        return Map.of("removed", instanceCache.invalidateAll());
+    }
+
+    /**
+     * Remove the entries of a repository, or of one class in it.
+     *
+     * @param repoId The repository ID
+     * @param className The class name, or null for every class of the repository
+     * @return The number of entries removed
+     */
+    @DeleteOperation
+    public Map<String, Integer> invalidate(@Selector String repoId, @Nullable String className) {
+        return Map.of("removed", instanceCache.invalidate(repoId, className));
+    }
+
+    /**
+     * Summary of one cache entry.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances were fetched with
+     * @param slots The cached slots in name order, or null when all slots were fetched
+     * @param instances Number of cached instances
+     * @param weight Number of slot values held
+     * @param loadedAt When the instances were fetched
+     * @param expiresAt When the entry stops being served
+     */
+    public record EntryDescriptor(String repoId, String className, int maxDepth, List<String> slots,
+                                  int instances, long weight, Instant loadedAt, Instant expiresAt) {
+    }
+}
@@ -35,4 +35,59 @@ public class DUPExportRequest {
      * List of class selections for export
      */
     private List<ClassSelection> classSelections;
+
+    /**
+     * Fetch every class from EAS even if it is held in the instance cache or a local snapshot
+     */
+    private boolean refreshFromEas;
+
+    /**
+     * Maximum number of instances per chunk of the import script, after which a chunk token is
+     * written so the importer can run the script in parts; 0 for no instance limit
+     */
+    private int chunkSize;
+
+    /**
+     * Maximum size of a chunk of the import script in kilobytes (counted in characters), checked
+     * after each instance; 0 for no size limit
+     */
+    private int chunkKilobytes;
+
+    /**
+     * Write the import script as per-class data tables driven by a small loop, rather than as
+     * separate statements and a global variable for every instance
+     */
+    private boolean compactScript;
+
+    /**
+     * Ship the optimised functions pack, with cached slot and class lookups and throttled progress
+     * messages, on top of the standard functions pack
+     */
+    private boolean optimisedFunctions;
+
+    /**
+     * Index the existing instances of each exported class by name and external reference once at
+     * the start of the import, so that finding each instance is a dictionary lookup instead of a
+     * search of the knowledge base
+     */
+    private boolean indexedLookups;
+
+    /**
+     * Create and populate each instance together, ordering instances so that referenced ones come
+     * first, instead of writing a pass that creates every instance and then one that populates
+     * them; not used for compact scripts
+     */
+    private boolean singlePass;
+
+    /**
+     * Stream the instances from EAS into the script and the archive as they are fetched, after a
+     * first pass that fetches only their IDs, instead of fetching every class before writing;
+     * always fetches from EAS, and not used with a single pass script. A fetch failing once the
+     * archive is being streamed aborts the download rather than returning an error status
+     */
+    private boolean pipelined;
+
+    public DUPExportRequest(String repoId, String externalRepositoryName, String idPrefix, List<ClassSelection> classSelections) {
+        this(repoId, externalRepositoryName, idPrefix, classSelections, false, 0, 0, false, false, false, false, false);
+    }
 }
@@ -0,0 +1,68 @@
+package com.qtzar.essentialsexport.model.essential.response;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact form of an instance returned by the EAS /instances endpoint.
+ * The id, name and className are held directly; all other slots are kept in parallel arrays
+ * where the slot name array is interned and shared by every instance with the same slot layout.
+ *
+ * @param id The instance ID
+ * @param name The instance name
+ * @param className The class of the instance
+ * @param slotNames Names of the remaining slots, shared between instances
+ * @param slotValues Values of the remaining slots, in the same order as {@code slotNames}
+ */
+public record EASInstance(String id, String name, String className, String[] slotNames, Object[] slotValues) {
+
+    private static final String[] NO_SLOTS = new String[0];
+
+    /**
+     * Get the value of a slot.
+     *
+     * @param slotName The slot name
+     * @return The slot value, or null if the instance has no value for it
+     */
+    public Object get(String slotName) {
+        switch (slotName) {
+            case "id" -> {
+                return id;
+            }
+            case "name" -> {
+                return name;
+            }
+            case "className" -> {
+                return className;
+            }
+            default -> {
+                for (int i = 0; i < slotNames.length; i++) {
+                    if (slotNames[i].equals(slotName)) {
+                        return slotValues[i];
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Build an instance from the generic map form of the EAS response.
+     *
+     * @param instance The instance as a map of slot name to value
+     * @return The compact instance
+     */
+    public static EASInstance fromMap(Map<String, Object> instance) {
+        Map<String, Object> slots = new LinkedHashMap<>(instance);
+        Object id = slots.remove("id");
+        Object name = slots.remove("name");
+        Object className = slots.remove("className");
+
+        return new EASInstance(
+                id != null ? id.toString() : null,
+                name != null ? name.toString() : null,
+                className != null ? className.toString() : null,
+                slots.keySet().toArray(NO_SLOTS),
+                slots.values().toArray());
+    }
+}
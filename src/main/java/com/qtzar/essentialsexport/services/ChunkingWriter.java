@@ -0,0 +1,120 @@
+package com.qtzar.essentialsexport.services;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+
+/**
+ * Splits the import script into chunks by writing the chunk token declared for
+ * dup_import_script.py in update.info. The importer runs each chunk in turn in the same Jython
+ * session as the standard functions pack, so record variables bound in an earlier chunk stay
+ * resolvable in later ones; a chunk only ever needs to stay under the size the importer can
+ * compile in one go.
+ * <p>
+ * Tokens are only placed before the statements of an instance, never inside them, and only once
+ * another instance follows, so the script never ends with an empty chunk.
+ */
+final class ChunkingWriter extends FilterWriter {
+
+    static final String CHUNK_TOKEN = "###-CHUNK-###";
+
+    private final JythonScriptWriter script;
+    private final int maxInstances;
+    private final long maxChars;
+
+    private int instances;
+    private long chars;
+
+    /**
+     * @param out The writer the script is written to
+     * @param maxInstances Maximum number of instances per chunk, or 0 for no limit
+     * @param maxKilobytes Maximum size of a chunk in kilobytes of characters, or 0 for no limit
+     */
+    ChunkingWriter(JythonScriptWriter out, int maxInstances, int maxKilobytes) {
+        super(out);
+        this.script = out;
+        this.maxInstances = Math.max(0, maxInstances);
+        this.maxChars = Math.max(0, maxKilobytes) * 1024L;
+    }
+
+    /**
+     * Mark the start of the statements for an instance, starting a new chunk first if the current
+     * one has reached either limit.
+     *
+     * @throws IOException if the chunk token could not be written
+     */
+    void startInstance() throws IOException {
+        startInstances(1);
+    }
+
+    /**
+     * Mark the start of a single statement covering several instances, such as a batch of rows in
+     * a compact script, starting a new chunk first if the current one has reached either limit.
+     * The batch is never split, so a chunk can exceed the instance limit by less than a batch.
+     *
+     * @param count The number of instances the statement covers
+     * @throws IOException if the chunk token could not be written
+     */
+    void startInstances(int count) throws IOException {
+        if ((maxInstances > 0 && instances >= maxInstances) || (maxChars > 0 && chars >= maxChars)) {
+            out.write(CHUNK_TOKEN);
+            out.write('\n');
+            instances = 0;
+            chars = 0;
+        }
+        instances += count;
+    }
+
+    /**
+     * End the current chunk, if the script is chunked at all and the chunk holds any instance,
+     * for when the statements that follow were written through another writer whose chunks
+     * started afresh.
+     *
+     * @throws IOException if the chunk token could not be written
+     */
+    void endChunk() throws IOException {
+        if ((maxInstances > 0 || maxChars > 0) && instances > 0) {
+            out.write(CHUNK_TOKEN);
+            out.write('\n');
+            instances = 0;
+            chars = 0;
+        }
+    }
+
+    /**
+     * Write a value as a unicode string literal, {@code u'...'}.
+     *
+     * @param value The value, or null for an empty string
+     * @throws IOException if the literal could not be written
+     */
+    void writeUnicode(String value) throws IOException {
+        chars += script.writeUnicodeLiteral(value);
+    }
+
+    /**
+     * Write a value as a byte string literal, {@code '...'}.
+     *
+     * @param value The value, or null for an empty string
+     * @throws IOException if the literal could not be written
+     */
+    void writeString(String value) throws IOException {
+        chars += script.writeStringLiteral(value);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        chars++;
+        out.write(c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        this.chars += length;
+        out.write(chars, offset, length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        chars += length;
+        out.write(string, offset, length);
+    }
+}
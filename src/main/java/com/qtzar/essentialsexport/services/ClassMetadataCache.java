@@ -0,0 +1,137 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.clients.EASClient;
+import com.qtzar.essentialsexport.configuration.EASMetadataProperties;
+import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class metadata per repository, held as the serialized JSON that /api/dup/classes returns
+ * together with an ETag of it. The metadata of every configured repository is loaded when the
+ * application starts and reloaded in the background on a schedule, so requests are normally
+ * answered from memory without calling EAS. Only configured repositories are served, so what is
+ * held and refreshed cannot grow with the repository IDs that clients ask for.
+ */
+@Slf4j
+@Service
+public class ClassMetadataCache {
+
+    private final EASClient easClient;
+    private final EASRepositoriesProperties repositoriesProperties;
+    private final EASMetadataProperties properties;
+    private final JsonMapper jsonMapper;
+
+    private final Map<String, ClassMetadata> metadata = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> loadLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refreshScheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("eas-metadata-refresh").factory());
+
+    public ClassMetadataCache(EASClient easClient, EASRepositoriesProperties repositoriesProperties,
+                              EASMetadataProperties properties, JsonMapper jsonMapper) {
+        this.easClient = easClient;
+        this.repositoriesProperties = repositoriesProperties;
+        this.properties = properties;
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * Pre-warm the configured repositories and start the background refresh.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (properties.isPrewarm()) {
+            refreshScheduler.execute(this::refreshAll);
+        }
+        long interval = properties.getRefreshInterval().toMillis();
+        if (interval > 0) {
+            refreshScheduler.scheduleWithFixedDelay(this::refreshAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the class metadata of a repository, loading it from EAS if it is not cached or too old.
+     *
+     * @param repoId The repository ID
+     * @return The serialized metadata and its ETag, or empty if the repository is not configured
+     */
+    public Optional<ClassMetadata> get(String repoId) {
+        ClassMetadata cached = metadata.get(repoId);
+        if (isFresh(cached)) {
+            return Optional.of(cached);
+        }
+        if (!isConfigured(repoId)) {
+            return Optional.empty();
+        }
+
+        // Requests for the same repository wait for one load instead of each calling EAS
+        ReentrantLock lock = loadLocks.computeIfAbsent(repoId, _ -> new ReentrantLock());
+        lock.lock();
+        try {
+            cached = metadata.get(repoId);
+            return Optional.of(isFresh(cached) ? cached : load(repoId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reload the metadata of every configured repository. A repository that fails to load keeps
+     * serving its previous metadata.
+     */
+    void refreshAll() {
+        for (EASRepositoriesProperties.Repository repository : repositoriesProperties.getRepositories()) {
+            String repoId = repository.getRepoId();
+            try {
+                load(repoId);
+            } catch (RuntimeException e) {
+                log.warn("Failed to refresh class metadata for repository {}: {}", repoId, e.getMessage());
+            }
+        }
+    }
+
+    private ClassMetadata load(String repoId) {
+        byte[] json = jsonMapper.writeValueAsBytes(easClient.getClassesMetadata(repoId));
+        ClassMetadata loaded = new ClassMetadata(json, "\"" + DigestUtils.md5DigestAsHex(json) + "\"", Instant.now());
+        metadata.put(repoId, loaded);
+        return loaded;
+    }
+
+    private boolean isConfigured(String repoId) {
+        return repositoriesProperties.getRepositories().stream()
+                .anyMatch(repository -> repoId.equals(repository.getRepoId()));
+    }
+
+    private boolean isFresh(ClassMetadata cached) {
+        return cached != null && cached.loadedAt().plus(properties.getMaxAge()).isAfter(Instant.now());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshScheduler.shutdownNow();
+    }
+
+    /**
+     * Serialized class metadata of one repository.
+     *
+     * @param json The metadata as returned to the UI
+     * @param etag Strong ETag of the JSON, including the quotes
+     * @param loadedAt When the metadata was loaded from EAS
+     */
+    public record ClassMetadata(byte[] json, String etag, Instant loadedAt) {
+    }
+}
@@ -1,20 +1,36 @@
 package com.qtzar.essentialsexport.services;
 
 import com.qtzar.essentialsexport.clients.EASClient;
+import com.qtzar.essentialsexport.configuration.EASExportProperties;
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
 import com.qtzar.essentialsexport.model.dup.ClassSelection;
 import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
 import com.qtzar.essentialsexport.model.dup.FieldSelection;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -22,11 +38,30 @@ import java.util.zip.ZipOutputStream;
  * Service for generating DUP (Data Update Package) export files.
  * Creates jython scripts and packages them with supporting files into a .dup archive.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class DUPExportService {
 
+    /**
+     * Maximum number of rows in a single data table statement of a compact script
+     */
+    private static final int COMPACT_BATCH_SIZE = 500;
+
+    private static final String STANDARD_FUNCTIONS = "standardFunctions.py";
+    private static final String OPTIMISED_FUNCTIONS = "classpath:dupoptimised/optimisedFunctions.py";
+
     private final EASClient easClient;
+    private final EASFetchProperties fetchProperties;
+    private final InstanceCache instanceCache;
+    private final SnapshotStore snapshotStore;
+    private final EASExportProperties exportProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Last observed instance count per repository class, used to start the largest classes first
+     */
+    private final Map<String, Integer> classSizeHints = new ConcurrentHashMap<>();
 
     /**
      * Generates a DUP export file based on the provided request.
@@ -36,32 +71,472 @@ public class DUPExportService {
      * @throws IOException if there's an error generating the export
      */
     public byte[] generateDUPExport(DUPExportRequest request) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeDUPExport(request, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Generates a DUP export and writes the .dup archive to a stream.
+     *
+     * @param request The export request containing class and field selections
+     * @param out The stream to write the .dup file to; it is left open
+     * @throws IOException if there's an error generating or writing the export
+     */
+    public void writeDUPExport(DUPExportRequest request, OutputStream out) throws IOException {
+        try (PreparedExport export = prepareDUPExport(request)) {
+            export.writeTo(out);
+        }
+    }
+
+    /**
+     * Fetches everything a DUP export needs, so that writing it can no longer fail because of EAS.
+     * A pipelined export is the exception: only the IDs are fetched here, and a fetch failing once
+     * the archive is being written aborts it instead.
+     * The export must be closed once written, or if it will not be, to delete the instances it
+     * spilled to disk.
+     *
+     * @param request The export request containing class and field selections
+     * @return The export, ready to be written
+     * @throws IOException if the instances of a selected class could not be fetched
+     */
+    public PreparedExport prepareDUPExport(DUPExportRequest request) throws IOException {
+        if (request.isPipelined()) {
+            return preparePipelinedExport(request);
+        }
 
-        // Generate the jython script
-        String jythonScript = generateJythonScript(request);
+        ExportData exportData = fetchExportData(request);
+        return new PreparedExport() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                writeArchive(request, exportData, out);
+            }
+
+            @Override
+            public void close() {
+                exportData.close();
+            }
+        };
+    }
+
+    /**
+     * Writes the .dup archive. The script is written through a UTF-8 writer straight into its zip
+     * entry rather than being built up in memory first. The archive switches to Zip64 records by
+     * itself once an entry or the archive grows past 4GB.
+     */
+    private void writeArchive(DUPExportRequest request, ExportData exportData, OutputStream out) throws IOException {
 
         // Package everything into a .dup (zip) file
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+        try (ZipOutputStream zos = new ZipOutputStream(StreamUtils.nonClosing(out))) {
 
-            // Add the generated jython script as dup_import_script.py
-            addStringToZip(zos, jythonScript);
+            // Write the generated jython script as dup_import_script.py
+            zos.putNextEntry(new ZipEntry("dup_import_script.py"));
+            // Not closed, as that would close the zip stream; flushed before the entry is closed
+            JythonScriptWriter script = new JythonScriptWriter(zos, 64 * 1024);
+            writeJythonScript(request, exportData, script);
+            script.flush();
+            zos.closeEntry();
 
             // Add all predefined support files from resources/dupsupport
-            addDupSupportFiles(zos);
+            addDupSupportFiles(zos, request.isOptimisedFunctions());
         }
+    }
 
+    /**
+     * Fetches the IDs of every instance of the selected classes, the first pass of a pipelined
+     * export. This assigns every record variable and transformed ID up front, so that the script
+     * can be written while the instances themselves are still being fetched. The IDs of several
+     * classes are fetched at once, the same way as the instances of a buffered export, and
+     * assigned in request order.
+     *
+     * @param request The export request containing class and field selections
+     * @return The export, ready to be written
+     * @throws IOException if the IDs of a selected class could not be fetched
+     */
+    private PreparedExport preparePipelinedExport(DUPExportRequest request) throws IOException {
+        Map<String, List<String>> classFieldsMap = new HashMap<>();
+        List<ClassFetch> classFetches = classFetches(request, classFieldsMap);
 
-        return baos.toByteArray();
+        List<List<String>> classIds = fetchIds(request.getRepoId(), classFetches);
+        ExportSymbols symbols = new ExportSymbols(classIds.stream().mapToInt(List::size).sum(), request.isCompactScript());
+        for (int i = 0; i < classIds.size(); i++) {
+            classIds.get(i).forEach(symbols::add);
+            classIds.set(i, null);
+        }
+        symbols.transformIds(request.getIdPrefix());
+
+        return out -> writePipelinedArchive(request, classFetches, classFieldsMap, symbols, out);
+    }
+
+    /**
+     * Fetch the IDs of the instances of every class concurrently, one virtual thread per class,
+     * started largest first and at most {@code eas.fetch.max-concurrent-classes} at a time.
+     *
+     * @param repoId The repository ID to query
+     * @param classFetches The classes to fetch, in request order
+     * @return The IDs of each class's instances, in the same order as {@code classFetches}
+     * @throws IOException if the IDs of any class could not be fetched
+     */
+    private List<List<String>> fetchIds(String repoId, List<ClassFetch> classFetches) throws IOException {
+        List<Future<List<String>>> futures = new ArrayList<>(Collections.nCopies(classFetches.size(), null));
+
+        Semaphore permits = new Semaphore(Math.max(1, fetchProperties.getMaxConcurrentClasses()));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int index : largestFirst(repoId, classFetches)) {
+                String className = classFetches.get(index).className();
+                permits.acquireUninterruptibly();
+                futures.set(index, executor.submit(() -> {
+                    try {
+                        List<String> ids = new ArrayList<>();
+                        easClient.streamInstances(repoId, className, 1, "id", page -> {
+                            for (EASInstance instance : page) {
+                                if (instance.id() != null) {
+                                    ids.add(instance.id());
+                                }
+                            }
+                        });
+                        classSizeHints.put(sizeHintKey(repoId, className), ids.size());
+                        return ids;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        List<List<String>> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<String>> future = futures.get(i);
+            if (future.state() == Future.State.FAILED) {
+                throw new IOException("Failed to fetch instances of class " + classFetches.get(i).className(), future.exceptionNow());
+            }
+            results.add(future.resultNow());
+        }
+        return results;
+    }
+
+    /**
+     * Writes the .dup archive of a pipelined export in three stages, each on its own thread and
+     * handing its output to the next through a bounded queue: fetching pages of instances from
+     * EAS, writing the script from each page as it arrives, and compressing the script into the
+     * archive. Network, rendering and compression overlap, and the export holds no more than its
+     * IDs and what the queues hold, however many instances it has.
+     * <p>
+     * Each page's instances are created in the script straight away, while the statements that
+     * populate them are written to a temporary file and appended once every instance has been
+     * created, as they can refer to instances of any class. If the archive cannot be written, the
+     * other stages are interrupted.
+     * <p>
+     * As the instances are fetched while the archive is written, a failed fetch can only abort the
+     * archive part way: it is left without its central directory, so that what was written cannot
+     * be mistaken for a complete export with a truncated script.
+     */
+    private void writePipelinedArchive(DUPExportRequest request, List<ClassFetch> classFetches,
+                                       Map<String, List<String>> classFieldsMap, ExportSymbols symbols,
+                                       OutputStream out) throws IOException {
+        StageQueue<List<EASInstance>> pages = new StageQueue<>(exportProperties.getPipelineQueueCapacity());
+        StageQueue<byte[]> blocks = new StageQueue<>(exportProperties.getPipelineQueueCapacity());
+
+        try (ExecutorService stages = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Not closed, as closing finishes the archive, which only a complete export may do
+            ZipOutputStream zos = new ZipOutputStream(StreamUtils.nonClosing(out));
+            try {
+                stages.submit(() -> fetchPages(request.getRepoId(), classFetches, pages));
+                stages.submit(() -> emitPipelinedScript(request, classFetches, classFieldsMap, symbols, pages, blocks));
+
+                zos.putNextEntry(new ZipEntry("dup_import_script.py"));
+                for (byte[] block = blocks.take(); block != null; block = blocks.take()) {
+                    zos.write(block);
+                }
+                zos.closeEntry();
+
+                addDupSupportFiles(zos, request.isOptimisedFunctions());
+                zos.finish();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the export");
+            } finally {
+                // Stops the other stages if the archive could not be written; they are done otherwise
+                stages.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * The fetch stage of a pipelined export: fetches the instances of every class a page at a
+     * time, and hands the pages on in request order. Up to {@code eas.fetch.max-concurrent-classes}
+     * classes are fetched at once, each into a bounded queue of its own; a class is started once
+     * the class that many ahead of it has been handed on, so the classes fetched ahead hold no
+     * more than their queues.
+     */
+    private void fetchPages(String repoId, List<ClassFetch> classFetches, StageQueue<List<EASInstance>> pages) {
+        List<StageQueue<List<EASInstance>>> classPages = classFetches.stream()
+                .map(_ -> new StageQueue<List<EASInstance>>(exportProperties.getPipelineQueueCapacity()))
+                .toList();
+        Semaphore permits = new Semaphore(Math.max(1, fetchProperties.getMaxConcurrentClasses()));
+
+        try (ExecutorService fetches = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                fetches.submit(() -> {
+                    for (int i = 0; i < classFetches.size(); i++) {
+                        ClassFetch classFetch = classFetches.get(i);
+                        StageQueue<List<EASInstance>> queue = classPages.get(i);
+                        permits.acquire();
+                        fetches.submit(() -> fetchClassPages(repoId, classFetch, queue));
+                    }
+                    return null;
+                });
+
+                for (StageQueue<List<EASInstance>> queue : classPages) {
+                    for (List<EASInstance> page = queue.take(); page != null; page = queue.take()) {
+                        pages.put(page);
+                    }
+                    permits.release();
+                }
+                pages.end();
+            } catch (IOException | InterruptedException e) {
+                pages.fail(e);
+            } finally {
+                // Stops the classes still being fetched if the export failed; they are done otherwise
+                fetches.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Fetches the instances of one class of a pipelined export a page at a time, into the class's
+     * queue.
+     */
+    private void fetchClassPages(String repoId, ClassFetch classFetch, StageQueue<List<EASInstance>> classPages) {
+        try {
+            easClient.streamInstances(repoId, classFetch.className(), 1, classFetch.slots(), page -> {
+                try {
+                    classPages.put(page);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while queueing instance page", e);
+                }
+            });
+            classPages.end();
+        } catch (RuntimeException e) {
+            classPages.fail(new IOException("Failed to fetch instances of class " + classFetch.className(), e));
+        } catch (InterruptedException e) {
+            classPages.fail(e);
+        }
+    }
+
+    /**
+     * The script stage of a pipelined export: writes the script from each page as it arrives,
+     * in blocks for the archive stage to compress.
+     */
+    private void emitPipelinedScript(DUPExportRequest request, List<ClassFetch> classFetches,
+                                     Map<String, List<String>> classFieldsMap, ExportSymbols symbols,
+                                     StageQueue<List<EASInstance>> pages, StageQueue<byte[]> blocks) {
+        try {
+            OutputStream blockStream = new BlockOutputStream(blocks);
+            Files.createDirectories(exportProperties.getSpillDirectory());
+            Path populateFile = Files.createTempFile(exportProperties.getSpillDirectory(), "dup-export-", ".py");
+            try {
+                // Neither is closed, as that would end the blocks; both are flushed once written
+                JythonScriptWriter scriptOut = new JythonScriptWriter(blockStream, 64 * 1024);
+                try (OutputStream populateOut = Files.newOutputStream(populateFile)) {
+                    JythonScriptWriter populateScriptOut = new JythonScriptWriter(populateOut, 64 * 1024);
+                    writePipelinedScript(request, classFetches, classFieldsMap, symbols, pages,
+                            new ChunkingWriter(scriptOut, request.getChunkSize(), request.getChunkKilobytes()),
+                            new ChunkingWriter(populateScriptOut, request.getChunkSize(), request.getChunkKilobytes()));
+                    populateScriptOut.flush();
+                }
+                scriptOut.flush();
+                Files.copy(populateFile, blockStream);
+            } finally {
+                Files.deleteIfExists(populateFile);
+            }
+            blocks.end();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            blocks.fail(e);
+        }
+    }
+
+    /**
+     * Writes the two passes of the import script from the pages of a pipelined export: the first
+     * pass to the script itself, and the second to the writer it is appended from. Instances are
+     * written in the order they are fetched, each the first time it is fetched, under a class
+     * comment whenever the class changes. An instance whose ID was not fetched by the first pass
+     * of the export, as it was created since, is skipped, and references to an instance deleted
+     * since are dropped.
+     */
+    private void writePipelinedScript(DUPExportRequest request, List<ClassFetch> classFetches,
+                                      Map<String, List<String>> classFieldsMap, ExportSymbols symbols,
+                                      StageQueue<List<EASInstance>> pages, ChunkingWriter script,
+                                      ChunkingWriter populate) throws IOException, InterruptedException {
+        IdReplacer idReplacer = IdReplacer.of(symbols);
+        boolean compact = request.isCompactScript();
+        int batchSize = request.getChunkSize() > 0 ? Math.min(COMPACT_BATCH_SIZE, request.getChunkSize()) : COMPACT_BATCH_SIZE;
+
+        writeScriptHeader(request, script, Map.of());
+        String getInstance = "EssentialGetInstance";
+        if (request.isIndexedLookups()) {
+            writeInstanceIndex(request, script, classFetches.stream().map(ClassFetch::className).distinct().toList());
+            getInstance = "_getInstance";
+        }
+        // The second pass adds values with a helper defined at the end of the first pass, once it
+        // is known whether any of the references it holds are to instances that were not created
+        String addSlotValue = "_addIfPresent";
+        if (compact) {
+            writeDataTableFunctions(request, script, getInstance, symbols.size(), addSlotValue);
+        }
+
+        script.append("# ========================================\n");
+        script.append("# FIRST PASS: Create all instances\n");
+        script.append("# ========================================\n\n");
+        populate.append("# ========================================\n");
+        populate.append("# SECOND PASS: Populate all fields\n");
+        populate.append("# ========================================\n\n");
+
+        BitSet written = new BitSet(symbols.size());
+        String createdClassName = null;
+        String populatedClassName = null;
+        boolean populated = false;
+        int skipped = 0;
+        for (List<EASInstance> page = pages.take(); page != null; page = pages.take()) {
+            // Write each run of instances of the same class as one set of columns
+            for (int start = 0, end; start < page.size(); start = end) {
+                String className = page.get(start).className();
+                end = start + 1;
+                while (end < page.size() && Objects.equals(page.get(end).className(), className)) {
+                    end++;
+                }
+                List<String> selectedFields = className == null ? null : classFieldsMap.get(className);
+                if (selectedFields == null) {
+                    continue;
+                }
+
+                List<EASInstance> rows = new ArrayList<>();
+                int[] rowSymbols = new int[end - start];
+                for (EASInstance instance : page.subList(start, end)) {
+                    int symbol = instance.id() == null ? -1 : symbols.indexOf(instance.id());
+                    if (symbol < 0) {
+                        skipped++;
+                    } else if (!written.get(symbol)) {
+                        written.set(symbol);
+                        rowSymbols[rows.size()] = symbol;
+                        rows.add(instance);
+                    }
+                }
+                if (rows.isEmpty()) {
+                    continue;
+                }
+                List<String> fieldNames = selectedFields.stream().filter(fieldName -> !"name".equals(fieldName)).toList();
+                InstanceColumns columns = InstanceColumns.of(className, Arrays.copyOf(rowSymbols, rows.size()), rows,
+                        fieldNames, symbols);
+
+                if (!className.equals(createdClassName)) {
+                    script.append(createdClassName == null ? "" : "\n").append("# Class: ").append(className).append("\n");
+                    createdClassName = className;
+                }
+                boolean populateClass = !compact || !fieldNames.isEmpty();
+                if (populateClass && !className.equals(populatedClassName)) {
+                    populate.append(populatedClassName == null ? "" : "\n").append("# Class: ").append(className).append(" - Adding fields\n");
+                    populate.append("# Requested fields: ").append(String.join(", ", selectedFields)).append(compact ? "\n" : "\n\n");
+                    populatedClassName = className;
+                }
+                populated |= populateClass;
+
+                if (compact) {
+                    for (int batchStart = 0; batchStart < columns.size(); batchStart += batchSize) {
+                        int batchEnd = Math.min(batchStart + batchSize, columns.size());
+                        script.startInstances(batchEnd - batchStart);
+                        script.append("_createInstances('").append(className).append("', [\n");
+                        for (int row = batchStart; row < batchEnd; row++) {
+                            writeCreateRow(script, columns, row, symbols);
+                        }
+                        script.append("])\n");
+
+                        if (populateClass) {
+                            populate.startInstances(batchEnd - batchStart);
+                            populate.append("_addSlotValues(").append(slotTuple(fieldNames)).append(", [\n");
+                            for (int row = batchStart; row < batchEnd; row++) {
+                                writeSlotValuesRow(populate, columns, row, symbols, idReplacer);
+                            }
+                            populate.append("])\n");
+                        }
+                    }
+                    continue;
+                }
+
+                for (int row = 0; row < columns.size(); row++) {
+                    int symbol = columns.symbol(row);
+                    String recordVarName = symbols.recordVar(symbol);
+                    script.startInstance();
+                    writeCreateInstance(request, script, getInstance, className, symbols.transformedId(symbol),
+                            columns.name(row), recordVarName);
+
+                    populate.startInstance();
+                    for (int column = 0; column < fieldNames.size(); column++) {
+                        if (!columns.column(column).isNull(row)) {
+                            writeSlotValue(populate, addSlotValue, recordVarName, columns, column, row, symbols, idReplacer);
+                        }
+                    }
+                }
+            }
+        }
+
+        int notCreated = symbols.size() - written.cardinality();
+        if (notCreated > 0) {
+            writeDeletedInstances(script, symbols, written, compact, addSlotValue);
+            log.warn("Dropped references to {} instances of repository {} not created by its export, such as those deleted since it started",
+                    notCreated, request.getRepoId());
+        } else {
+            script.append("\n").append(addSlotValue).append(" = addIfNotThere\n");
+        }
+
+        script.append("\n");
+        populate.append("\n");
+        if (populated) {
+            script.endChunk();
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} instances of repository {} created since its export started", skipped, request.getRepoId());
+        }
+    }
+
+    /**
+     * Writes what a pipelined script needs for the instances whose IDs were fetched by the first
+     * pass of the export but that were never created, mostly as they were deleted before they
+     * were fetched in full: their record variables are bound to None, as the second pass may
+     * still refer to them, and the function the second pass adds values with is defined to drop
+     * references to None rather than add them to a slot.
+     *
+     * @param addSlotValue The name of the function the second pass adds values with
+     */
+    private void writeDeletedInstances(ChunkingWriter script, ExportSymbols symbols, BitSet written,
+                                       boolean compact, String addSlotValue) throws IOException {
+        script.append("\n# Instances not created, such as those deleted since the export started; references to them are dropped\n");
+        if (!compact) {
+            // A compact script's records are already None until they are created
+            for (int symbol = written.nextClearBit(0); symbol < symbols.size(); symbol = written.nextClearBit(symbol + 1)) {
+                script.startInstance();
+                script.append(symbols.recordVar(symbol)).append("=None\n");
+            }
+        }
+        script.append("def ").append(addSlotValue).append("(theInstance, theSlotName, theInstanceToAdd):\n");
+        script.append("    if isinstance(theInstanceToAdd, list):\n");
+        script.append("        theInstanceToAdd = [aValue for aValue in theInstanceToAdd if aValue is not None]\n");
+        script.append("    if theInstanceToAdd is not None:\n");
+        script.append("        addIfNotThere(theInstance, theSlotName, theInstanceToAdd)\n");
     }
 
     /**
      * Add all files from resources/dupsupport directory to the zip.
+     * The optimised functions are appended to the standard functions pack rather than shipped as
+     * a pack of their own, so that update.info stays the same and their definitions replace the
+     * standard ones of the same name.
      *
      * @param zos The zip output stream
+     * @param optimisedFunctions Append the optimised functions to the standard functions pack
      * @throws IOException if there's an error reading or adding files
      */
-    private void addDupSupportFiles(ZipOutputStream zos) throws IOException {
+    private void addDupSupportFiles(ZipOutputStream zos, boolean optimisedFunctions) throws IOException {
         PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
 
         try {
@@ -71,6 +546,14 @@ public class DUPExportService {
                 if (resource.isReadable()) {
                     String filename = resource.getFilename();
                     if (filename != null) {
+                        if (optimisedFunctions && STANDARD_FUNCTIONS.equals(filename)) {
+                            try (InputStream is = new SequenceInputStream(resource.getInputStream(),
+                                    new SequenceInputStream(new ByteArrayInputStream("\n".getBytes(StandardCharsets.UTF_8)),
+                                            resolver.getResource(OPTIMISED_FUNCTIONS).getInputStream()))) {
+                                addStreamToZip(zos, is, filename);
+                            }
+                            continue;
+                        }
                         try (InputStream is = resource.getInputStream()) {
                             addStreamToZip(zos, is, filename);
                         }
@@ -83,22 +566,6 @@ public class DUPExportService {
         }
     }
 
-    /**
-     * Add a string content as a file to the zip.
-     *
-     * @param zos     The zip output stream
-     * @param content The string content
-     * @throws IOException if there's an error adding the content
-     */
-    private void addStringToZip(ZipOutputStream zos, String content) throws IOException {
-        ZipEntry zipEntry = new ZipEntry("dup_import_script.py");
-        zos.putNextEntry(zipEntry);
-
-        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
-        zos.write(bytes, 0, bytes.length);
-        zos.closeEntry();
-    }
-
     /**
      * Add an InputStream content to the zip.
      *
@@ -120,16 +587,195 @@ public class DUPExportService {
     }
 
     /**
-     * Generates the jython script based on the export request.
-     * Fetches all instances for each selected class and generates the import script.
+     * Fetches all instances for each selected class of the export request.
      *
      * @param request The export request
-     * @return The generated jython script as a string
+     * @return The instances to export and the selected fields of each class
+     * @throws IOException if the instances of a selected class could not be fetched
      */
-    private String generateJythonScript(DUPExportRequest request) {
+    private ExportData fetchExportData(DUPExportRequest request) throws IOException {
         // Step 1: Collect all instances from all classes
-        Map<String, Map<String, Object>> allInstances = new LinkedHashMap<>();
         Map<String, List<String>> classFieldsMap = new HashMap<>();
+        List<ClassFetch> classFetches = classFetches(request, classFieldsMap);
+
+        // A single pass script orders every instance by its references, so it needs them all in memory
+        boolean spillable = !request.isSinglePass() || request.isCompactScript();
+        FetchBudget budget = new FetchBudget(request.getRepoId(), classFieldsMap, spillable);
+        Map<String, Instant> snapshotTimes = new ConcurrentHashMap<>();
+        try {
+            List<FetchedClass> fetched = fetchClasses(request.getRepoId(), classFetches, request.isRefreshFromEas(),
+                    budget, snapshotTimes);
+            return mergeExportData(request, fetched, classFieldsMap, budget, snapshotTimes);
+        } catch (IOException | RuntimeException e) {
+            budget.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Merges the fetched classes into the instances to export, held a column per field by class.
+     * The classes held in memory stay there. A class spilled when it was fetched is written from
+     * where it was spilled when it holds exactly the instances of that fetch, in the same order;
+     * any other class with an instance spilled is gathered from the spill file and spilled again
+     * as a whole, in the order it is written.
+     */
+    private ExportData mergeExportData(DUPExportRequest request, List<FetchedClass> fetched,
+                                       Map<String, List<String>> classFieldsMap, FetchBudget budget,
+                                       Map<String, Instant> snapshotTimes) throws IOException {
+        // Merge in request order so the script matches a sequential fetch exactly; an instance
+        // fetched twice keeps its first position but takes the last fetched values. The fetch
+        // and class those values came from are kept for every instance, and the instance itself
+        // only while it is held in memory.
+        int fetchedCount = fetched.stream().mapToInt(FetchedClass::size).sum();
+        ExportSymbols symbols = new ExportSymbols(fetchedCount, request.isCompactScript());
+        List<EASInstance> allInstances = new ArrayList<>();
+        int[] sources = new int[fetchedCount];
+        int[] classIds = new int[fetchedCount];
+        Map<String, Integer> classIdsByName = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+        // The fetches each of whose instances took a new symbol, so their symbols follow their order
+        BitSet freshSources = new BitSet(fetched.size());
+        freshSources.set(0, fetched.size());
+        for (int source = 0; source < fetched.size(); source++) {
+            FetchedClass fetchedClass = fetched.get(source);
+            for (int segment = 0; segment < fetchedClass.segmentCount(); segment++) {
+                for (EASInstance instance : fetchedClass.segment(segment)) {
+                    String instanceId = instance.id();
+                    if (instanceId == null) {
+                        freshSources.clear(source);
+                        continue;
+                    }
+                    int symbol = symbols.add(instanceId);
+                    if (symbol != allInstances.size()) {
+                        freshSources.clear(source);
+                    }
+                    EASInstance held = fetchedClass.spilled() == null ? instance : null;
+                    if (symbol == allInstances.size()) {
+                        allInstances.add(held);
+                    } else {
+                        allInstances.set(symbol, held);
+                    }
+                    sources[symbol] = source;
+                    classIds[symbol] = classIdsByName.computeIfAbsent(instance.className(), className -> {
+                        classNames.add(className);
+                        return classNames.size() - 1;
+                    });
+                }
+            }
+        }
+
+        // The fetched lists are no longer needed, as their instances are held at their symbols
+        fetched.replaceAll(fetchedClass -> fetchedClass.spilled() == null ? null : fetchedClass);
+
+        // Step 2: Transform IDs if prefix is specified
+        symbols.transformIds(request.getIdPrefix());
+
+        // Step 3: Group instances by class and hold them a column per field; the name was already
+        // added in the first pass. Each record variable is named after the instance's symbol.
+        List<ExportClass> classes = new ArrayList<>();
+        for (int[] classSymbols : groupByClass(classIds, symbols.size(), classNames.size())) {
+            String className = classNames.get(classIds[classSymbols[0]]);
+            List<String> selectedFields = classFieldsMap.get(className);
+            if (selectedFields != null) {
+                List<String> fieldNames = selectedFields.stream().filter(fieldName -> !"name".equals(fieldName)).toList();
+                if (Arrays.stream(classSymbols).allMatch(symbol -> allInstances.get(symbol) != null)) {
+                    List<EASInstance> rows = Arrays.stream(classSymbols).mapToObj(allInstances::get).toList();
+                    classes.add(new ExportClass(className, rows.size(),
+                            InstanceColumns.of(className, classSymbols, rows, fieldNames, symbols), null));
+                } else if (isSpilledAsFetched(className, fieldNames, classSymbols, fetched, sources, freshSources)) {
+                    classes.add(new ExportClass(className, classSymbols.length, null,
+                            fetched.get(sources[classSymbols[0]]).spilled()));
+                } else {
+                    List<EASInstance> rows = gatherSpilledRows(classSymbols, allInstances, fetched, sources, classIds, symbols);
+                    classes.add(new ExportClass(className, rows.size(), null, budget.spill(className, rows, fieldNames)));
+                }
+            }
+
+            // The class's instances are no longer needed, unless the instance cache holds them
+            for (int symbol : classSymbols) {
+                allInstances.set(symbol, null);
+            }
+        }
+
+        return new ExportData(symbols, classes, classFieldsMap, budget.spillFile(), snapshotTimes);
+    }
+
+    /**
+     * Whether the instances of a class are exactly those of one spilled fetch, in the order they
+     * were fetched, so the class can be read back from where that fetch was spilled.
+     *
+     * @param className The class
+     * @param fieldNames The class's selected fields, other than the name
+     * @param classSymbols The symbols of the class's instances, in ascending order
+     * @param fetched The fetched classes, with those held in memory already released
+     * @param sources The fetched class each symbol takes its values from
+     * @param freshSources The fetched classes each of whose instances took a new symbol
+     * @return Whether the spilled fetch holds the class as it is written
+     */
+    private static boolean isSpilledAsFetched(String className, List<String> fieldNames, int[] classSymbols,
+                                              List<FetchedClass> fetched, int[] sources, BitSet freshSources) {
+        int source = sources[classSymbols[0]];
+        FetchedClass fetchedClass = fetched.get(source);
+        if (fetchedClass == null || fetchedClass.spilled() == null || !freshSources.get(source)) {
+            return false;
+        }
+        ExportSpill.SpilledClass spilled = fetchedClass.spilled();
+        // The fetch's symbols are consecutive, so the class holds them all, in order, if it holds as many
+        return spilled.className().equals(className) && spilled.fieldNames().equals(fieldNames)
+                && spilled.size() == classSymbols.length
+                && Arrays.stream(classSymbols).allMatch(symbol -> sources[symbol] == source);
+    }
+
+    /**
+     * Gathers the instances of a class, some of which were spilled when they were fetched, by
+     * reading back the spilled fetches that hold their values.
+     *
+     * @param classSymbols The symbols of the class's instances, in ascending order
+     * @param allInstances The instances held in memory, at the index of their symbol
+     * @param fetched The fetched classes
+     * @param sources The fetched class each symbol takes its values from
+     * @param classIds The class of each symbol's values
+     * @param symbols The export's IDs
+     * @return The class's instances, in the order of their symbols
+     * @throws IOException if a spilled fetch could not be read
+     */
+    private static List<EASInstance> gatherSpilledRows(int[] classSymbols, List<EASInstance> allInstances,
+                                                       List<FetchedClass> fetched, int[] sources, int[] classIds,
+                                                       ExportSymbols symbols) throws IOException {
+        EASInstance[] rows = new EASInstance[classSymbols.length];
+        BitSet spilledSources = new BitSet(fetched.size());
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = allInstances.get(classSymbols[row]);
+            if (rows[row] == null) {
+                spilledSources.set(sources[classSymbols[row]]);
+            }
+        }
+
+        int classId = classIds[classSymbols[0]];
+        for (int source = spilledSources.nextSetBit(0); source >= 0; source = spilledSources.nextSetBit(source + 1)) {
+            FetchedClass fetchedClass = fetched.get(source);
+            for (int segment = 0; segment < fetchedClass.segmentCount(); segment++) {
+                // A later instance of the same ID replaces an earlier one, as it did in the merge
+                for (EASInstance instance : fetchedClass.segment(segment)) {
+                    int symbol = instance.id() == null ? -1 : symbols.indexOf(instance.id());
+                    if (symbol >= 0 && sources[symbol] == source && classIds[symbol] == classId) {
+                        rows[Arrays.binarySearch(classSymbols, symbol)] = instance;
+                    }
+                }
+            }
+        }
+        return Arrays.asList(rows);
+    }
+
+    /**
+     * Works out the classes to fetch for an export request, and the fields selected for each.
+     *
+     * @param request The export request
+     * @param classFieldsMap Map the selected fields of each class are put in
+     * @return The classes to fetch with their slots, in request order
+     */
+    private static List<ClassFetch> classFetches(DUPExportRequest request, Map<String, List<String>> classFieldsMap) {
+        List<ClassFetch> classFetches = new ArrayList<>();
 
         for (ClassSelection classSelection : request.getClassSelections()) {
             if (!classSelection.isSelected() || classSelection.getFields().isEmpty()) {
@@ -160,27 +806,110 @@ public class DUPExportService {
                 }
             }
 
-            String slotsParam = String.join("^", allSlots);
+            classFetches.add(new ClassFetch(className, String.join("^", allSlots)));
+        }
 
-            try {
-                var instances = easClient.getAllInstancesAsMap(request.getRepoId(), className, 1, slotsParam);
+        return classFetches;
+    }
 
-                for (Map<String, Object> instance : instances) {
-                    String instanceId = (String) instance.get("id");
-                    if (instanceId != null) {
-                        allInstances.put(instanceId, instance);
-                    }
+    /**
+     * Writes the jython import script for the fetched instances.
+     *
+     * @param request The export request
+     * @param exportData The fetched instances and selected fields
+     * @param out The writer to write the script to
+     * @throws IOException if the script could not be written
+     */
+    private void writeJythonScript(DUPExportRequest request, ExportData exportData, JythonScriptWriter out) throws IOException {
+        ChunkingWriter script = new ChunkingWriter(out, request.getChunkSize(), request.getChunkKilobytes());
+        ExportSymbols symbols = exportData.symbols();
+        List<ExportClass> classes = exportData.classes();
+        IdReplacer idReplacer = IdReplacer.of(symbols);
+
+        // Step 4: Generate script with transformed IDs
+        writeScriptHeader(request, script, exportData.snapshotTimes());
+
+        String getInstance = "EssentialGetInstance";
+        if (request.isIndexedLookups()) {
+            writeInstanceIndex(request, script, classes.stream().map(ExportClass::className).toList());
+            getInstance = "_getInstance";
+        }
+
+        if (request.isCompactScript()) {
+            writeDataTables(request, script, getInstance, classes, exportData.classFieldsMap(), symbols, idReplacer);
+            return;
+        }
+
+        if (request.isSinglePass()) {
+            // Instances are written in reference order rather than class by class; a single pass
+            // export never spills, so every class is held in memory
+            List<InstanceColumns> segments = new ArrayList<>();
+            for (ExportClass exportClass : classes) {
+                for (int segment = 0; segment < exportClass.segmentCount(); segment++) {
+                    segments.add(exportClass.segment(segment, symbols));
                 }
-            } catch (Exception _) {
             }
+            writeSinglePass(request, script, getInstance, segments, symbols, idReplacer);
+            return;
         }
 
-        // Step 2: Build ID mapping if prefix is specified
-        Map<String, String> idMapping = buildIdMapping(allInstances.keySet(), request.getIdPrefix());
+        // FIRST PASS: Create all instances and set name field
+        script.append("# ========================================\n");
+        script.append("# FIRST PASS: Create all instances\n");
+        script.append("# ========================================\n\n");
+
+        for (ExportClass exportClass : classes) {
+            String className = exportClass.className();
+            script.append("# Class: ").append(className).append(" (").append(String.valueOf(exportClass.size())).append(" instances)\n");
+
+            for (int segment = 0; segment < exportClass.segmentCount(); segment++) {
+                InstanceColumns columns = exportClass.segment(segment, symbols);
+                for (int row = 0; row < columns.size(); row++) {
+                    int symbol = columns.symbol(row);
+                    script.startInstance();
+                    writeCreateInstance(request, script, getInstance, className, symbols.transformedId(symbol),
+                            columns.name(row), symbols.recordVar(symbol));
+                }
+            }
 
-        // Step 3: Generate script with transformed IDs
-        StringBuilder script = new StringBuilder();
+            script.append("\n");
+        }
 
+        // SECOND PASS: Populate all other fields for each instance
+        script.append("# ========================================\n");
+        script.append("# SECOND PASS: Populate all fields\n");
+        script.append("# ========================================\n\n");
+
+        for (ExportClass exportClass : classes) {
+            script.append("# Class: ").append(exportClass.className()).append(" - Adding fields\n");
+            script.append("# Requested fields: ").append(String.join(", ", exportData.classFieldsMap().get(exportClass.className()))).append("\n\n");
+
+            for (int segment = 0; segment < exportClass.segmentCount(); segment++) {
+                InstanceColumns columns = exportClass.segment(segment, symbols);
+                for (int row = 0; row < columns.size(); row++) {
+                    String recordVarName = symbols.recordVar(columns.symbol(row));
+                    script.startInstance();
+
+                    // Add each selected field (the name was already added in first pass)
+                    for (int column = 0; column < columns.fieldNames().size(); column++) {
+                        if (!columns.column(column).isNull(row)) {
+                            writeSlotValue(script, "addIfNotThere", recordVarName, columns, column, row, symbols, idReplacer);
+                        }
+                    }
+                }
+            }
+
+            script.append("\n");
+        }
+
+    }
+
+    /**
+     * Writes the comments, imports and external repository definition the script starts with.
+     * The comments name every class read from a snapshot, with when it was fetched from EAS.
+     */
+    private void writeScriptHeader(DUPExportRequest request, ChunkingWriter script,
+                                   Map<String, Instant> snapshotTimes) throws IOException {
         // Header with imports
         script.append("# DUP Export Script\n");
         script.append("# Generated by EssentialSync\n");
@@ -188,6 +917,18 @@ public class DUPExportService {
         if (request.getIdPrefix() != null && !request.getIdPrefix().isEmpty()) {
             script.append("# ID Transformation: ").append(request.getIdPrefix()).append("_XXX\n");
         }
+        if (!snapshotTimes.isEmpty()) {
+            // The data of these classes is as old as the snapshot, not as the export
+            Instant now = Instant.now();
+            script.append("# Read from snapshots rather than EAS, as fetched at:\n");
+            for (Map.Entry<String, Instant> entry : new TreeMap<>(snapshotTimes).entrySet()) {
+                Duration age = Duration.between(entry.getValue(), now);
+                script.append("#   ").append(entry.getKey()).append(": ")
+                        .append(entry.getValue().truncatedTo(ChronoUnit.SECONDS).toString())
+                        .append(" (").append(String.valueOf(age.toHours())).append("h ")
+                        .append(String.valueOf(age.toMinutesPart())).append("m ago)\n");
+            }
+        }
         script.append("\n");
         script.append("from java.lang import Boolean\n");
         script.append("from java.lang import Integer\n");
@@ -196,62 +937,331 @@ public class DUPExportService {
 
         // Define external repository
         script.append("defineExternalRepository(\"").append(request.getExternalRepositoryName()).append("\", \"\")\n\n");
+    }
+
+    /**
+     * Writes the statement that creates (or finds) an instance and sets its name.
+     */
+    private void writeCreateInstance(DUPExportRequest request, ChunkingWriter script, String getInstance, String className,
+                                     String transformedId, String instanceName, String recordVarName) throws IOException {
+        // Create instance
+        script.append(recordVarName).append("=").append(getInstance).append("('").append(className).append("', ");
+        script.writeUnicode(transformedId);
+        script.append(", ");
+        script.writeUnicode(instanceName);
+        script.append(", ");
+        script.writeUnicode(transformedId);
+        script.append(", ");
+        script.writeUnicode(request.getExternalRepositoryName());
+        script.append(")\n");
+
+        // Immediately set the name field
+        script.append("addIfNotThere(").append(recordVarName).append(", 'name', ");
+        script.writeUnicode(instanceName);
+        script.append(")\n");
+    }
 
-        // Step 4: Group instances by class and create record variable mapping
-        Map<String, List<Map<String, Object>>> instancesByClass = new LinkedHashMap<>();
-        Map<String, String> idToRecordVar = new HashMap<>(); // Maps original ID to record variable name
-        int recordCounter = 1;
+    /**
+     * Writes the statement that adds a field value to an instance.
+     *
+     * @param addSlotValue The function the value is added with
+     */
+    private void writeSlotValue(ChunkingWriter script, String addSlotValue, String recordVarName, InstanceColumns columns,
+                                int column, int row, ExportSymbols symbols, IdReplacer idReplacer) throws IOException {
+        script.append(addSlotValue).append("(").append(recordVarName).append(", '").append(columns.fieldNames().get(column)).append("', ");
+        writeCell(script, columns.column(column), row, symbols, idReplacer);
+        script.append(")\n");
+    }
 
-        for (Map<String, Object> instance : allInstances.values()) {
-            String className = (String) instance.get("className");
-            instancesByClass.computeIfAbsent(className, k -> new ArrayList<>()).add(instance);
+    /**
+     * Writes the import script in a single pass, creating each instance and populating its fields
+     * together. Instances are ordered by the references between them (see {@link ReferenceGraph}),
+     * so the instances a field refers to have nearly always been created before it is written.
+     * Only a field that refers to an instance not yet created, which can only happen within a
+     * group of instances that refer to each other in a cycle, is deferred until every instance of
+     * that group has been created.
+     */
+    private void writeSinglePass(DUPExportRequest request, ChunkingWriter script, String getInstance,
+                                 List<InstanceColumns> classes, ExportSymbols symbols,
+                                 IdReplacer idReplacer) throws IOException {
+        // Number the instances to write, in the order the two passes would write them; each node
+        // is a class (or segment of one) and a row, packed into a long
+        int nodeCount = classes.stream().mapToInt(InstanceColumns::size).sum();
+        long[] nodes = new long[nodeCount];
+        int[] symbolToNode = new int[symbols.size()];
+        Arrays.fill(symbolToNode, -1);
+        int node = 0;
+        for (int classIndex = 0; classIndex < classes.size(); classIndex++) {
+            InstanceColumns columns = classes.get(classIndex);
+            for (int row = 0; row < columns.size(); row++) {
+                symbolToNode[columns.symbol(row)] = node;
+                nodes[node++] = (long) classIndex << 32 | row;
+            }
+        }
 
-            // Create unique record variable for this instance
-            String originalId = (String) instance.get("id");
-            if (originalId != null) {
-                String recordVarName = "Record_" + recordCounter++;
-                idToRecordVar.put(originalId, recordVarName);
+        int[][] edges = new int[nodeCount][];
+        for (node = 0; node < nodeCount; node++) {
+            InstanceColumns columns = classes.get((int) (nodes[node] >>> 32));
+            int row = (int) nodes[node];
+            Set<Integer> targets = new LinkedHashSet<>();
+            for (int column = 0; column < columns.fieldNames().size(); column++) {
+                collectReferences(columns.column(column), row, symbols, symbolToNode, targets);
             }
+            edges[node] = targets.stream().mapToInt(Integer::intValue).toArray();
         }
 
-        // FIRST PASS: Create all instances and set name field
         script.append("# ========================================\n");
-        script.append("# FIRST PASS: Create all instances\n");
+        script.append("# SINGLE PASS: Create and populate instances, referenced instances first\n");
         script.append("# ========================================\n\n");
 
-        for (Map.Entry<String, List<Map<String, Object>>> entry : instancesByClass.entrySet()) {
-            String className = entry.getKey();
-            List<Map<String, Object>> instances = entry.getValue();
-            List<String> selectedFields = classFieldsMap.get(className);
+        boolean[] created = new boolean[nodeCount];
+        String previousClassName = null;
+        for (int[] component : ReferenceGraph.components(edges)) {
+            List<SlotValue> deferred = new ArrayList<>();
+            for (int componentNode : component) {
+                InstanceColumns columns = classes.get((int) (nodes[componentNode] >>> 32));
+                int row = (int) nodes[componentNode];
+                String className = columns.className();
+                String recordVarName = symbols.recordVar(columns.symbol(row));
+
+                if (!className.equals(previousClassName)) {
+                    script.append("\n# Class: ").append(className).append("\n");
+                    previousClassName = className;
+                }
 
-            if (selectedFields == null || selectedFields.isEmpty()) {
-                continue;
+                script.startInstance();
+                writeCreateInstance(request, script, getInstance, className,
+                        symbols.transformedId(columns.symbol(row)), columns.name(row), recordVarName);
+                created[componentNode] = true;
+
+                for (int column = 0; column < columns.fieldNames().size(); column++) {
+                    if (columns.column(column).isNull(row)) {
+                        continue;
+                    }
+
+                    Set<Integer> targets = new HashSet<>();
+                    collectReferences(columns.column(column), row, symbols, symbolToNode, targets);
+                    if (targets.stream().allMatch(target -> created[target])) {
+                        writeSlotValue(script, "addIfNotThere", recordVarName, columns, column, row, symbols, idReplacer);
+                    } else {
+                        deferred.add(new SlotValue(recordVarName, columns, column, row));
+                    }
+                }
             }
 
-            script.append("# Class: ").append(className).append(" (").append(instances.size()).append(" instances)\n");
+            if (!deferred.isEmpty()) {
+                script.append("# Fields referring to instances created above\n");
+                for (SlotValue slotValue : deferred) {
+                    writeSlotValue(script, "addIfNotThere", slotValue.recordVarName(), slotValue.columns(), slotValue.column(),
+                            slotValue.row(), symbols, idReplacer);
+                }
+            }
+        }
 
-            for (Map<String, Object> instanceMap : instances) {
-                String originalId = (String) instanceMap.get("id");
-                String instanceName = (String) instanceMap.get("name");
+        script.append("\n");
+    }
 
-                if (originalId == null) {
-                    continue;
+    /**
+     * Collect the instances referred to by a cell, the same way {@link #writeCell} writes them as
+     * record variables.
+     *
+     * @param column The column of the cell
+     * @param row The row of the cell
+     * @param symbols The export's IDs
+     * @param symbolToNode For each symbol, the number of its instance, or -1 if it is not written
+     * @param targets The numbers of the instances referred to
+     */
+    private static void collectReferences(InstanceColumns.Column column, int row, ExportSymbols symbols,
+                                          int[] symbolToNode, Set<Integer> targets) {
+        switch (column.kind(row)) {
+            case InstanceColumns.Column.REFERENCE -> addReference(column.reference(row), symbolToNode, targets);
+            case InstanceColumns.Column.REFERENCES -> {
+                for (int i = 0; i < column.referenceCount(row); i++) {
+                    addReference(column.reference(row, i), symbolToNode, targets);
                 }
+            }
+            case InstanceColumns.Column.OTHER -> collectReferences(column.other(row), symbols, symbolToNode, targets);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Collect the instances referred to by a field value, the same way {@link #writeValue}
+     * writes them as record variables.
+     *
+     * @param value The field value
+     * @param symbols The export's IDs
+     * @param symbolToNode For each symbol, the number of its instance, or -1 if it is not written
+     * @param targets The numbers of the instances referred to
+     */
+    private static void collectReferences(Object value, ExportSymbols symbols, int[] symbolToNode, Set<Integer> targets) {
+        switch (value) {
+            case String strValue -> addReference(symbols.indexOf(strValue), symbolToNode, targets);
+            case List<?> list -> {
+                for (Object element : list) {
+                    collectReferences(element, symbols, symbolToNode, targets);
+                }
+            }
+            case Map<?, ?> map -> {
+                if (map.get("id") instanceof String refId) {
+                    addReference(symbols.indexOf(refId), symbolToNode, targets);
+                    return;
+                }
+                for (Object element : map.values()) {
+                    collectReferences(element, symbols, symbolToNode, targets);
+                }
+            }
+            case null, default -> {
+            }
+        }
+    }
+
+    private static void addReference(int symbol, int[] symbolToNode, Set<Integer> targets) {
+        if (symbol >= 0 && symbolToNode[symbol] >= 0) {
+            targets.add(symbolToNode[symbol]);
+        }
+    }
+
+    /**
+     * Writes a one-time index of the instances already in the target repository for each exported
+     * class, by name and by external reference in the export's external repository, and a
+     * {@code _getInstance} function that finds instances through it. It follows the same steps as
+     * {@code EssentialGetInstance} in the standard functions pack, but each lookup by name or
+     * external reference is a dictionary hit instead of a search of the knowledge base, and the
+     * external repository is looked up once rather than each time a reference to it is found or
+     * created. Instances it creates or links are added to the index, so later instances of the
+     * export see them, and an instance it renames is moved to its new name.
+     *
+     * @param request The export request
+     * @param script The writer to write the script to
+     * @param classNames The classes to index
+     * @throws IOException if the script could not be written
+     */
+    private void writeInstanceIndex(DUPExportRequest request, ChunkingWriter script, List<String> classNames) throws IOException {
+        script.append("# ========================================\n");
+        script.append("# Index existing instances by name and external reference\n");
+        script.append("# ========================================\n\n");
+        script.append("_EXTERNAL_REPOSITORY = getExternalRepository(");
+        script.writeUnicode(request.getExternalRepositoryName());
+        script.append(")\n");
+        script.append("_REF_SLOT = kb.getSlot(\"external_repository_instance_reference\")\n");
+        script.append("_REPOS_SLOT = kb.getSlot(\"external_repository_reference\")\n");
+        script.append("_ID_SLOT = kb.getSlot(\"external_instance_reference\")\n");
+        script.append("_nameIndex = {}\n");
+        script.append("_nameSlots = {}\n");
+        script.append("_externalIndex = {}\n\n");
+        script.append("def _buildIndex(theClassName):\n");
+        script.append("    aNames = {}\n");
+        script.append("    anExternalIDs = {}\n");
+        script.append("    _nameIndex[theClassName] = aNames\n");
+        script.append("    _externalIndex[theClassName] = anExternalIDs\n");
+        script.append("    aClass = kb.getCls(theClassName)\n");
+        script.append("    if aClass == None:\n");
+        script.append("        return\n");
+        script.append("    aNameSlot = GetNameSlot(theClassName)\n");
+        script.append("    _nameSlots[theClassName] = aNameSlot\n");
+        script.append("    for anInst in aClass.getDirectInstances():\n");
+        script.append("        aName = anInst.getDirectOwnSlotValue(aNameSlot)\n");
+        script.append("        if aName != None and not aNames.has_key(aName):\n");
+        script.append("            aNames[aName] = anInst\n");
+        script.append("        for aRef in anInst.getDirectOwnSlotValues(_REF_SLOT):\n");
+        script.append("            if aRef.getDirectOwnSlotValue(_REPOS_SLOT) == _EXTERNAL_REPOSITORY:\n");
+        script.append("                anExternalIDs[aRef.getDirectOwnSlotValue(_ID_SLOT)] = anInst\n\n");
+        // The same steps as UpdateOrAddExternalRef, but with the external repository looked up once
+        script.append("def _updateOrAddExternalRef(theInstance, theExternalID, theExternalRepositoryName):\n");
+        script.append("    for aRef in theInstance.getDirectOwnSlotValues(_REF_SLOT):\n");
+        script.append("        if aRef.getDirectOwnSlotValue(_REPOS_SLOT) == _EXTERNAL_REPOSITORY:\n");
+        script.append("            UpdateExternalReferenceID(aRef)\n");
+        script.append("            return\n");
+        script.append("    aRef = kb.createInstance(None, kb.getCls(\"External_Instance_Reference\"))\n");
+        script.append("    aRef.setOwnSlotValue(kb.getSlot(\"name\"), theExternalRepositoryName + \"::\" + theExternalID)\n");
+        script.append("    aRef.addOwnSlotValue(_REPOS_SLOT, _EXTERNAL_REPOSITORY)\n");
+        script.append("    aRef.setOwnSlotValue(_ID_SLOT, theExternalID)\n");
+        script.append("    aRef.setOwnSlotValue(kb.getSlot(\"external_update_date\"), timestamp())\n");
+        script.append("    theInstance.addOwnSlotValue(_REF_SLOT, aRef)\n\n");
+        script.append("def _renameInIndex(theNames, theInstance, theOldName, theNewName):\n");
+        script.append("    if theNewName == theOldName:\n");
+        script.append("        return\n");
+        script.append("    if theNames.get(theOldName) == theInstance:\n");
+        script.append("        del theNames[theOldName]\n");
+        script.append("    if theNewName != None and not theNames.has_key(theNewName):\n");
+        script.append("        theNames[theNewName] = theInstance\n\n");
+        script.append("def _getInstance(theClassName, theInstanceID, theInstanceName, theExternalID, theExternalRepositoryName):\n");
+        script.append("    if kb.getCls(theClassName) == None:\n");
+        script.append("        print \"WARNING: Skipping instance of unknown class: \" + theClassName\n");
+        script.append("        return None\n");
+        script.append("    if not _nameIndex.has_key(theClassName):\n");
+        script.append("        _buildIndex(theClassName)\n");
+        script.append("    aNames = _nameIndex[theClassName]\n");
+        script.append("    anExternalIDs = _externalIndex[theClassName]\n");
+        script.append("    anInstance = FindEssentialInstanceByID(theInstanceID)\n");
+        script.append("    if anInstance == None:\n");
+        script.append("        anInstance = anExternalIDs.get(theExternalID)\n");
+        script.append("    if anInstance != None:\n");
+        script.append("        _updateOrAddExternalRef(anInstance, theExternalID, theExternalRepositoryName)\n");
+        script.append("        if theInstanceName != None and len(theInstanceName) > 0:\n");
+        script.append("            aNameSlot = _nameSlots[theClassName]\n");
+        script.append("            anOldName = anInstance.getDirectOwnSlotValue(aNameSlot)\n");
+        script.append("            UpdateEssentialInstanceName(anInstance, theInstanceName)\n");
+        script.append("            _renameInIndex(aNames, anInstance, anOldName, anInstance.getDirectOwnSlotValue(aNameSlot))\n");
+        script.append("    elif theInstanceName != None and aNames.has_key(theInstanceName.strip()):\n");
+        script.append("        anInstance = aNames[theInstanceName.strip()]\n");
+        script.append("        _updateOrAddExternalRef(anInstance, theExternalID, theExternalRepositoryName)\n");
+        script.append("    else:\n");
+        script.append("        anInstance = CreateNewEssentialInstance(theClassName, theInstanceName)\n");
+        script.append("        _updateOrAddExternalRef(anInstance, theExternalID, theExternalRepositoryName)\n");
+        script.append("        if theInstanceName != None and not aNames.has_key(theInstanceName):\n");
+        script.append("            aNames[theInstanceName] = anInstance\n");
+        script.append("    anExternalIDs[theExternalID] = anInstance\n");
+        script.append("    return anInstance\n\n");
+
+        for (String className : classNames) {
+            script.append("_buildIndex('").append(className).append("')\n");
+        }
+        script.append("\n");
+    }
 
-                // Get transformed ID and record variable name
-                String transformedId = idMapping.getOrDefault(originalId, originalId);
-                String recordVarName = idToRecordVar.get(originalId);
+    /**
+     * Writes both passes of the import script as per-class data tables. Each table is a list of
+     * tuples handed to a small loop defined once at the top of the script, which calls
+     * {@code EssentialGetInstance} and {@code addIfNotThere} for each row. Records are kept in a
+     * single list and referenced by index instead of through a global variable each, so the
+     * importer has far less to parse and compile than with a statement per value.
+     * <p>
+     * Rows are written in batches of at most {@value #COMPACT_BATCH_SIZE} instances, one statement
+     * per batch, so that the script can still be split into chunks between them.
+     */
+    private void writeDataTables(DUPExportRequest request, ChunkingWriter script, String getInstance,
+                                 List<ExportClass> classes, Map<String, List<String>> classFieldsMap,
+                                 ExportSymbols symbols, IdReplacer idReplacer) throws IOException {
+        int batchSize = request.getChunkSize() > 0 ? Math.min(COMPACT_BATCH_SIZE, request.getChunkSize()) : COMPACT_BATCH_SIZE;
 
-                // Create instance
-                script.append(recordVarName).append("=EssentialGetInstance('").append(className).append("', ");
-                script.append("u'").append(escapeForJython(transformedId)).append("', ");
-                script.append("u'").append(escapeForJython(instanceName != null ? instanceName : "")).append("', ");
-                script.append("u'").append(escapeForJython(transformedId)).append("', ");
-                script.append("u'").append(request.getExternalRepositoryName()).append("')\n");
+        writeDataTableFunctions(request, script, getInstance, symbols.size(), "addIfNotThere");
 
-                // Immediately set the name field
-                script.append("addIfNotThere(").append(recordVarName).append(", 'name', ");
-                script.append("u'").append(escapeForJython(instanceName != null ? instanceName : "")).append("')\n");
+        // FIRST PASS: Create all instances and set name field
+        script.append("# ========================================\n");
+        script.append("# FIRST PASS: Create all instances\n");
+        script.append("# ========================================\n\n");
+
+        for (ExportClass exportClass : classes) {
+            String className = exportClass.className();
+            script.append("# Class: ").append(className).append(" (").append(String.valueOf(exportClass.size())).append(" instances)\n");
+
+            // Batches run on across the segments of a spilled class
+            int written = 0;
+            for (int segment = 0; segment < exportClass.segmentCount(); segment++) {
+                InstanceColumns columns = exportClass.segment(segment, symbols);
+                for (int row = 0; row < columns.size(); row++, written++) {
+                    if (written % batchSize == 0) {
+                        script.startInstances(Math.min(batchSize, exportClass.size() - written));
+                        script.append("_createInstances('").append(className).append("', [\n");
+                    }
+                    writeCreateRow(script, columns, row, symbols);
+                    if (written % batchSize == batchSize - 1 || written == exportClass.size() - 1) {
+                        script.append("])\n");
+                    }
+                }
             }
 
             script.append("\n");
@@ -262,142 +1272,627 @@ public class DUPExportService {
         script.append("# SECOND PASS: Populate all fields\n");
         script.append("# ========================================\n\n");
 
-        for (Map.Entry<String, List<Map<String, Object>>> entry : instancesByClass.entrySet()) {
-            String className = entry.getKey();
-            List<Map<String, Object>> instances = entry.getValue();
-            List<String> selectedFields = classFieldsMap.get(className);
+        for (ExportClass exportClass : classes) {
+            String className = exportClass.className();
 
-            if (selectedFields == null || selectedFields.isEmpty()) {
+            // The name was already added in the first pass, and has no column
+            List<String> slotNames = exportClass.fieldNames();
+            if (slotNames.isEmpty()) {
                 continue;
             }
 
             script.append("# Class: ").append(className).append(" - Adding fields\n");
-            script.append("# Requested fields: ").append(String.join(", ", selectedFields)).append("\n\n");
+            script.append("# Requested fields: ").append(String.join(", ", classFieldsMap.get(className))).append("\n");
+            String slotTuple = slotTuple(slotNames);
+
+            int written = 0;
+            for (int segment = 0; segment < exportClass.segmentCount(); segment++) {
+                InstanceColumns columns = exportClass.segment(segment, symbols);
+                for (int row = 0; row < columns.size(); row++, written++) {
+                    if (written % batchSize == 0) {
+                        script.startInstances(Math.min(batchSize, exportClass.size() - written));
+                        script.append("_addSlotValues(").append(slotTuple).append(", [\n");
+                    }
+                    writeSlotValuesRow(script, columns, row, symbols, idReplacer);
+                    if (written % batchSize == batchSize - 1 || written == exportClass.size() - 1) {
+                        script.append("])\n");
+                    }
+                }
+            }
 
-            for (Map<String, Object> instanceMap : instances) {
-                String originalId = (String) instanceMap.get("id");
+            script.append("\n");
+        }
+    }
 
-                if (originalId == null) {
-                    continue;
-                }
+    /**
+     * Writes the list the records of a compact script are held in, and the functions its data
+     * tables are handed to.
+     *
+     * @param recordCount The number of records
+     * @param addSlotValue The function the second pass adds each field value with
+     */
+    private void writeDataTableFunctions(DUPExportRequest request, ChunkingWriter script, String getInstance,
+                                         int recordCount, String addSlotValue) throws IOException {
+        script.append("# Records are held in a list and referenced by their index\n");
+        script.append("_R = [None] * ").append(String.valueOf(recordCount)).append("\n");
+        script.append("_REPO = ");
+        script.writeUnicode(request.getExternalRepositoryName());
+        script.append("\n\n");
+        script.append("def _createInstances(theClassName, theRows):\n");
+        script.append("    for anIndex, anID, aName in theRows:\n");
+        script.append("        aRecord = ").append(getInstance).append("(theClassName, anID, aName, anID, _REPO)\n");
+        script.append("        addIfNotThere(aRecord, 'name', aName)\n");
+        script.append("        _R[anIndex] = aRecord\n\n");
+        script.append("def _addSlotValues(theSlotNames, theRows):\n");
+        script.append("    for aRow in theRows:\n");
+        script.append("        aRecord = _R[aRow[0]]\n");
+        script.append("        for aSlotIndex in range(len(theSlotNames)):\n");
+        script.append("            aValue = aRow[aSlotIndex + 1]\n");
+        script.append("            if aValue is not None:\n");
+        script.append("                ").append(addSlotValue).append("(aRecord, theSlotNames[aSlotIndex], aValue)\n\n");
+    }
 
-                String recordVarName = idToRecordVar.get(originalId);
+    /**
+     * Writes the row of a compact script's first pass that creates an instance.
+     */
+    private void writeCreateRow(ChunkingWriter script, InstanceColumns columns, int row, ExportSymbols symbols) throws IOException {
+        int symbol = columns.symbol(row);
+        script.append("(").append(String.valueOf(symbol)).append(", ");
+        script.writeUnicode(symbols.transformedId(symbol));
+        script.append(", ");
+        script.writeUnicode(columns.name(row));
+        script.append("),\n");
+    }
 
-                // Add each selected field (skip 'name' as it was already added in first pass)
-                for (String fieldName : selectedFields) {
-                    if ("name".equals(fieldName)) {
-                        continue; // Skip name field, already added in first pass
-                    }
+    /**
+     * Writes the row of a compact script's second pass that populates the fields of an instance.
+     */
+    private void writeSlotValuesRow(ChunkingWriter script, InstanceColumns columns, int row, ExportSymbols symbols,
+                                    IdReplacer idReplacer) throws IOException {
+        script.append("(").append(String.valueOf(columns.symbol(row)));
+        for (int column = 0; column < columns.fieldNames().size(); column++) {
+            script.append(", ");
+            writeCell(script, columns.column(column), row, symbols, idReplacer);
+        }
+        script.append("),\n");
+    }
 
-                    Object fieldValue = instanceMap.get(fieldName);
+    /**
+     * @return The slot names of a compact script's second pass as a Python tuple
+     */
+    private static String slotTuple(List<String> slotNames) {
+        return slotNames.stream().map(fieldName -> "'" + fieldName + "'")
+                .collect(Collectors.joining(", ", "(", slotNames.size() == 1 ? ",)" : ")"));
+    }
 
-                    if (fieldValue != null) {
-                        String valueStr = transformIdsInValue(fieldValue, idMapping, idToRecordVar);
-                        script.append("addIfNotThere(").append(recordVarName).append(", '").append(fieldName).append("', ");
-                        script.append(valueStr).append(")\n");
+    /**
+     * Fetch the instances of every class concurrently, one virtual thread per class.
+     * Classes are started largest first (based on the last observed size) and at most
+     * {@code eas.fetch.max-concurrent-classes} fetches run at the same time. A class fetched from
+     * EAS is held against the export's memory budget a page at a time as the pages arrive, and
+     * spilled to disk from the first page that does not fit, so the heap holds at most the budget
+     * and the pages in flight. A class served from the cache or a snapshot is already in memory,
+     * and is held or spilled as a whole.
+     *
+     * @param repoId The repository ID to query
+     * @param classFetches The classes to fetch, in request order
+     * @param refresh Fetch from EAS even if the classes are cached or snapshotted
+     * @param budget The export's memory budget
+     * @param snapshotTimes Collects when each class read from a snapshot was fetched from EAS
+     * @return The fetched instances for each class, in the same order as {@code classFetches}
+     * @throws IOException if any class could not be fetched; a partial export would silently lose data
+     */
+    private List<FetchedClass> fetchClasses(String repoId, List<ClassFetch> classFetches, boolean refresh,
+                                            FetchBudget budget, Map<String, Instant> snapshotTimes) throws IOException {
+        List<Future<FetchedClass>> futures = new ArrayList<>(Collections.nCopies(classFetches.size(), null));
+
+        Semaphore permits = new Semaphore(Math.max(1, fetchProperties.getMaxConcurrentClasses()));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int index : largestFirst(repoId, classFetches)) {
+                ClassFetch classFetch = classFetches.get(index);
+                permits.acquireUninterruptibly();
+                futures.set(index, executor.submit(() -> {
+                    try {
+                        return fetchClass(repoId, classFetch, refresh, budget, snapshotTimes);
+                    } finally {
+                        permits.release();
                     }
+                }));
+            }
+        }
+
+        List<FetchedClass> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<FetchedClass> future = futures.get(i);
+            if (future.state() == Future.State.FAILED) {
+                if (future.exceptionNow() instanceof IOException e) {
+                    throw e;
+                }
+                throw new IOException("Failed to fetch instances of class " + classFetches.get(i).className(), future.exceptionNow());
+            }
+            results.add(future.resultNow());
+        }
+        return results;
+    }
+
+    /**
+     * Fetch all instances of a single class. Unless a refresh is requested they come from the
+     * instance cache, or else from the on-disk snapshot if snapshots are enabled, when a
+     * recent fetch of the same slots (or a superset of them) is held there. Instances read from a
+     * snapshot are not cached, so every export served from a snapshot knows when it was fetched.
+     * Failed pages are already retried by the client, so any exception here means the class could
+     * not be fetched.
+     *
+     * @param repoId The repository ID to query
+     * @param classFetch The class and slots to fetch
+     * @param refresh Fetch from EAS even if the class is cached or snapshotted
+     * @param budget The export's memory budget
+     * @param snapshotTimes Collects when each class read from a snapshot was fetched from EAS
+     * @return The instances of the class, held in memory or spilled
+     * @throws IOException if the class could not be spilled, or does not fit the budget and may not be
+     */
+    private FetchedClass fetchClass(String repoId, ClassFetch classFetch, boolean refresh, FetchBudget budget,
+                                    Map<String, Instant> snapshotTimes) throws IOException {
+        String className = classFetch.className();
+        String slots = classFetch.slots();
+
+        List<EASInstance> instances = null;
+        if (!refresh) {
+            instances = instanceCache.getIfPresent(repoId, className, 1, slots).orElse(null);
+            if (instances == null) {
+                Optional<SnapshotStore.Snapshot> snapshot = snapshotStore.read(repoId, className, 1, slots);
+                if (snapshot.isPresent()) {
+                    snapshotTimes.put(className, snapshot.get().fetchedAt());
+                    instances = snapshot.get().instances();
                 }
             }
+        }
+        FetchedClass fetchedClass = instances == null
+                ? fetchFromEas(repoId, className, slots, budget)
+                : budget.hold(className, instances);
+        classSizeHints.put(sizeHintKey(repoId, className), fetchedClass.size());
+        return fetchedClass;
+    }
 
-            script.append("\n");
+    /**
+     * Fetch all instances of a class from EAS, holding each page against the memory budget as it
+     * arrives. A class held in memory is cached and snapshotted; one spilled on the way is not,
+     * as both would need the whole class on the heap.
+     */
+    private FetchedClass fetchFromEas(String repoId, String className, String slots, FetchBudget budget) throws IOException {
+        FetchBudget.PagedClass pages = budget.paged(className);
+        try {
+            easClient.streamInstances(repoId, className, 1, slots, pages);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
 
-        return script.toString();
+        FetchedClass fetchedClass = pages.finish();
+        if (fetchedClass.spilled() != null) {
+            instanceCache.invalidate(repoId, className);
+            return fetchedClass;
+        }
+        List<EASInstance> instances = instanceCache.refresh(repoId, className, 1, slots, fetchedClass::instances);
+        snapshotStore.write(repoId, className, 1, slots, instances);
+        return new FetchedClass(instances, null);
     }
 
     /**
-     * Build mapping from original IDs to transformed IDs.
-     * IDs already starting with the prefix are preserved.
-     * Other IDs are transformed to {prefix}_{sequence}.
-     *
-     * @param originalIds Set of original instance IDs
-     * @param prefix ID prefix (can be null or empty)
-     * @return Map from original ID to transformed ID
+     * @return The indexes of the classes to fetch, largest first based on the last observed size
      */
-    private Map<String, String> buildIdMapping(Set<String> originalIds, String prefix) {
-        Map<String, String> mapping = new HashMap<>();
+    private List<Integer> largestFirst(String repoId, List<ClassFetch> classFetches) {
+        // Unknown classes sort as largest so they are never starved behind known small ones
+        return IntStream.range(0, classFetches.size()).boxed()
+                .sorted(Comparator.comparingInt((Integer i) ->
+                        classSizeHints.getOrDefault(sizeHintKey(repoId, classFetches.get(i).className()), Integer.MAX_VALUE)).reversed())
+                .toList();
+    }
+
+    private static String sizeHintKey(String repoId, String className) {
+        return repoId + "/" + className;
+    }
+
+    /**
+     * An export whose instances have been fetched, ready to be written as a .dup archive.
+     */
+    @FunctionalInterface
+    public interface PreparedExport extends Closeable {
+
+        /**
+         * Write the .dup archive.
+         *
+         * @param out The stream to write to; it is left open
+         * @throws IOException if the archive could not be written
+         */
+        void writeTo(OutputStream out) throws IOException;
+
+        /**
+         * Release what the export holds, such as instances spilled to disk. The export can no
+         * longer be written.
+         */
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Hands each block written to it to the archive stage of a pipelined export. Closing it does
+     * not end the blocks.
+     */
+    private static final class BlockOutputStream extends OutputStream {
+
+        private final StageQueue<byte[]> blocks;
+
+        private BlockOutputStream(StageQueue<byte[]> blocks) {
+            this.blocks = blocks;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            try {
+                blocks.put(Arrays.copyOfRange(bytes, offset, offset + length));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing script block");
+            }
+        }
+    }
+
+    /**
+     * The memory budget of an export while its classes are fetched, and the spill file holding
+     * the classes that did not fit it. Shared by the threads fetching the classes.
+     */
+    private final class FetchBudget implements Closeable {
+
+        private final String repoId;
+        private final Map<String, List<String>> classFieldsMap;
+        private final boolean spillable;
+        private final long memoryBudget = exportProperties.getMemoryBudget().toBytes();
+        private long remainingBudget = memoryBudget;
+        private ExportSpill spill;
+
+        /**
+         * @param repoId The repository the classes are fetched from
+         * @param classFieldsMap The selected fields of each class
+         * @param spillable Whether classes beyond the budget may be spilled, rather than failing the export
+         */
+        private FetchBudget(String repoId, Map<String, List<String>> classFieldsMap, boolean spillable) {
+            this.repoId = repoId;
+            this.classFieldsMap = classFieldsMap;
+            this.spillable = spillable;
+        }
+
+        /**
+         * Hold a fetched class in memory if it fits what is left of the budget, or else spill it.
+         * A spilled class is evicted from the instance cache, which would otherwise keep it on
+         * the heap regardless.
+         *
+         * @param className The class fetched
+         * @param instances The class's instances
+         * @return The fetched class
+         * @throws IOException if the class could not be spilled, or does not fit and may not be
+         */
+        FetchedClass hold(String className, List<EASInstance> instances) throws IOException {
+            List<String> fieldNames = fieldNames(className);
+            if (reserve(InstanceColumns.estimateBytes(instances, fieldNames))) {
+                return new FetchedClass(instances, null);
+            }
+            if (!spillable) {
+                throw exceedsBudget(className);
+            }
+
+            try {
+                ExportSpill.SpilledClass spilled = spill(className, instances, fieldNames);
+                instanceCache.invalidate(repoId, className);
+                return new FetchedClass(null, spilled);
+            } catch (IOException e) {
+                throw new IOException("Failed to spill instances of class " + className, e);
+            }
+        }
+
+        /**
+         * Start holding a class fetched from EAS against the budget, a page at a time.
+         *
+         * @param className The class being fetched
+         * @return The consumer of the class's pages
+         */
+        PagedClass paged(String className) {
+            return new PagedClass(className, fieldNames(className));
+        }
+
+        /**
+         * Append the instances of a class to the spill file, creating it first if need be.
+         */
+        synchronized ExportSpill.SpilledClass spill(String className, List<EASInstance> rows, List<String> fieldNames) throws IOException {
+            ExportSpill.Appender appender = appender(className, fieldNames);
+            append(appender, rows);
+            return appender.finish();
+        }
+
+        private synchronized ExportSpill.Appender appender(String className, List<String> fieldNames) throws IOException {
+            if (spill == null) {
+                spill = ExportSpill.create(exportProperties.getSpillDirectory());
+            }
+            return spill.append(className, fieldNames);
+        }
+
+        private synchronized void append(ExportSpill.Appender appender, List<EASInstance> rows) throws IOException {
+            meterRegistry.counter("eas.export.spill.bytes").increment(appender.write(rows));
+        }
+
+        /**
+         * Take the estimated size of some instances from what is left of the budget, if it fits.
+         */
+        private synchronized boolean reserve(long estimatedBytes) {
+            if (memoryBudget <= 0 || estimatedBytes <= remainingBudget) {
+                remainingBudget -= estimatedBytes;
+                return true;
+            }
+            return false;
+        }
 
-        // If no prefix specified, return identity mapping
-        if (prefix == null || prefix.trim().isEmpty()) {
-            for (String id : originalIds) {
-                mapping.put(id, id);
+        private synchronized void release(long estimatedBytes) {
+            remainingBudget += estimatedBytes;
+        }
+
+        private List<String> fieldNames(String className) {
+            return classFieldsMap.get(className).stream().filter(fieldName -> !"name".equals(fieldName)).toList();
+        }
+
+        private IOException exceedsBudget(String className) {
+            return new IOException("A single pass script needs every instance in memory, but the export exceeds its memory budget of "
+                    + exportProperties.getMemoryBudget() + " at class " + className);
+        }
+
+        /**
+         * @return The spill file, or null if nothing was spilled
+         */
+        synchronized ExportSpill spillFile() {
+            return spill;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (spill != null) {
+                spill.close();
             }
-            return mapping;
         }
 
-        String prefixWithUnderscore = prefix.trim() + "_";
-        Set<Integer> usedSequences = new HashSet<>();
-        Pattern prefixPattern = Pattern.compile("^" + Pattern.quote(prefixWithUnderscore) + "(\\d+)$");
+        /**
+         * Holds the pages of a class against the budget as they are fetched. From the first page
+         * that does not fit what is left of the budget, the pages held so far and every later
+         * page are spilled instead, so a class never takes more of the heap than the budget.
+         * Called on the thread fetching the class; a failure is thrown as an
+         * {@link UncheckedIOException}.
+         */
+        final class PagedClass implements Consumer<List<EASInstance>> {
+
+            private final String className;
+            private final List<String> fieldNames;
+            private List<EASInstance> instances = new ArrayList<>();
+            private long heldBytes;
+            private ExportSpill.Appender spilled;
+
+            private PagedClass(String className, List<String> fieldNames) {
+                this.className = className;
+                this.fieldNames = fieldNames;
+            }
+
+            @Override
+            public void accept(List<EASInstance> page) {
+                try {
+                    add(page);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private void add(List<EASInstance> page) throws IOException {
+                if (spilled == null) {
+                    long estimatedBytes = InstanceColumns.estimateBytes(page, fieldNames);
+                    if (reserve(estimatedBytes)) {
+                        instances.addAll(page);
+                        heldBytes += estimatedBytes;
+                        return;
+                    }
+                    if (!spillable) {
+                        throw exceedsBudget(className);
+                    }
 
-        // First pass: identify IDs that already have the correct prefix and extract used sequences
-        for (String id : originalIds) {
-            if (id.startsWith(prefixWithUnderscore)) {
-                Matcher matcher = prefixPattern.matcher(id);
-                if (matcher.matches()) {
                     try {
-                        int sequence = Integer.parseInt(matcher.group(1));
-                        usedSequences.add(sequence);
-                    } catch (NumberFormatException e) {
-                        // If parsing fails, just mark this ID as preserved
+                        spilled = appender(className, fieldNames);
+                        append(spilled, instances);
+                    } catch (IOException e) {
+                        throw new IOException("Failed to spill instances of class " + className, e);
                     }
+                    instances = null;
+                    release(heldBytes);
                 }
-                // Preserve IDs that already have the prefix
-                mapping.put(id, id);
+
+                try {
+                    append(spilled, page);
+                } catch (IOException e) {
+                    throw new IOException("Failed to spill instances of class " + className, e);
+                }
+            }
+
+            /**
+             * @return The class, once every page has been added
+             */
+            FetchedClass finish() {
+                return spilled == null ? new FetchedClass(instances, null) : new FetchedClass(null, spilled.finish());
             }
         }
+    }
 
-        // Second pass: transform IDs that don't have the prefix
-        int nextSequence = 1;
-        for (String id : originalIds) {
-            if (!mapping.containsKey(id)) {
-                // Find next available sequence number
-                while (usedSequences.contains(nextSequence)) {
-                    nextSequence++;
-                }
+    /**
+     * The instances of a class as fetched, held either in memory or spilled to disk.
+     */
+    private record FetchedClass(List<EASInstance> instances, ExportSpill.SpilledClass spilled) {
+
+        int size() {
+            return spilled == null ? instances.size() : spilled.size();
+        }
+
+        int segmentCount() {
+            return spilled == null ? 1 : spilled.segmentCount();
+        }
+
+        List<EASInstance> segment(int segment) throws IOException {
+            return spilled == null ? instances : spilled.readRows(segment);
+        }
+    }
 
-                String newId = prefixWithUnderscore + nextSequence;
-                mapping.put(id, newId);
-                usedSequences.add(nextSequence);
-                nextSequence++;
+    /**
+     * The IDs of the instances fetched for an export, the instances of each class with selected
+     * fields in request order, the selected fields of each class, the spill file holding the
+     * classes beyond the memory budget, if any, and when each class read from a snapshot was
+     * fetched from EAS.
+     */
+    private record ExportData(ExportSymbols symbols, List<ExportClass> classes, Map<String, List<String>> classFieldsMap,
+                              ExportSpill spill, Map<String, Instant> snapshotTimes) {
+
+        void close() {
+            if (spill != null) {
+                spill.close();
             }
         }
+    }
 
-        return mapping;
+    /**
+     * The instances of a class with selected fields, held either as columns or spilled to disk.
+     */
+    private record ExportClass(String className, int size, InstanceColumns columns, ExportSpill.SpilledClass spilled) {
+
+        List<String> fieldNames() {
+            return spilled == null ? columns.fieldNames() : spilled.fieldNames();
+        }
+
+        /**
+         * @return The number of segments the instances are read in, one for a class held in memory
+         */
+        int segmentCount() {
+            return spilled == null ? 1 : spilled.segmentCount();
+        }
+
+        InstanceColumns segment(int segment, ExportSymbols symbols) throws IOException {
+            return spilled == null ? columns : spilled.readSegment(segment, symbols);
+        }
     }
 
     /**
-     * Transform IDs within a field value (handles strings, lists, maps).
-     * When a value is a reference to another instance, uses the record variable instead of ID string.
+     * A class to fetch from EAS together with its caret-separated slots parameter.
+     */
+    private record ClassFetch(String className, String slots) {
+    }
+
+    /**
+     * A field value of an instance whose statement is written later, as the column and row of its cell.
+     */
+    private record SlotValue(String recordVarName, InstanceColumns columns, int column, int row) {
+    }
+
+    /**
+     * Group the symbols of an export's instances by class, in the order the classes and their
+     * instances first appear.
+     *
+     * @param classIds The class of each symbol's instance
+     * @param symbolCount The number of symbols
+     * @param classCount The number of classes
+     * @return The symbols of each class's instances
+     */
+    private static List<int[]> groupByClass(int[] classIds, int symbolCount, int classCount) {
+        int[] counts = new int[classCount];
+        List<Integer> order = new ArrayList<>();
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            if (counts[classIds[symbol]]++ == 0) {
+                order.add(classIds[symbol]);
+            }
+        }
+
+        int[][] symbolsByClass = new int[classCount][];
+        for (int classId : order) {
+            symbolsByClass[classId] = new int[counts[classId]];
+            counts[classId] = 0;
+        }
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            symbolsByClass[classIds[symbol]][counts[classIds[symbol]]++] = symbol;
+        }
+        return order.stream().map(classId -> symbolsByClass[classId]).toList();
+    }
+
+    /**
+     * Write a cell of a column as a Jython expression, the same way {@link #writeValue} writes the
+     * value it was built from.
      *
+     * @param out The writer to write the value to
+     * @param column The column of the cell
+     * @param row The row of the cell
+     * @param symbols The export's IDs, with their record variables and transformed IDs
+     * @param idReplacer Rewrites original IDs found inside other strings to their transformed IDs
+     * @throws IOException if the value could not be written
+     */
+    private void writeCell(ChunkingWriter out, InstanceColumns.Column column, int row, ExportSymbols symbols,
+                           IdReplacer idReplacer) throws IOException {
+        switch (column.kind(row)) {
+            case InstanceColumns.Column.NULL -> out.write("None");
+            case InstanceColumns.Column.STRING -> out.writeUnicode(idReplacer.replaceIn(column.string(row)));
+            case InstanceColumns.Column.REFERENCE -> out.write(symbols.recordVar(column.reference(row)));
+            case InstanceColumns.Column.REFERENCES -> {
+                out.write('[');
+                for (int i = 0; i < column.referenceCount(row); i++) {
+                    if (i > 0) out.write(", ");
+                    out.write(symbols.recordVar(column.reference(row, i)));
+                }
+                out.write(']');
+            }
+            default -> writeValue(out, column.other(row), symbols, idReplacer);
+        }
+    }
+
+    /**
+     * Write a field value as a Jython expression, transforming IDs within it (handles strings, lists, maps).
+     * When a value is a reference to another instance, writes the record variable instead of ID string.
+     *
+     * @param out The writer to write the value to
      * @param value The field value
-     * @param idMapping Map from original ID to transformed ID
-     * @param idToRecordVar Map from original ID to record variable name
-     * @return Jython-formatted string with record variables for instance references
+     * @param symbols The export's IDs, with their record variables and transformed IDs
+     * @param idReplacer Rewrites original IDs found inside other strings to their transformed IDs
+     * @throws IOException if the value could not be written
      */
-    private String transformIdsInValue(Object value, Map<String, String> idMapping, Map<String, String> idToRecordVar) {
+    private void writeValue(ChunkingWriter out, Object value, ExportSymbols symbols, IdReplacer idReplacer) throws IOException {
         switch (value) {
             case null -> {
-                return "None";
+                out.write("None");
+                return;
             }
             case String strValue -> {
                 // Check if this string is an instance ID that we have a record variable for
-                if (idToRecordVar.containsKey(strValue)) {
-                    // Return the record variable name directly (no quotes)
-                    return idToRecordVar.get(strValue);
+                int symbol = symbols.indexOf(strValue);
+                if (symbol >= 0) {
+                    // Write the record variable name directly (no quotes)
+                    out.write(symbols.recordVar(symbol));
+                    return;
                 }
 
                 // Otherwise, replace all occurrences of mapped IDs in the string
-                for (Map.Entry<String, String> entry : idMapping.entrySet()) {
-                    strValue = strValue.replace(entry.getKey(), entry.getValue());
-                }
-                return "u'" + escapeForJython(strValue) + "'";
+                out.writeUnicode(idReplacer.replaceIn(strValue));
+                return;
             }
             case List list1 -> {
                 @SuppressWarnings("unchecked")
                 List<Object> list = (List<Object>) value;
 
                 // Special case: if list has exactly one element and it's a reference map,
-                // return just the record variable without list brackets
+                // write just the record variable without list brackets
                 if (list.size() == 1) {
                     Object singleElement = list.get(0);
                     if (singleElement instanceof Map) {
@@ -405,25 +1900,28 @@ public class DUPExportService {
                         Map<String, Object> elementMap = (Map<String, Object>) singleElement;
                         if (elementMap.containsKey("id")) {
                             Object idValue = elementMap.get("id");
-                            if (idValue instanceof String refId && idToRecordVar.containsKey(refId)) {
-                                // Return just the record variable, no list brackets
-                                return idToRecordVar.get(refId);
+                            int symbol = idValue instanceof String refId ? symbols.indexOf(refId) : -1;
+                            if (symbol >= 0) {
+                                // Write just the record variable, no list brackets
+                                out.write(symbols.recordVar(symbol));
+                                return;
                             }
                         }
-                    } else if (singleElement instanceof String strId && idToRecordVar.containsKey(strId)) {
+                    } else if (singleElement instanceof String strId && symbols.indexOf(strId) >= 0) {
                         // Single string ID that maps to a record variable
-                        return idToRecordVar.get(strId);
+                        out.write(symbols.recordVar(symbols.indexOf(strId)));
+                        return;
                     }
                 }
 
                 // Normal case: process list elements
-                StringBuilder sb = new StringBuilder("[");
+                out.write('[');
                 for (int i = 0; i < list.size(); i++) {
-                    if (i > 0) sb.append(", ");
-                    sb.append(transformIdsInValue(list.get(i), idMapping, idToRecordVar));
+                    if (i > 0) out.write(", ");
+                    writeValue(out, list.get(i), symbols, idReplacer);
                 }
-                sb.append("]");
-                return sb.toString();
+                out.write(']');
+                return;
             }
             case Map map1 -> {
                 @SuppressWarnings("unchecked")
@@ -434,56 +1932,47 @@ public class DUPExportService {
                 if (map.containsKey("id")) {
                     Object idValue = map.get("id");
                     if (idValue instanceof String refId) {
-                        // Use record variable if available
-                        if (idToRecordVar.containsKey(refId)) {
-                            return idToRecordVar.get(refId);
+                        // Use record variable if available; every instance of the export has one,
+                        // so any other ID is not transformed and is written as a string
+                        int symbol = symbols.indexOf(refId);
+                        if (symbol >= 0) {
+                            out.write(symbols.recordVar(symbol));
+                            return;
                         }
-                        // Otherwise use transformed ID as string
-                        String transformedRefId = idMapping.getOrDefault(refId, refId);
-                        return "u'" + escapeForJython(transformedRefId) + "'";
+                        out.writeUnicode(refId);
+                        return;
                     }
                 }
 
                 // Otherwise, format as a map
-                StringBuilder sb = new StringBuilder("{");
+                out.write('{');
                 boolean first = true;
                 for (Map.Entry<String, Object> entry : map.entrySet()) {
-                    if (!first) sb.append(", ");
+                    if (!first) out.write(", ");
                     first = false;
-                    sb.append("'").append(escapeForJython(entry.getKey())).append("': ");
-                    sb.append(transformIdsInValue(entry.getValue(), idMapping, idToRecordVar));
+                    out.writeString(entry.getKey());
+                    out.write(": ");
+                    writeValue(out, entry.getValue(), symbols, idReplacer);
                 }
-                sb.append("}");
-                return sb.toString();
+                out.write('}');
+                return;
             }
 
 
             // Handle primitives
             case Number number -> {
-                return value.toString();
+                out.write(value.toString());
+                return;
             }
             case Boolean b -> {
-                return b ? "True" : "False";
+                out.write(b ? "True" : "False");
+                return;
             }
             default -> {
             }
         }
 
         // Default: convert to string and escape
-        return "u'" + escapeForJython(value.toString()) + "'";
-    }
-
-    /**
-     * Escape string for use in Jython script.
-     */
-    private String escapeForJython(String value) {
-        if (value == null) {
-            return "";
-        }
-        return value.replace("\\", "\\\\")
-                .replace("'", "\\'")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r");
+        out.writeUnicode(value.toString());
     }
 }
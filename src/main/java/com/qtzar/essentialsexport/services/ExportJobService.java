@@ -0,0 +1,319 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASJobProperties;
+import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs DUP exports as background jobs, so that a long export no longer depends on one HTTP
+ * request staying open. Jobs run on a bounded pool, with a bounded queue in front of it, and
+ * write their archive to the artifact directory, where it is kept for the retention period to be
+ * downloaded as often as needed.
+ * <p>
+ * An archive is written under a temporary name and only renamed once complete, alongside a JSON
+ * file describing its job, so finished jobs are picked up again when the application restarts.
+ * Jobs that were queued or still running when it stopped are lost.
+ */
+@Slf4j
+@Service
+public class ExportJobService {
+
+    private static final String ARCHIVE_SUFFIX = ".dup";
+    private static final String PARTIAL_SUFFIX = ".dup.part";
+    private static final String JOB_SUFFIX = ".json";
+
+    private final DUPExportService dupExportService;
+    private final EASJobProperties properties;
+    private final JsonMapper jsonMapper;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> tasks = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService sweepScheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("eas-export-job-sweep").factory());
+
+    public ExportJobService(DUPExportService dupExportService, EASJobProperties properties, JsonMapper jsonMapper) {
+        this.dupExportService = dupExportService;
+        this.properties = properties;
+        this.jsonMapper = jsonMapper;
+
+        int threads = Math.max(1, properties.getMaxConcurrentJobs());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())),
+                Thread.ofVirtual().name("eas-export-job-", 0).factory());
+    }
+
+    /**
+     * Pick up the jobs finished before the application last stopped and start deleting jobs past
+     * their retention.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        restore();
+        long interval = properties.getSweepInterval().toMillis();
+        if (interval > 0) {
+            sweepScheduler.scheduleWithFixedDelay(this::sweep, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queue an export to run in the background.
+     *
+     * @param request The export request containing class and field selections
+     * @return The queued job
+     * @throws RejectedExecutionException if the queue of jobs waiting to run is full
+     */
+    public ExportJob submit(DUPExportRequest request) {
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), request.getRepoId(),
+                request.getExternalRepositoryName(), Status.QUEUED, Instant.now(), null, null, 0, null);
+        // The task is known before it can run, so it is always there to be removed when it ends
+        FutureTask<Void> task = new FutureTask<>(() -> run(job.id(), request), null);
+        jobs.put(job.id(), job);
+        tasks.put(job.id(), task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id());
+            tasks.remove(job.id());
+            throw e;
+        }
+        log.info("Queued export job {} for repository {}", job.id(), job.repoId());
+        return job;
+    }
+
+    /**
+     * @param id The job ID
+     * @return The job, if it exists and has not been deleted
+     */
+    public Optional<ExportJob> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * @return Every job, the most recently submitted first
+     */
+    public List<ExportJob> list() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(ExportJob::submittedAt).reversed())
+                .toList();
+    }
+
+    /**
+     * @param id The job ID
+     * @return The archive of the job, if it has succeeded
+     */
+    public Optional<Path> archive(String id) {
+        ExportJob job = jobs.get(id);
+        return job != null && job.status() == Status.SUCCEEDED ? Optional.of(file(id, ARCHIVE_SUFFIX)) : Optional.empty();
+    }
+
+    /**
+     * Delete a job and its archive, cancelling it if it is still queued or running.
+     *
+     * @param id The job ID
+     * @return Whether the job existed
+     */
+    public boolean delete(String id) {
+        if (jobs.remove(id) == null) {
+            return false;
+        }
+        Future<?> task = tasks.remove(id);
+        if (task != null && task.cancel(true)) {
+            // Frees the queue slot of a job that had not started yet
+            executor.purge();
+        }
+        deleteFiles(id);
+        return true;
+    }
+
+    private void run(String id, DUPExportRequest request) {
+        Path partial = file(id, PARTIAL_SUFFIX);
+        try {
+            if (update(id, job -> job.started(Instant.now())) == null) {
+                return;
+            }
+
+            Files.createDirectories(properties.getArtifactDirectory());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                dupExportService.writeDUPExport(request, out);
+            }
+            Path archive = file(id, ARCHIVE_SUFFIX);
+            Files.move(partial, archive, StandardCopyOption.ATOMIC_MOVE);
+
+            // The job is only shown as succeeded once it would also be restored as such
+            ExportJob running = jobs.get(id);
+            ExportJob finished = running == null ? null : running.succeeded(Instant.now(), Files.size(archive));
+            if (finished != null) {
+                Files.write(file(id, JOB_SUFFIX), jsonMapper.writeValueAsBytes(finished));
+            }
+            if (finished == null || update(id, _ -> finished) == null) {
+                // Deleted while it was being written
+                deleteFiles(id);
+                return;
+            }
+            log.info("Export job {} wrote {} bytes", id, finished.size());
+        } catch (Exception e) {
+            deleteFiles(id);
+            String error = Objects.requireNonNullElse(e.getMessage(), e.getClass().getSimpleName());
+            if (update(id, job -> job.failed(Instant.now(), error)) != null) {
+                log.error("Export job {} failed: {}", id, error, e);
+            }
+        } finally {
+            tasks.remove(id);
+        }
+    }
+
+    /**
+     * Reload the jobs whose JSON file and archive are both in the artifact directory, and delete
+     * everything else there: archives left incomplete when the application stopped, and files
+     * without their counterpart.
+     */
+    void restore() {
+        Path directory = properties.getArtifactDirectory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            entries.forEach(files::add);
+        } catch (IOException e) {
+            log.warn("Failed to list export job directory {}: {}", directory, e.getMessage());
+            return;
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(JOB_SUFFIX)) {
+                continue;
+            }
+            String id = jobId(name);
+            try {
+                ExportJob job = jsonMapper.readValue(Files.readAllBytes(file), ExportJob.class);
+                if (id.equals(job.id()) && job.status() == Status.SUCCEEDED && Files.isRegularFile(file(id, ARCHIVE_SUFFIX))) {
+                    jobs.putIfAbsent(id, job);
+                }
+            } catch (IOException | JacksonException e) {
+                log.warn("Failed to read export job {}: {}", file, e.getMessage());
+            }
+        }
+
+        for (Path file : files) {
+            String id = jobId(file.getFileName().toString());
+            if (id != null && !jobs.containsKey(id)) {
+                deleteQuietly(file);
+            }
+        }
+        log.info("Restored {} export jobs from {}", jobs.size(), directory);
+    }
+
+    /**
+     * Delete every finished job older than the retention period.
+     */
+    void sweep() {
+        Instant cutoff = Instant.now().minus(properties.getRetention());
+        List<String> expired = jobs.values().stream()
+                .filter(job -> job.finishedAt() != null && job.finishedAt().isBefore(cutoff))
+                .map(ExportJob::id)
+                .toList();
+        expired.forEach(this::delete);
+        if (!expired.isEmpty()) {
+            log.info("Deleted {} export jobs past their retention", expired.size());
+        }
+    }
+
+    private ExportJob update(String id, UnaryOperator<ExportJob> change) {
+        return jobs.computeIfPresent(id, (_, job) -> change.apply(job));
+    }
+
+    /**
+     * @return The ID of the job a file in the artifact directory belongs to, or null if it is not
+     * one of the files of a job
+     */
+    private static String jobId(String fileName) {
+        for (String suffix : List.of(PARTIAL_SUFFIX, ARCHIVE_SUFFIX, JOB_SUFFIX)) {
+            if (fileName.endsWith(suffix)) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    private Path file(String id, String suffix) {
+        return properties.getArtifactDirectory().resolve(id + suffix);
+    }
+
+    private void deleteFiles(String id) {
+        deleteQuietly(file(id, PARTIAL_SUFFIX));
+        deleteQuietly(file(id, ARCHIVE_SUFFIX));
+        deleteQuietly(file(id, JOB_SUFFIX));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete export job file {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweepScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * The state of an export job.
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * An export job, replaced by a new instance at each change of its state.
+     *
+     * @param id The job ID
+     * @param repoId The repository exported
+     * @param externalRepositoryName The name the archive is downloaded as
+     * @param status The state of the job
+     * @param submittedAt When the job was queued
+     * @param startedAt When the job started running, or null while it is queued
+     * @param finishedAt When the job succeeded or failed, or null until then
+     * @param size The size of the archive in bytes, once the job has succeeded
+     * @param error Why the job failed, or null
+     */
+    public record ExportJob(String id, String repoId, String externalRepositoryName, Status status,
+                            Instant submittedAt, Instant startedAt, Instant finishedAt, long size, String error) {
+
+        ExportJob started(Instant at) {
+            return new ExportJob(id, repoId, externalRepositoryName, Status.RUNNING, submittedAt, at, null, 0, null);
+        }
+
+        ExportJob succeeded(Instant at, long archiveSize) {
+            return new ExportJob(id, repoId, externalRepositoryName, Status.SUCCEEDED, submittedAt, startedAt, at, archiveSize, null);
+        }
+
+        ExportJob failed(Instant at, String cause) {
+            return new ExportJob(id, repoId, externalRepositoryName, Status.FAILED, submittedAt, startedAt, at, 0, cause);
+        }
+    }
+}
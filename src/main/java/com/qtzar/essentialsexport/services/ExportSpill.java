@@ -0,0 +1,257 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A temporary file holding the instances of the classes of an export that did not fit its memory
+ * budget, from when they are fetched until the script has been written.
+ * <p>
+ * Each class is written in segments of at most {@value #SEGMENT_ROWS} instances, in the snapshot
+ * encoding without compression, either at once or a page at a time as it is fetched, and read
+ * back one segment at a time as the script is written. A segment is mapped read-only to be
+ * decoded, so the spilled data is held in the page cache rather than on the heap. The file is
+ * deleted when the spill is closed, or else once the spill is no longer reachable.
+ */
+@Slf4j
+final class ExportSpill implements Closeable {
+
+    /**
+     * Maximum number of instances read back at a time
+     */
+    static final int SEGMENT_ROWS = 10_000;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final FileChannel channel;
+    private final Cleaner.Cleanable cleanable;
+
+    private ExportSpill(Path path, FileChannel channel) {
+        this.channel = channel;
+        this.cleanable = CLEANER.register(this, new Cleanup(path, channel));
+    }
+
+    /**
+     * Create an empty spill file.
+     *
+     * @param directory The directory to create it in
+     * @return The spill
+     * @throws IOException if the file could not be created
+     */
+    static ExportSpill create(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path path = Files.createTempFile(directory, "dup-export-", ".spill");
+        try {
+            return new ExportSpill(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Append the instances of a class. Not safe to call from several threads at once.
+     *
+     * @param className The class
+     * @param rows The class's instances, in the order they are written
+     * @param fieldNames The slots to read back a column for
+     * @return The spilled class, to read it back from
+     * @throws IOException if the instances could not be written
+     */
+    SpilledClass write(String className, List<EASInstance> rows, List<String> fieldNames) throws IOException {
+        Appender appender = append(className, fieldNames);
+        appender.write(rows);
+        return appender.finish();
+    }
+
+    /**
+     * Start appending the instances of a class a batch at a time, such as each page as it is
+     * fetched. The segments of several classes being appended at once may interleave in the file.
+     *
+     * @param className The class
+     * @param fieldNames The slots to read back a column for
+     * @return The appender
+     */
+    Appender append(String className, List<String> fieldNames) {
+        return new Appender(className, List.copyOf(fieldNames));
+    }
+
+    /**
+     * Delete the spill file. Its spilled classes can no longer be read.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    /**
+     * Appends the instances of one class to the spill file. Not safe to call from several threads
+     * at once, nor at the same time as any other appender of the same spill.
+     */
+    final class Appender {
+
+        private final String className;
+        private final List<String> fieldNames;
+
+        /**
+         * Segment {@code i} is from {@code offsets[2 * i]} up to {@code offsets[2 * i + 1]}
+         */
+        private long[] offsets = new long[16];
+        private int segmentCount;
+        private int size;
+
+        private Appender(String className, List<String> fieldNames) {
+            this.className = className;
+            this.fieldNames = fieldNames;
+        }
+
+        /**
+         * Append a batch of instances, as segments of their own.
+         *
+         * @param rows The instances, in the order they are written
+         * @return The number of bytes written
+         * @throws IOException if the instances could not be written
+         */
+        long write(List<EASInstance> rows) throws IOException {
+            long bytes = 0;
+            channel.position(channel.size());
+            // Not closed, as that would close the channel; flushed after each segment so the
+            // channel's position is where the next one starts
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            for (int from = 0; from < rows.size(); from += SEGMENT_ROWS) {
+                if (2 * segmentCount + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+                }
+                offsets[2 * segmentCount] = channel.position();
+                SnapshotCodec.write(out, rows.subList(from, Math.min(rows.size(), from + SEGMENT_ROWS)));
+                out.flush();
+                offsets[2 * segmentCount + 1] = channel.position();
+                bytes += offsets[2 * segmentCount + 1] - offsets[2 * segmentCount];
+                segmentCount++;
+            }
+            size += rows.size();
+            return bytes;
+        }
+
+        /**
+         * @return The spilled class, holding every instance appended
+         */
+        SpilledClass finish() {
+            return new SpilledClass(className, size, fieldNames, Arrays.copyOf(offsets, 2 * segmentCount));
+        }
+    }
+    /**
+     * The instances of a class written to the spill file.
+     */
+    final class SpilledClass {
+
+        private final String className;
+        private final int size;
+        private final List<String> fieldNames;
+
+        /**
+         * Segment {@code i} is from {@code offsets[2 * i]} up to {@code offsets[2 * i + 1]}
+         */
+        private final long[] offsets;
+
+        private SpilledClass(String className, int size, List<String> fieldNames, long[] offsets) {
+            this.className = className;
+            this.size = size;
+            this.fieldNames = fieldNames;
+            this.offsets = offsets;
+        }
+
+        String className() {
+            return className;
+        }
+
+        /**
+         * @return The number of instances
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return The slots read back a column for
+         */
+        List<String> fieldNames() {
+            return fieldNames;
+        }
+
+        /**
+         * @return The number of bytes written to the spill file
+         */
+        long bytes() {
+            long bytes = 0;
+            for (int segment = 0; segment < segmentCount(); segment++) {
+                bytes += offsets[2 * segment + 1] - offsets[2 * segment];
+            }
+            return bytes;
+        }
+
+        int segmentCount() {
+            return offsets.length / 2;
+        }
+
+        /**
+         * Read back a segment of the instances.
+         *
+         * @param segment The segment
+         * @param symbols The export's IDs, which every spilled instance's ID is one of
+         * @return The columns of the segment's instances
+         * @throws IOException if the segment could not be read
+         */
+        InstanceColumns readSegment(int segment, ExportSymbols symbols) throws IOException {
+            List<EASInstance> rows = readRows(segment);
+            int[] rowSymbols = new int[rows.size()];
+            for (int row = 0; row < rowSymbols.length; row++) {
+                rowSymbols[row] = symbols.indexOf(rows.get(row).id());
+            }
+            return InstanceColumns.of(className, rowSymbols, rows, fieldNames, symbols);
+        }
+
+        /**
+         * Read back a segment of the instances as they were written.
+         *
+         * @param segment The segment
+         * @return The segment's instances
+         * @throws IOException if the segment could not be read
+         */
+        List<EASInstance> readRows(int segment) throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[2 * segment],
+                    offsets[2 * segment + 1] - offsets[2 * segment]);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteBufferInputStream(buffer), 64 * 1024))) {
+                return SnapshotCodec.read(in);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file. Holds no reference to the spill, so it can run once the
+     * spill is unreachable.
+     */
+    private record Cleanup(Path path, FileChannel channel) implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete export spill file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
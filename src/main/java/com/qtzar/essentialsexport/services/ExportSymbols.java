@@ -0,0 +1,202 @@
+package com.qtzar.essentialsexport.services;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The instance IDs of one export, each numbered with a dense int, its symbol, in the order they
+ * were first added. The symbol of an instance is also its index among the script's records, so
+ * its record variable and its transformed ID are derived from it when they are written rather
+ * than held as a string per instance in maps keyed by ID.
+ * <p>
+ * IDs are looked up through an open-addressing table of symbols, probed linearly and keyed by the
+ * string's own (cached) hash code. A transformed ID is held as its sequence number alone, in an
+ * int array alongside the IDs. Not thread-safe; an export is built and written by one thread at a
+ * time.
+ */
+final class ExportSymbols {
+
+    private final boolean indexedRecords;
+    private String[] ids;
+    private int size;
+
+    /**
+     * For each slot, the symbol plus one of the ID held there, or 0 if the slot is free
+     */
+    private int[] table;
+
+    /**
+     * For each symbol, the sequence number of its transformed ID, or 0 if its ID is kept as is
+     */
+    private int[] sequences;
+    private String prefix = "";
+
+    /**
+     * @param expectedSize The number of IDs expected, to size the arrays
+     * @param indexedRecords Name records {@code _R[i]}, for a compact script, rather than {@code Record_n}
+     */
+    ExportSymbols(int expectedSize, boolean indexedRecords) {
+        this.indexedRecords = indexedRecords;
+        this.ids = new String[Math.max(16, expectedSize)];
+        this.table = new int[tableCapacity(ids.length)];
+        this.sequences = new int[0];
+    }
+
+    /**
+     * Add an ID if it is not already present.
+     *
+     * @param id The instance ID
+     * @return The symbol of the ID
+     */
+    int add(String id) {
+        int slot = slot(id.hashCode(), table.length);
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & (table.length - 1)) {
+            if (ids[entry - 1].equals(id)) {
+                return entry - 1;
+            }
+        }
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = id;
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param id The instance ID
+     * @return The symbol of the ID, or -1 if it is not part of the export
+     */
+    int indexOf(String id) {
+        int slot = slot(id.hashCode(), table.length);
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & (table.length - 1)) {
+            if (ids[entry - 1].equals(id)) {
+                return entry - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of IDs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The original ID of a symbol
+     */
+    String id(int symbol) {
+        return ids[symbol];
+    }
+
+    /**
+     * @return The name of the record variable of a symbol
+     */
+    String recordVar(int symbol) {
+        return indexedRecords ? "_R[" + symbol + "]" : "Record_" + (symbol + 1);
+    }
+
+    /**
+     * @return The transformed ID of a symbol
+     */
+    String transformedId(int symbol) {
+        int sequence = symbol < sequences.length ? sequences[symbol] : 0;
+        return sequence == 0 ? ids[symbol] : prefix + sequence;
+    }
+
+    /**
+     * @return Whether the transformed ID of a symbol differs from its original ID
+     */
+    boolean isTransformed(int symbol) {
+        return symbol < sequences.length && sequences[symbol] != 0;
+    }
+
+    /**
+     * Assign the transformed IDs. IDs already starting with the prefix are preserved. Other IDs
+     * are transformed to {prefix}_{sequence}, in symbol order, skipping every sequence already
+     * taken by a preserved ID.
+     *
+     * @param idPrefix ID prefix (can be null or empty, in which case every ID is preserved)
+     */
+    void transformIds(String idPrefix) {
+        sequences = new int[size];
+        if (idPrefix == null || idPrefix.trim().isEmpty()) {
+            prefix = "";
+            return;
+        }
+
+        prefix = idPrefix.trim() + "_";
+        // A new ID never needs a sequence above the number of IDs, so larger ones can be ignored
+        BitSet usedSequences = new BitSet(size + 1);
+        BitSet preserved = new BitSet(size);
+
+        // First pass: identify IDs that already have the correct prefix and extract used sequences
+        for (int symbol = 0; symbol < size; symbol++) {
+            String id = ids[symbol];
+            if (id.startsWith(prefix)) {
+                int sequence = parseSequence(id, prefix.length(), size);
+                if (sequence >= 0) {
+                    usedSequences.set(sequence);
+                }
+                preserved.set(symbol);
+            }
+        }
+
+        // Second pass: transform IDs that don't have the prefix
+        int nextSequence = 1;
+        for (int symbol = preserved.nextClearBit(0); symbol < size; symbol = preserved.nextClearBit(symbol + 1)) {
+            nextSequence = usedSequences.nextClearBit(nextSequence);
+            sequences[symbol] = nextSequence++;
+        }
+    }
+
+    /**
+     * @return The number made of the ASCII digits from {@code start} to the end of the ID, or -1
+     *         if there are none, anything else follows them, or the number is above {@code max}
+     */
+    private static int parseSequence(String id, int start, int max) {
+        if (start == id.length()) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value > max) {
+                // Keep checking the rest are digits, but the value itself can no longer matter
+                value = max + 1L;
+            }
+        }
+        return value > max ? -1 : (int) value;
+    }
+
+    private void rehash() {
+        int[] rehashed = new int[table.length * 2];
+        for (int symbol = 0; symbol < size; symbol++) {
+            int slot = slot(ids[symbol].hashCode(), rehashed.length);
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & (rehashed.length - 1);
+            }
+            rehashed[slot] = symbol + 1;
+        }
+        table = rehashed;
+    }
+
+    private static int tableCapacity(int expectedSize) {
+        return Integer.highestOneBit(expectedSize * 2 - 1) << 1;
+    }
+
+    private static int slot(int hash, int capacity) {
+        int mixed = hash * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & (capacity - 1);
+    }
+}
@@ -0,0 +1,202 @@
+package com.qtzar.essentialsexport.services;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Rewrites every occurrence of a mapped instance ID inside a string value, in one pass over the
+ * value. Built once per export from the ID mapping; IDs that map to themselves are left out, so
+ * an export without an ID prefix never scans at all.
+ * <p>
+ * The IDs are held in an open-addressing table keyed by a polynomial hash of their characters.
+ * For each position of a value whose character starts some ID, the hash of the substring of each
+ * distinct ID length is computed from the value's prefix hashes and looked up, longest length
+ * first, so the work per character is bounded by the number of distinct ID lengths rather than
+ * by the number of IDs. The leftmost, longest match is replaced and scanning resumes after it.
+ * <p>
+ * This gives the same result as calling {@link String#replace} once per mapped ID whenever the
+ * occurrences of mapped IDs in a value do not overlap. Where they do (one ID being a prefix of
+ * another, such as {@code Class1} and {@code Class10}), the per-ID loop produced a result that
+ * depended on hash map iteration order; here the longest ID always wins.
+ */
+final class IdReplacer {
+
+    private static final long BASE = 1_000_003L;
+
+    private static final IdReplacer NONE = new IdReplacer(new String[0], new String[0]);
+
+    private final String[] ids;
+    private final String[] replacements;
+    private final int[] lengths;
+    private final int minLength;
+    private final long[] powers;
+    private final BitSet firstChars = new BitSet();
+    private final long[] tableHashes;
+    private final int[] tableIndexes;
+    private final int tableMask;
+
+    private IdReplacer(String[] ids, String[] replacements) {
+        this.ids = ids;
+        this.replacements = replacements;
+
+        TreeSet<Integer> distinctLengths = new TreeSet<>();
+        for (String id : ids) {
+            distinctLengths.add(id.length());
+            firstChars.set(id.charAt(0));
+        }
+        this.lengths = distinctLengths.descendingSet().stream().mapToInt(Integer::intValue).toArray();
+        this.minLength = distinctLengths.isEmpty() ? 0 : distinctLengths.first();
+
+        int maxLength = distinctLengths.isEmpty() ? 0 : distinctLengths.last();
+        this.powers = new long[maxLength + 1];
+        powers[0] = 1;
+        for (int i = 1; i <= maxLength; i++) {
+            powers[i] = powers[i - 1] * BASE;
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(1, ids.length) * 2 - 1) << 1;
+        this.tableHashes = new long[capacity];
+        this.tableIndexes = new int[capacity];
+        this.tableMask = capacity - 1;
+        Arrays.fill(tableIndexes, -1);
+        for (int i = 0; i < ids.length; i++) {
+            long hash = hash(ids[i]);
+            int slot = slot(hash);
+            while (tableIndexes[slot] >= 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            tableHashes[slot] = hash;
+            tableIndexes[slot] = i;
+        }
+    }
+
+    /**
+     * Build a replacer for the IDs that an ID mapping actually changes.
+     *
+     * @param idMapping Map from original ID to transformed ID
+     * @return The replacer
+     */
+    static IdReplacer of(Map<String, String> idMapping) {
+        int count = 0;
+        String[] ids = new String[idMapping.size()];
+        String[] replacements = new String[idMapping.size()];
+        for (Map.Entry<String, String> entry : idMapping.entrySet()) {
+            // An empty ID would match between every character, which String.replace did as well
+            // but never usefully; it is left out
+            if (!entry.getKey().isEmpty() && !entry.getKey().equals(entry.getValue())) {
+                ids[count] = entry.getKey();
+                replacements[count] = entry.getValue();
+                count++;
+            }
+        }
+        return count == 0 ? NONE : new IdReplacer(Arrays.copyOf(ids, count), Arrays.copyOf(replacements, count));
+    }
+
+    /**
+     * Build a replacer for the IDs of an export that are transformed.
+     *
+     * @param symbols The export's IDs, with their transformed IDs assigned
+     * @return The replacer
+     */
+    static IdReplacer of(ExportSymbols symbols) {
+        int count = 0;
+        String[] ids = new String[symbols.size()];
+        String[] replacements = new String[symbols.size()];
+        for (int symbol = 0; symbol < symbols.size(); symbol++) {
+            if (symbols.isTransformed(symbol) && !symbols.id(symbol).isEmpty()) {
+                ids[count] = symbols.id(symbol);
+                replacements[count] = symbols.transformedId(symbol);
+                count++;
+            }
+        }
+        return count == 0 ? NONE : new IdReplacer(Arrays.copyOf(ids, count), Arrays.copyOf(replacements, count));
+    }
+
+    /**
+     * Replace every mapped ID in a value.
+     *
+     * @param value The string value
+     * @return The value with mapped IDs replaced, or the value itself if it holds none
+     */
+    String replaceIn(String value) {
+        int length = value.length();
+        if (ids.length == 0 || length < minLength) {
+            return value;
+        }
+
+        long[] prefixHashes = null;
+        StringBuilder result = null;
+        int copied = 0;
+        int position = 0;
+        while (position + minLength <= length) {
+            if (!firstChars.get(value.charAt(position))) {
+                position++;
+                continue;
+            }
+            if (prefixHashes == null) {
+                prefixHashes = prefixHashes(value);
+            }
+
+            int match = match(value, position, prefixHashes);
+            if (match < 0) {
+                position++;
+                continue;
+            }
+
+            if (result == null) {
+                result = new StringBuilder(length + 16);
+            }
+            result.append(value, copied, position).append(replacements[match]);
+            position += ids[match].length();
+            copied = position;
+        }
+
+        if (result == null) {
+            return value;
+        }
+        return result.append(value, copied, length).toString();
+    }
+
+    /**
+     * @return The index of the longest ID starting at the position, or -1 if none does
+     */
+    private int match(String value, int position, long[] prefixHashes) {
+        for (int length : lengths) {
+            if (position + length > value.length()) {
+                continue;
+            }
+            long hash = prefixHashes[position + length] - prefixHashes[position] * powers[length];
+            for (int slot = slot(hash); tableIndexes[slot] >= 0; slot = (slot + 1) & tableMask) {
+                int index = tableIndexes[slot];
+                if (tableHashes[slot] == hash && ids[index].length() == length
+                        && value.regionMatches(position, ids[index], 0, length)) {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long[] prefixHashes(String value) {
+        long[] hashes = new long[value.length() + 1];
+        for (int i = 0; i < value.length(); i++) {
+            hashes[i + 1] = hashes[i] * BASE + value.charAt(i);
+        }
+        return hashes;
+    }
+
+    private static long hash(String id) {
+        long hash = 0;
+        for (int i = 0; i < id.length(); i++) {
+            hash = hash * BASE + id.charAt(i);
+        }
+        return hash;
+    }
+
+    private int slot(long hash) {
+        long mixed = hash * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & tableMask;
+    }
+}
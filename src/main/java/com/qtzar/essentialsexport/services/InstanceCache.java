@@ -0,0 +1,299 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASCacheProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory cache of instance lists fetched from EAS, keyed by repository, class, slot set
+ * and depth. Entries expire after the configured TTL, and the least recently used entries are
+ * evicted once the entry count or total weight is exceeded. A request for a subset of the slots
+ * of a cached entry is served from that entry by projecting each instance down to the requested
+ * slots. Cached lists are immutable and shared between exports.
+ */
+@Component
+public class InstanceCache {
+
+    private final EASCacheProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+
+    @Autowired
+    public InstanceCache(EASCacheProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, Clock.systemUTC());
+    }
+
+    InstanceCache(EASCacheProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+
+        Gauge.builder("eas.cache.entries", this, cache -> cache.withLock(cache.entries::size))
+                .description("Instance lists held in the cache")
+                .register(meterRegistry);
+        Gauge.builder("eas.cache.weight", this, cache -> cache.withLock(() -> cache.totalWeight))
+                .description("Slot values held in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Get the instances of a class from the cache, without loading them on a miss.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances are fetched with
+     * @param slots Caret-separated list of slots, or null for all slots
+     * @return The instances, as an immutable list, or empty on a miss
+     */
+    public Optional<List<EASInstance>> getIfPresent(String repoId, String className, int maxDepth, String slots) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(lookup(CacheKey.of(repoId, className, maxDepth, slots)));
+    }
+
+    /**
+     * Load the instances of a class, bypassing any cached entry, and cache the result.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances are fetched with
+     * @param slots Caret-separated list of slots, or null for all slots
+     * @param loader Fetches the instances from EAS
+     * @return The instances, as an immutable list
+     */
+    public List<EASInstance> refresh(String repoId, String className, int maxDepth, String slots,
+                                     Supplier<List<EASInstance>> loader) {
+        List<EASInstance> loaded = List.copyOf(loader.get());
+        if (properties.isEnabled()) {
+            put(CacheKey.of(repoId, className, maxDepth, slots), loaded);
+        }
+        return loaded;
+    }
+
+    private List<EASInstance> lookup(CacheKey key) {
+        CacheEntry superset = null;
+
+        lock.lock();
+        try {
+            Instant now = clock.instant();
+            removeExpired(now);
+
+            CacheEntry exact = entries.get(key);
+            if (exact != null) {
+                meterRegistry.counter("eas.cache.requests", "result", "hit").increment();
+                return exact.instances();
+            }
+
+            for (CacheEntry entry : entries.values()) {
+                if (entry.key().covers(key) && (superset == null || entry.weight() < superset.weight())) {
+                    superset = entry;
+                }
+            }
+            if (superset == null) {
+                meterRegistry.counter("eas.cache.requests", "result", "miss").increment();
+                return null;
+            }
+            // Touch the entry so it counts as recently used
+            entries.get(superset.key());
+        } finally {
+            lock.unlock();
+        }
+
+        meterRegistry.counter("eas.cache.requests", "result", "projected").increment();
+        return project(superset.instances(), key.slots());
+    }
+
+    private void put(CacheKey key, List<EASInstance> instances) {
+        long weight = weigh(instances);
+        if (weight > properties.getMaxWeight()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            Instant now = clock.instant();
+
+            // Entries this one covers would only ever be served from it from now on
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                if (key.covers(entry.key())) {
+                    totalWeight -= entry.weight();
+                    iterator.remove();
+                }
+            }
+
+            entries.put(key, new CacheEntry(key, instances, weight, now, now.plus(properties.getTtl())));
+            totalWeight += weight;
+
+            iterator = entries.values().iterator();
+            while ((entries.size() > properties.getMaxEntries() || totalWeight > properties.getMaxWeight()) && iterator.hasNext()) {
+                CacheEntry eldest = iterator.next();
+                totalWeight -= eldest.weight();
+                iterator.remove();
+                meterRegistry.counter("eas.cache.evictions").increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return A snapshot of the live entries, least recently used first
+     */
+    public List<CacheEntry> getEntries() {
+        return withLock(() -> {
+            removeExpired(clock.instant());
+            return List.copyOf(entries.values());
+        });
+    }
+
+    /**
+     * Remove the cached instances of a repository, or of one class in it.
+     *
+     * @param repoId The repository ID
+     * @param className The class name, or null for every class of the repository
+     * @return The number of entries removed
+     */
+    public int invalidate(String repoId, String className) {
+        return withLock(() -> removeIf(entry -> entry.key().repoId().equals(repoId)
+                && (className == null || entry.key().className().equals(className))));
+    }
+
+    /**
+     * Remove every cached entry.
+     *
+     * @return The number of entries removed
+     */
+    public int invalidateAll() {
+        return withLock(() -> removeIf(_ -> true));
+    }
+
+    private void removeExpired(Instant now) {
+        removeIf(entry -> !entry.expiresAt().isAfter(now));
+    }
+
+    private int removeIf(Predicate<CacheEntry> predicate) {
+        int removed = 0;
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (predicate.test(entry)) {
+                totalWeight -= entry.weight();
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private <T> T withLock(Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reduce each instance to the requested slots. Instances with the same slot layout share the
+     * layout array, so the projected layout is worked out once per distinct layout.
+     */
+    static List<EASInstance> project(List<EASInstance> instances, Set<String> slots) {
+        Map<String[], String[]> projectedLayouts = new IdentityHashMap<>();
+        Map<String[], int[]> projectedIndexes = new IdentityHashMap<>();
+        List<EASInstance> projected = new ArrayList<>(instances.size());
+
+        for (EASInstance instance : instances) {
+            String[] layout = instance.slotNames();
+            int[] indexes = projectedIndexes.get(layout);
+            if (indexes == null) {
+                indexes = indexesOf(layout, slots);
+                String[] names = new String[indexes.length];
+                for (int i = 0; i < indexes.length; i++) {
+                    names[i] = layout[indexes[i]];
+                }
+                projectedIndexes.put(layout, indexes);
+                projectedLayouts.put(layout, names);
+            }
+
+            Object[] values = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = instance.slotValues()[indexes[i]];
+            }
+            projected.add(new EASInstance(instance.id(), instance.name(), instance.className(), projectedLayouts.get(layout), values));
+        }
+        return Collections.unmodifiableList(projected);
+    }
+
+    private static int[] indexesOf(String[] layout, Set<String> slots) {
+        int[] indexes = new int[layout.length];
+        int count = 0;
+        for (int i = 0; i < layout.length; i++) {
+            if (slots.contains(layout[i])) {
+                indexes[count++] = i;
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
+    private static long weigh(List<EASInstance> instances) {
+        long weight = 0;
+        for (EASInstance instance : instances) {
+            weight += 3 + instance.slotValues().length;
+        }
+        return weight;
+    }
+
+    /**
+     * Identifies one cached instance list.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances were fetched with
+     * @param slots The requested slots, or null for all slots
+     */
+    public record CacheKey(String repoId, String className, int maxDepth, Set<String> slots) {
+
+        static CacheKey of(String repoId, String className, int maxDepth, String slots) {
+            return new CacheKey(repoId, className, maxDepth,
+                    slots == null ? null : Collections.unmodifiableSortedSet(new TreeSet<>(Arrays.asList(slots.split("\\^")))));
+        }
+
+        /**
+         * Whether the instances cached under this key contain everything requested by another key.
+         */
+        boolean covers(CacheKey other) {
+            return repoId.equals(other.repoId) && className.equals(other.className) && maxDepth == other.maxDepth
+                    && (slots == null || (other.slots != null && slots.containsAll(other.slots)));
+        }
+    }
+
+    /**
+     * A cached instance list.
+     *
+     * @param key What was fetched
+     * @param instances The fetched instances
+     * @param weight Number of slot values held, including id, name and class
+     * @param loadedAt When the instances were fetched
+     * @param expiresAt When the entry stops being served
+     */
+    public record CacheEntry(CacheKey key, List<EASInstance> instances, long weight, Instant loadedAt, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,339 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The instances of one class of an export, held a column per selected slot rather than an object
+ * per instance, for the script to be written from.
+ * <p>
+ * Each cell is classified once, when the columns are built, by how it will be written. A slot
+ * value that refers to instances of the export is held as their symbols, a single one in the
+ * cell itself and several as a run of a shared int array found through offsets. A string is held
+ * as a code into the column's dictionary, so a value repeated across instances is held once. Only
+ * values of any other shape (numbers, booleans, maps and mixed lists) are kept as they were
+ * fetched. Once built, the columns no longer refer to the fetched instances, so those can be
+ * collected unless the instance cache still holds them.
+ */
+final class InstanceColumns {
+
+    private final String className;
+    private final int[] symbols;
+    private final Column names;
+    private final List<String> fieldNames;
+    private final Column[] columns;
+
+    private InstanceColumns(String className, int[] symbols, Column names, List<String> fieldNames, Column[] columns) {
+        this.className = className;
+        this.symbols = symbols;
+        this.names = names;
+        this.fieldNames = fieldNames;
+        this.columns = columns;
+    }
+
+    /**
+     * Build the columns of a class.
+     *
+     * @param className The class
+     * @param symbols The symbols of the class's instances, in the order they are written
+     * @param rows The class's instances, in the same order
+     * @param fieldNames The slots to hold a column for
+     * @param exportSymbols The export's IDs, to resolve references with
+     * @return The columns
+     */
+    static InstanceColumns of(String className, int[] symbols, List<EASInstance> rows, List<String> fieldNames,
+                              ExportSymbols exportSymbols) {
+        Column names = new Column(symbols.length);
+        Column[] columns = new Column[fieldNames.size()];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = new Column(symbols.length);
+        }
+
+        for (int row = 0; row < symbols.length; row++) {
+            EASInstance instance = rows.get(row);
+            names.setString(row, instance.name());
+            for (int column = 0; column < columns.length; column++) {
+                columns[column].set(row, instance.get(fieldNames.get(column)), exportSymbols);
+            }
+        }
+
+        names.trim();
+        for (Column column : columns) {
+            column.trim();
+        }
+        return new InstanceColumns(className, symbols, names, List.copyOf(fieldNames), columns);
+    }
+
+    /**
+     * Estimate the heap the columns built from some instances would take. Every string is counted
+     * as if it were held once per cell, so the estimate errs high for columns of repeated values.
+     *
+     * @param rows The instances
+     * @param fieldNames The slots to hold a column for
+     * @return The estimated number of bytes
+     */
+    static long estimateBytes(List<EASInstance> rows, List<String> fieldNames) {
+        // The symbol, and the kind and cell of the name and of every column
+        long bytes = 16 + (long) rows.size() * (4 + 5 * (fieldNames.size() + 1L));
+        for (EASInstance instance : rows) {
+            bytes += estimateBytes(instance.name());
+            for (String fieldName : fieldNames) {
+                bytes += estimateBytes(instance.get(fieldName));
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(Object value) {
+        return switch (value) {
+            case null -> 0;
+            case String strValue -> 40 + strValue.length();
+            case List<?> list -> {
+                long bytes = 40 + 4L * list.size();
+                for (Object element : list) {
+                    bytes += estimateBytes(element);
+                }
+                yield bytes;
+            }
+            case Map<?, ?> map -> {
+                long bytes = 48 + 32L * map.size();
+                for (Object element : map.values()) {
+                    bytes += estimateBytes(element);
+                }
+                yield bytes;
+            }
+            default -> 16;
+        };
+    }
+
+    String className() {
+        return className;
+    }
+
+    /**
+     * @return The number of instances
+     */
+    int size() {
+        return symbols.length;
+    }
+
+    /**
+     * @return The symbol of the instance in a row
+     */
+    int symbol(int row) {
+        return symbols[row];
+    }
+
+    /**
+     * @return The name of the instance in a row, or null if it has none
+     */
+    String name(int row) {
+        return names.string(row);
+    }
+
+    /**
+     * @return The slots with a column, in column order
+     */
+    List<String> fieldNames() {
+        return fieldNames;
+    }
+
+    Column column(int column) {
+        return columns[column];
+    }
+
+    /**
+     * One slot of every instance of a class.
+     */
+    static final class Column {
+
+        static final byte NULL = 0;
+        static final byte STRING = 1;
+        static final byte REFERENCE = 2;
+        static final byte REFERENCES = 3;
+        static final byte OTHER = 4;
+
+        private final byte[] kinds;
+
+        /**
+         * For each row, the dictionary code, symbol, list or other value of its cell, by kind
+         */
+        private final int[] cells;
+
+        private String[] dictionary = new String[16];
+        private int dictionarySize;
+        private Map<String, Integer> codes = new HashMap<>();
+
+        /**
+         * The symbols of list {@code i} are from {@code listOffsets[i]} up to {@code listOffsets[i + 1]}
+         */
+        private int[] listOffsets = new int[17];
+        private int listCount;
+        private int[] listSymbols = new int[16];
+
+        private Object[] others = new Object[0];
+        private int otherCount;
+
+        private Column(int rows) {
+            this.kinds = new byte[rows];
+            this.cells = new int[rows];
+        }
+
+        byte kind(int row) {
+            return kinds[row];
+        }
+
+        boolean isNull(int row) {
+            return kinds[row] == NULL;
+        }
+
+        /**
+         * @return The string in a {@link #STRING} cell, or null for a {@link #NULL} one
+         */
+        String string(int row) {
+            return kinds[row] == STRING ? dictionary[cells[row]] : null;
+        }
+
+        /**
+         * @return The symbol referred to by a {@link #REFERENCE} cell
+         */
+        int reference(int row) {
+            return cells[row];
+        }
+
+        /**
+         * @return The number of symbols referred to by a {@link #REFERENCES} cell
+         */
+        int referenceCount(int row) {
+            return listOffsets[cells[row] + 1] - listOffsets[cells[row]];
+        }
+
+        /**
+         * @return A symbol referred to by a {@link #REFERENCES} cell
+         */
+        int reference(int row, int index) {
+            return listSymbols[listOffsets[cells[row]] + index];
+        }
+
+        /**
+         * @return The value of an {@link #OTHER} cell, as it was fetched
+         */
+        Object other(int row) {
+            return others[cells[row]];
+        }
+
+        private void setString(int row, String value) {
+            if (value == null) {
+                kinds[row] = NULL;
+                return;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                if (dictionarySize == dictionary.length) {
+                    dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+                }
+                code = dictionarySize;
+                dictionary[dictionarySize++] = value;
+                codes.put(value, code);
+            }
+            kinds[row] = STRING;
+            cells[row] = code;
+        }
+
+        /**
+         * Classify a slot value the way {@code DUPExportService} writes it: a string or reference
+         * object naming an instance of the export, and a list of nothing else, is written as the
+         * instances' record variables, and a single reference in a list without the brackets.
+         */
+        private void set(int row, Object value, ExportSymbols symbols) {
+            switch (value) {
+                case null -> kinds[row] = NULL;
+                case String strValue -> {
+                    int symbol = symbols.indexOf(strValue);
+                    if (symbol >= 0) {
+                        setReference(row, symbol);
+                    } else {
+                        setString(row, strValue);
+                    }
+                }
+                case Map<?, ?> map -> {
+                    int symbol = referenceOf(map, symbols);
+                    if (symbol >= 0) {
+                        setReference(row, symbol);
+                    } else {
+                        setOther(row, value);
+                    }
+                }
+                case List<?> list -> {
+                    int[] references = new int[list.size()];
+                    for (int i = 0; i < references.length; i++) {
+                        references[i] = referenceOf(list.get(i), symbols);
+                        if (references[i] < 0) {
+                            setOther(row, value);
+                            return;
+                        }
+                    }
+                    if (references.length == 1) {
+                        setReference(row, references[0]);
+                    } else {
+                        setReferences(row, references);
+                    }
+                }
+                default -> setOther(row, value);
+            }
+        }
+
+        private static int referenceOf(Object element, ExportSymbols symbols) {
+            if (element instanceof String id) {
+                return symbols.indexOf(id);
+            }
+            if (element instanceof Map<?, ?> map && map.get("id") instanceof String id) {
+                return symbols.indexOf(id);
+            }
+            return -1;
+        }
+
+        private void setReference(int row, int symbol) {
+            kinds[row] = REFERENCE;
+            cells[row] = symbol;
+        }
+
+        private void setReferences(int row, int[] references) {
+            if (listCount + 2 > listOffsets.length) {
+                listOffsets = Arrays.copyOf(listOffsets, listOffsets.length * 2);
+            }
+            int start = listOffsets[listCount];
+            if (start + references.length > listSymbols.length) {
+                listSymbols = Arrays.copyOf(listSymbols, Math.max(listSymbols.length * 2, start + references.length));
+            }
+            System.arraycopy(references, 0, listSymbols, start, references.length);
+            listOffsets[listCount + 1] = start + references.length;
+            kinds[row] = REFERENCES;
+            cells[row] = listCount++;
+        }
+
+        private void setOther(int row, Object value) {
+            if (otherCount == others.length) {
+                others = Arrays.copyOf(others, Math.max(16, otherCount * 2));
+            }
+            kinds[row] = OTHER;
+            cells[row] = otherCount;
+            others[otherCount++] = value;
+        }
+
+        /**
+         * Drop the spare capacity and the dictionary's index once every row has been set.
+         */
+        private void trim() {
+            dictionary = Arrays.copyOf(dictionary, dictionarySize);
+            codes = null;
+            listOffsets = Arrays.copyOf(listOffsets, listCount + 1);
+            listSymbols = Arrays.copyOf(listSymbols, listOffsets[listCount]);
+            others = Arrays.copyOf(others, otherCount);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.qtzar.essentialsexport.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Buffered writer for the import script that encodes characters as UTF-8 straight into its own
+ * byte buffer, and writes Jython string literals the same way. It takes the place of a
+ * {@link java.io.BufferedWriter} over an {@link java.io.OutputStreamWriter}, and of escaping each
+ * value with a chain of {@link String#replace} calls into a new string before writing it.
+ * <p>
+ * Strings are copied a block at a time into a reusable char array with {@link String#getChars},
+ * which the JIT turns into a bulk copy, and the array is then scanned once. Characters that need
+ * no escaping, nearly all of them, take a table lookup and a store each.
+ * <p>
+ * In unicode literals every character outside printable ASCII is written as a Python escape
+ * (<code>&#92;xNN</code>, <code>&#92;uNNNN</code>, or <code>&#92;UNNNNNNNN</code> for a surrogate
+ * pair), so the text of the literal is plain ASCII whatever encoding the importer reads the script
+ * with. Byte string literals, used for dictionary keys, only escape control characters and leave
+ * the rest as is, as a unicode escape would not be decoded in them.
+ * <p>
+ * Outside literals, a surrogate pair may be split across two writes; an unpaired surrogate is
+ * written as {@code ?}, as the standard UTF-8 encoder does. Not thread-safe; the script is written
+ * by a single thread.
+ */
+final class JythonScriptWriter extends Writer {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * For each ASCII character, the character after the backslash of its escape in a literal,
+     * {@code x} for a hex escape, or 0 if it is written as is
+     */
+    private static final byte[] ESCAPES = new byte[0x80];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'x';
+        }
+        ESCAPES[0x7f] = 'x';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\''] = '\'';
+        ESCAPES['"'] = '"';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+    }
+
+    /**
+     * Room to leave in the buffer before each character of a literal, enough for the longest escape
+     */
+    private static final int MAX_ESCAPE = 10;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final char[] chars = new char[4096];
+    private int count;
+    private long flushed;
+
+    /**
+     * High surrogate from the end of the last write, or 0 if there is none
+     */
+    private char highSurrogate;
+
+    /**
+     * @param out The stream to write the encoded bytes to
+     * @param bufferSize The size of the byte buffer
+     */
+    JythonScriptWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(2 * MAX_ESCAPE, bufferSize)];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        encode(chars, offset, offset + length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, chars.length);
+            string.getChars(offset, offset + n, chars, 0);
+            encode(chars, 0, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write a value as a unicode string literal, {@code u'...'}.
+     *
+     * @param value The value, or null for an empty string
+     * @return The number of characters written
+     * @throws IOException if the literal could not be written
+     */
+    int writeUnicodeLiteral(String value) throws IOException {
+        write('u');
+        return writeLiteral(value, true) + 1;
+    }
+
+    /**
+     * Write a value as a byte string literal, {@code '...'}.
+     *
+     * @param value The value, or null for an empty string
+     * @return The number of characters written
+     * @throws IOException if the literal could not be written
+     */
+    int writeStringLiteral(String value) throws IOException {
+        return writeLiteral(value, false);
+    }
+
+    private int writeLiteral(String value, boolean unicode) throws IOException {
+        write('\'');
+        long started = flushed + count;
+        int extraBytes = 0;
+
+        if (value != null) {
+            int length = value.length();
+            for (int start = 0; start < length; ) {
+                int n = Math.min(length - start, chars.length);
+                // Keep a surrogate pair within one block
+                if (n > 1 && start + n < length && Character.isHighSurrogate(value.charAt(start + n - 1))) {
+                    n--;
+                }
+                value.getChars(start, start + n, chars, 0);
+                extraBytes += escape(chars, n, unicode);
+                start += n;
+            }
+        }
+
+        int written = (int) (flushed + count - started) - extraBytes;
+        write('\'');
+        return written + 2;
+    }
+
+    /**
+     * Escape the characters of a literal into the buffer.
+     *
+     * @return The number of bytes written beyond one per character, for characters outside ASCII
+     */
+    private int escape(char[] chars, int length, boolean unicode) throws IOException {
+        byte[] buf = buffer;
+        int limit = buf.length - MAX_ESCAPE;
+        int pos = count;
+        int extraBytes = 0;
+
+        for (int i = 0; i < length; ) {
+            if (pos >= limit) {
+                count = pos;
+                flushBuffer();
+                pos = 0;
+            }
+
+            // Copy the run of characters that need no escaping and fit in the buffer
+            int runEnd = Math.min(length, i + limit - pos);
+            char c;
+            while (i < runEnd && (c = chars[i]) < 0x80 && ESCAPES[c] == 0) {
+                buf[pos++] = (byte) c;
+                i++;
+            }
+            if (i == runEnd) {
+                continue;
+            }
+
+            c = chars[i++];
+            if (c < 0x80) {
+                byte escape = ESCAPES[c];
+                buf[pos++] = '\\';
+                buf[pos++] = escape;
+                if (escape == 'x') {
+                    pos = hex(buf, pos, c, 2);
+                }
+            } else if (!unicode) {
+                // Written as UTF-8, counting the bytes beyond one per character
+                int start = pos;
+                if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(chars[i])) {
+                    pos = utf8(buf, pos, Character.toCodePoint(c, chars[i++]));
+                    extraBytes--;
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = '?';
+                } else {
+                    pos = utf8(buf, pos, c);
+                }
+                extraBytes += pos - start - 1;
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(chars[i])) {
+                buf[pos++] = '\\';
+                buf[pos++] = 'U';
+                pos = hex(buf, pos, Character.toCodePoint(c, chars[i++]), 8);
+            } else {
+                buf[pos++] = '\\';
+                buf[pos++] = 'u';
+                pos = hex(buf, pos, c, 4);
+            }
+        }
+
+        count = pos;
+        return extraBytes;
+    }
+
+    private static int hex(byte[] buf, int pos, int value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buf[pos++] = HEX[(value >>> shift) & 0xf];
+        }
+        return pos;
+    }
+
+    private void encode(char[] chars, int offset, int end) throws IOException {
+        int i = offset;
+        while (i < end) {
+            if (highSurrogate != 0 || chars[i] >= 0x80) {
+                writeChar(chars[i++]);
+                continue;
+            }
+
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            // Copy the run of ASCII characters that fits in the buffer
+            byte[] buf = buffer;
+            int pos = count;
+            int limit = Math.min(end, i + buf.length - pos);
+            for (; i < limit; i++) {
+                char c = chars[i];
+                if (c >= 0x80) {
+                    break;
+                }
+                buf[pos++] = (byte) c;
+            }
+            count = pos;
+        }
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (buffer.length - count < 4) {
+            flushBuffer();
+        }
+
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                count = utf8(buffer, count, Character.toCodePoint(high, c));
+                return;
+            }
+            buffer[count++] = '?';
+            writeChar(c);
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[count++] = '?';
+        } else {
+            count = utf8(buffer, count, c);
+        }
+    }
+
+    private static int utf8(byte[] buf, int pos, int codePoint) {
+        if (codePoint < 0x80) {
+            buf[pos++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            buf[pos++] = (byte) (0xc0 | (codePoint >> 6));
+            buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            buf[pos++] = (byte) (0xe0 | (codePoint >> 12));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+        return pos;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            flushed += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Write out the buffered bytes and flush the stream. A high surrogate at the very end of what
+     * has been written so far is held back until the next write or {@link #close()}.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            write('?');
+        }
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,93 @@
+package com.qtzar.essentialsexport.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Orders the instances of an export so that every instance comes after the instances it
+ * references. Instances that reference each other, directly or through others, cannot be ordered
+ * that way; they form a strongly connected component and are kept together.
+ * <p>
+ * The components are found with Tarjan's algorithm, which completes a component only once every
+ * component it references has completed, so they come out with references first. The depth first
+ * search keeps its own stack rather than recursing, as a long chain of references in a large
+ * export would otherwise overflow the thread's stack.
+ */
+final class ReferenceGraph {
+
+    private ReferenceGraph() {
+    }
+
+    /**
+     * Find the strongly connected components of a graph.
+     *
+     * @param edges For each node, the nodes it references; duplicates and self references are allowed
+     * @return The components, each as the nodes in it in ascending order, with every component
+     *         after the components it references
+     */
+    static List<int[]> components(int[][] edges) {
+        int nodeCount = edges.length;
+        int[] index = new int[nodeCount];
+        int[] lowLink = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        Arrays.fill(index, -1);
+
+        int[] componentStack = new int[nodeCount];
+        int componentStackSize = 0;
+        // The depth first search path, with the next edge to follow from each node on it
+        int[] searchStack = new int[nodeCount];
+        int[] nextEdge = new int[nodeCount];
+        int nextIndex = 0;
+
+        List<int[]> components = new ArrayList<>();
+        for (int root = 0; root < nodeCount; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+
+            int depth = 0;
+            searchStack[0] = root;
+            nextEdge[0] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            componentStack[componentStackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int node = searchStack[depth];
+                if (nextEdge[depth] < edges[node].length) {
+                    int target = edges[node][nextEdge[depth]++];
+                    if (index[target] < 0) {
+                        depth++;
+                        searchStack[depth] = target;
+                        nextEdge[depth] = 0;
+                        index[target] = lowLink[target] = nextIndex++;
+                        componentStack[componentStackSize++] = target;
+                        onStack[target] = true;
+                    } else if (onStack[target]) {
+                        lowLink[node] = Math.min(lowLink[node], index[target]);
+                    }
+                    continue;
+                }
+
+                // Every edge of the node has been followed
+                if (lowLink[node] == index[node]) {
+                    int start = componentStackSize;
+                    do {
+                        onStack[componentStack[--start]] = false;
+                    } while (componentStack[start] != node);
+                    int[] component = Arrays.copyOfRange(componentStack, start, componentStackSize);
+                    Arrays.sort(component);
+                    components.add(component);
+                    componentStackSize = start;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = searchStack[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+            }
+        }
+        return components;
+    }
+}
@@ -0,0 +1,214 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary encoding of a list of instances inside a snapshot record.
+ * Slot layouts are written once, the first time an instance uses them, and referred to by index
+ * afterwards; slot values are tagged so that decoding produces the same Java types the EAS
+ * response parser does, which keeps rendering from a snapshot identical to rendering from EAS.
+ */
+final class SnapshotCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BIG_INTEGER = 6;
+    private static final byte BIG_DECIMAL = 7;
+    private static final byte TRUE = 8;
+    private static final byte FALSE = 9;
+    private static final byte LIST = 10;
+    private static final byte MAP = 11;
+
+    private static final String[] NO_SLOTS = new String[0];
+
+    private SnapshotCodec() {
+    }
+
+    static void write(DataOutputStream out, List<EASInstance> instances) throws IOException {
+        Map<String[], Integer> layouts = new IdentityHashMap<>();
+        out.writeInt(instances.size());
+
+        for (EASInstance instance : instances) {
+            writeString(out, instance.id());
+            writeString(out, instance.name());
+            writeString(out, instance.className());
+
+            String[] layout = instance.slotNames();
+            Integer layoutIndex = layouts.get(layout);
+            if (layoutIndex == null) {
+                // A new layout is written inline, after the index it will be known by
+                out.writeInt(layouts.size());
+                layouts.put(layout, layouts.size());
+                out.writeInt(layout.length);
+                for (String slotName : layout) {
+                    writeString(out, slotName);
+                }
+            } else {
+                out.writeInt(layoutIndex);
+            }
+
+            for (Object value : instance.slotValues()) {
+                writeValue(out, value);
+            }
+        }
+    }
+
+    static List<EASInstance> read(DataInputStream in) throws IOException {
+        Map<String, String> names = new HashMap<>();
+        List<String[]> layouts = new ArrayList<>();
+        int count = in.readInt();
+        List<EASInstance> instances = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String id = readString(in);
+            String name = readString(in);
+            String className = intern(names, readString(in));
+
+            int layoutIndex = in.readInt();
+            if (layoutIndex == layouts.size()) {
+                String[] layout = new String[in.readInt()];
+                for (int j = 0; j < layout.length; j++) {
+                    layout[j] = intern(names, readString(in));
+                }
+                layouts.add(layout.length == 0 ? NO_SLOTS : layout);
+            } else if (layoutIndex > layouts.size()) {
+                throw new IOException("Snapshot refers to unknown slot layout " + layoutIndex);
+            }
+            String[] layout = layouts.get(layoutIndex);
+
+            Object[] values = new Object[layout.length];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = readValue(in, names);
+            }
+            instances.add(new EASInstance(id, name, className, layout, values));
+        }
+        return instances;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        switch (value) {
+            case null -> out.writeByte(NULL);
+            case String s -> {
+                out.writeByte(STRING);
+                writeString(out, s);
+            }
+            case Integer n -> {
+                out.writeByte(INT);
+                out.writeInt(n);
+            }
+            case Long n -> {
+                out.writeByte(LONG);
+                out.writeLong(n);
+            }
+            case Double n -> {
+                out.writeByte(DOUBLE);
+                out.writeDouble(n);
+            }
+            case Float n -> {
+                out.writeByte(FLOAT);
+                out.writeFloat(n);
+            }
+            case BigInteger n -> {
+                out.writeByte(BIG_INTEGER);
+                writeString(out, n.toString());
+            }
+            case Number n -> {
+                out.writeByte(BIG_DECIMAL);
+                writeString(out, n.toString());
+            }
+            case Boolean b -> out.writeByte(b ? TRUE : FALSE);
+            case List<?> list -> {
+                out.writeByte(LIST);
+                out.writeInt(list.size());
+                for (Object item : list) {
+                    writeValue(out, item);
+                }
+            }
+            case Map<?, ?> map -> {
+                out.writeByte(MAP);
+                out.writeInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(out, String.valueOf(entry.getKey()));
+                    writeValue(out, entry.getValue());
+                }
+            }
+            default -> {
+                out.writeByte(STRING);
+                writeString(out, value.toString());
+            }
+        }
+    }
+
+    private static Object readValue(DataInputStream in, Map<String, String> names) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case STRING -> readString(in);
+            case INT -> in.readInt();
+            case LONG -> in.readLong();
+            case DOUBLE -> in.readDouble();
+            case FLOAT -> in.readFloat();
+            case BIG_INTEGER -> new BigInteger(readString(in));
+            case BIG_DECIMAL -> new BigDecimal(readString(in));
+            case TRUE -> Boolean.TRUE;
+            case FALSE -> Boolean.FALSE;
+            case LIST -> {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, names));
+                }
+                yield list;
+            }
+            case MAP -> {
+                int size = in.readInt();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = intern(names, readString(in));
+                    Object value = readValue(in, names);
+                    map.put(key, "className".equals(key) && value instanceof String s ? intern(names, s) : value);
+                }
+                yield map;
+            }
+            default -> throw new IOException("Unknown value tag " + tag + " in snapshot");
+        };
+    }
+
+    /**
+     * Strings are written as their UTF-8 length and bytes, with -1 for null; unlike
+     * {@link DataOutputStream#writeUTF} this has no 64KB limit.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static String intern(Map<String, String> names, String name) {
+        return name == null ? null : names.computeIfAbsent(name, n -> n);
+    }
+}
@@ -0,0 +1,417 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASSnapshotProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Persistent snapshots of the instances fetched from EAS, so that an export can be rendered again
+ * (for example with another ID prefix or external repository name) without downloading the same
+ * classes again.
+ * <p>
+ * Each repository has one append-only file under the data directory. A fetch appends a record
+ * holding the class, slots, depth and fetch time in a small header followed by the deflate
+ * compressed instances; a newer record for the same class, slots and depth supersedes the older
+ * one. Only the record headers are scanned to build the index, and records are read through a
+ * read-only memory mapping of just their region of the file. A file is rewritten without its
+ * superseded records once they outweigh the live ones, and without its records past the maximum
+ * age as soon as there are any, so that no copy of the repository is kept longer than it can be
+ * served.
+ */
+@Slf4j
+@Service
+public class SnapshotStore {
+
+    private static final byte[] FILE_MAGIC = "EASSNAP1".getBytes(StandardCharsets.US_ASCII);
+
+    private final EASSnapshotProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+
+    private final Map<String, RepositoryFile> repositories = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SnapshotStore(EASSnapshotProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, Clock.systemUTC());
+    }
+
+    SnapshotStore(EASSnapshotProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+    }
+
+    /**
+     * Read the newest snapshot of a class that is within the maximum age and holds the requested
+     * slots or a superset of them.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances are fetched with
+     * @param slots Caret-separated list of slots, or null for all slots
+     * @return The snapshot, or empty if there is no usable snapshot or snapshots are disabled
+     */
+    public Optional<Snapshot> read(String repoId, String className, int maxDepth, String slots) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+
+        InstanceCache.CacheKey key = InstanceCache.CacheKey.of(repoId, className, maxDepth, slots);
+        try {
+            RepositoryFile file = repository(repoId);
+            Optional<MappedRecord> record = file.map(key, clock.instant().minus(properties.getMaxAge()));
+            if (record.isEmpty()) {
+                meterRegistry.counter("eas.snapshot.reads", "result", "miss").increment();
+                return Optional.empty();
+            }
+
+            List<EASInstance> instances = record.get().decode();
+            if (!Objects.equals(record.get().key().slots(), key.slots())) {
+                instances = InstanceCache.project(instances, key.slots());
+            }
+            meterRegistry.counter("eas.snapshot.reads", "result", "hit").increment();
+            return Optional.of(new Snapshot(instances, record.get().fetchedAt()));
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to read snapshot of {} in repository {}: {}", className, repoId, e.getMessage());
+            meterRegistry.counter("eas.snapshot.reads", "result", "error").increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Append a snapshot of the instances of a class. Failures are logged rather than thrown, as
+     * the export itself does not depend on the snapshot.
+     *
+     * @param repoId The repository ID
+     * @param className The class name
+     * @param maxDepth The maxdepth the instances were fetched with
+     * @param slots Caret-separated list of slots, or null for all slots
+     * @param instances The fetched instances
+     */
+    public void write(String repoId, String className, int maxDepth, String slots, List<EASInstance> instances) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        InstanceCache.CacheKey key = InstanceCache.CacheKey.of(repoId, className, maxDepth, slots);
+        try {
+            byte[] record = encode(key, slots, clock.instant(), instances);
+            repository(repoId).append(key, record);
+            meterRegistry.counter("eas.snapshot.bytes.written").increment(record.length);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to write snapshot of {} in repository {}: {}", className, repoId, e.getMessage());
+        }
+    }
+
+    private RepositoryFile repository(String repoId) {
+        return repositories.computeIfAbsent(repoId, id ->
+                new RepositoryFile(properties.getDataDirectory().resolve(id.replaceAll("[^A-Za-z0-9._-]", "_") + ".snap")));
+    }
+
+    /**
+     * Build a complete record: its length, a CRC of the rest, the header length, the header and
+     * the compressed instances.
+     */
+    private static byte[] encode(InstanceCache.CacheKey key, String slots, Instant fetchedAt, List<EASInstance> instances) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            SnapshotCodec.writeString(out, key.repoId());
+            SnapshotCodec.writeString(out, key.className());
+            SnapshotCodec.writeString(out, slots);
+            out.writeInt(key.maxDepth());
+            out.writeLong(fetchedAt.toEpochMilli());
+            out.writeInt(instances.size());
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(body, deflater, 64 * 1024))) {
+            SnapshotCodec.write(out, instances);
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(12 + header.size() + body.size());
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            int length = 4 + 4 + header.size() + body.size();
+            out.writeInt(length);
+            out.writeInt(0);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            body.writeTo(out);
+        }
+
+        byte[] bytes = record.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 8, bytes.length - 8);
+        ByteBuffer.wrap(bytes, 4, 4).putInt((int) crc.getValue());
+        return bytes;
+    }
+
+    /**
+     * Position of a record in a repository file.
+     */
+    private record Location(long offset, int length, Instant fetchedAt) {
+    }
+
+    /**
+     * The instances of a class read from a snapshot.
+     *
+     * @param instances The instances
+     * @param fetchedAt When the instances were fetched from EAS
+     */
+    public record Snapshot(List<EASInstance> instances, Instant fetchedAt) {
+    }
+
+    /**
+     * A mapped record ready to be decoded.
+     */
+    private record MappedRecord(InstanceCache.CacheKey key, ByteBuffer buffer, Instant fetchedAt) {
+
+        List<EASInstance> decode() throws IOException {
+            ByteBuffer record = buffer.duplicate();
+            record.getInt();
+            int expectedCrc = record.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Snapshot record is corrupt");
+            }
+
+            int headerLength = record.getInt();
+            record.position(record.position() + headerLength);
+            Inflater inflater = new Inflater();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new ByteBufferInputStream(record), inflater, 64 * 1024)))) {
+                return SnapshotCodec.read(in);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Index and append position of one repository's snapshot file, built on first use by scanning
+     * the record headers.
+     */
+    private final class RepositoryFile {
+
+        private final Path path;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<InstanceCache.CacheKey, Location> index = new HashMap<>();
+
+        private boolean loaded;
+        private long end;
+        private long liveBytes;
+        private long deadBytes;
+
+        RepositoryFile(Path path) {
+            this.path = path;
+        }
+
+        Optional<MappedRecord> map(InstanceCache.CacheKey key, Instant notBefore) throws IOException {
+            lock.lock();
+            try {
+                load();
+                InstanceCache.CacheKey best = null;
+                Location bestLocation = null;
+                for (Map.Entry<InstanceCache.CacheKey, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (entry.getKey().covers(key) && location.fetchedAt().isAfter(notBefore)
+                            && (bestLocation == null || location.fetchedAt().isAfter(bestLocation.fetchedAt()))) {
+                        best = entry.getKey();
+                        bestLocation = location;
+                    }
+                }
+                if (bestLocation == null) {
+                    return Optional.empty();
+                }
+
+                // The mapping stays valid even if the file is later compacted and replaced
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bestLocation.offset(), bestLocation.length());
+                    return Optional.of(new MappedRecord(best, buffer, bestLocation.fetchedAt()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void append(InstanceCache.CacheKey key, byte[] record) throws IOException {
+            lock.lock();
+            try {
+                load();
+                Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    if (end == 0) {
+                        channel.truncate(0);
+                        writeFully(channel, ByteBuffer.wrap(FILE_MAGIC), 0);
+                        end = FILE_MAGIC.length;
+                    } else if (channel.size() > end) {
+                        // Drop a partial record left behind by an interrupted write
+                        channel.truncate(end);
+                    }
+                    writeFully(channel, ByteBuffer.wrap(record), end);
+                }
+
+                Location previous = index.put(key, new Location(end, record.length, Instant.ofEpochMilli(fetchedAt(record))));
+                if (previous != null) {
+                    liveBytes -= previous.length();
+                    deadBytes += previous.length();
+                }
+                liveBytes += record.length;
+                end += record.length;
+
+                Instant notBefore = clock.instant().minus(properties.getMaxAge());
+                boolean expired = index.values().stream().anyMatch(location -> !location.fetchedAt().isAfter(notBefore));
+                if (expired || (deadBytes > properties.getCompactThreshold().toBytes() && deadBytes > liveBytes)) {
+                    compact(notBefore);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Rewrite the file with only the live records fetched after the given time, copying them
+         * unchanged.
+         */
+        private void compact(Instant notBefore) throws IOException {
+            Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+            Map<InstanceCache.CacheKey, Location> moved = new HashMap<>();
+            List<Map.Entry<InstanceCache.CacheKey, Location>> live = new ArrayList<>(index.entrySet());
+            live.removeIf(entry -> !entry.getValue().fetchedAt().isAfter(notBefore));
+            live.sort(Comparator.comparingLong(entry -> entry.getValue().offset()));
+
+            try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(target, ByteBuffer.wrap(FILE_MAGIC), 0);
+                long position = FILE_MAGIC.length;
+                for (Map.Entry<InstanceCache.CacheKey, Location> entry : live) {
+                    Location location = entry.getValue();
+                    long copied = 0;
+                    while (copied < location.length()) {
+                        copied += source.transferTo(location.offset() + copied, location.length() - copied,
+                                target.position(position + copied));
+                    }
+                    moved.put(entry.getKey(), new Location(position, location.length(), location.fetchedAt()));
+                    position += location.length();
+                }
+                end = position;
+            }
+
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.clear();
+            index.putAll(moved);
+            liveBytes = end - FILE_MAGIC.length;
+            deadBytes = 0;
+            log.info("Compacted snapshot file {} to {} bytes", path, end);
+        }
+
+        /**
+         * Build the index from the record headers. A file that is not a snapshot is replaced on the
+         * next write; a truncated record at the end is ignored and overwritten.
+         */
+        private void load() throws IOException {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            if (!Files.exists(path)) {
+                return;
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer magic = ByteBuffer.allocate(FILE_MAGIC.length);
+                readFully(channel, magic, 0);
+                if (!Arrays.equals(magic.array(), FILE_MAGIC)) {
+                    log.warn("Ignoring {} as it is not a snapshot file", path);
+                    return;
+                }
+
+                long position = FILE_MAGIC.length;
+                ByteBuffer prefix = ByteBuffer.allocate(12);
+                while (position + prefix.capacity() <= size) {
+                    prefix.clear();
+                    readFully(channel, prefix, position);
+                    int length = prefix.getInt(0);
+                    int headerLength = prefix.getInt(8);
+                    if (length < 8 || headerLength < 0 || position + 4 + length > size) {
+                        break;
+                    }
+
+                    ByteBuffer header = ByteBuffer.allocate(headerLength);
+                    readFully(channel, header, position + 12);
+                    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()))) {
+                        String repoId = SnapshotCodec.readString(in);
+                        String className = SnapshotCodec.readString(in);
+                        String slots = SnapshotCodec.readString(in);
+                        int maxDepth = in.readInt();
+                        Instant fetchedAt = Instant.ofEpochMilli(in.readLong());
+
+                        Location location = new Location(position, 4 + length, fetchedAt);
+                        Location previous = index.put(InstanceCache.CacheKey.of(repoId, className, maxDepth, slots), location);
+                        if (previous != null) {
+                            liveBytes -= previous.length();
+                            deadBytes += previous.length();
+                        }
+                        liveBytes += location.length();
+                    }
+                    position += 4 + length;
+                }
+                end = position;
+            }
+        }
+    }
+
+    private static long fetchedAt(byte[] record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 12, record.length - 12))) {
+            SnapshotCodec.readString(in);
+            SnapshotCodec.readString(in);
+            SnapshotCodec.readString(in);
+            in.readInt();
+            return in.readLong();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of snapshot file");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.qtzar.essentialsexport.services;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded hand-off between two stages of a pipelined export, each running on its own thread.
+ * The producing stage blocks once the queue is full, so a slow stage holds back the ones before
+ * it rather than letting work pile up in memory. The producer ends the queue when it is done, or
+ * fails it with the exception that stopped it, which the consuming stage then sees in place of
+ * any items still queued.
+ *
+ * @param <T> The type of the items handed over
+ */
+final class StageQueue<T> {
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private volatile Throwable failure;
+
+    /**
+     * @param capacity The number of items that can be queued before the producer blocks
+     */
+    StageQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Queue an item, waiting while the queue is full.
+     *
+     * @param item The item
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    /**
+     * Mark the end of the items, waiting while the queue is full.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void end() throws InterruptedException {
+        queue.put(END);
+    }
+
+    /**
+     * Fail the queue, without waiting. A consumer blocked on an empty queue is woken up, and one
+     * that is not sees the failure on its next {@link #take()}.
+     *
+     * @param cause The exception that stopped the producer
+     */
+    void fail(Throwable cause) {
+        failure = cause;
+        queue.offer(END);
+    }
+
+    /**
+     * Take the next item, waiting while the queue is empty.
+     *
+     * @return The item, or null once the queue has ended
+     * @throws IOException if the producer failed, with its exception as the cause
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    T take() throws IOException, InterruptedException {
+        checkFailure();
+        Object item = queue.take();
+        checkFailure();
+        return item == END ? null : (T) item;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+#
+# Essential(tm) Architecture Manager
+# Optimised functions for importing DUP exports
+#
+# These functions are appended to the standard functions pack when an export asks for them, and
+# replace the standard functions of the same name. They behave the same, but:
+#  - slots and classes are looked up in the knowledge base once and then held in a cache
+#  - the values already in a slot are checked against a set, kept for the instance being updated;
+#    code that writes to slots other than through these functions should call
+#    forgetSlotValueSets() afterwards
+#  - progress is printed once every PROGRESS_INTERVAL instances rather than for every instance
+#
+
+# Number of instances between progress messages
+PROGRESS_INTERVAL = 1000
+
+_slotCache = {}
+_clsCache = {}
+_nameSlotCache = {}
+_progressCount = [0]
+
+# The instance whose slot values are held in _valueSets, keyed by slot
+_valueSetInstance = [None]
+_valueSets = {}
+
+# Get a slot by name, looking it up in the knowledge base only the first time.
+# theSlotName - the name of the slot
+def getCachedSlot(theSlotName):
+    try:
+        return _slotCache[theSlotName]
+    except KeyError:
+        aSlot = kb.getSlot(theSlotName)
+        _slotCache[theSlotName] = aSlot
+        return aSlot
+
+# Get a class by name, looking it up in the knowledge base only the first time.
+# theClassName - the name of the class
+def getCachedCls(theClassName):
+    try:
+        return _clsCache[theClassName]
+    except KeyError:
+        aClass = kb.getCls(theClassName)
+        _clsCache[theClassName] = aClass
+        return aClass
+
+# Count an imported instance and print progress every PROGRESS_INTERVAL instances.
+def countProgress():
+    _progressCount[0] = _progressCount[0] + 1
+    if _progressCount[0] % PROGRESS_INTERVAL == 0:
+        print "Imported " + str(_progressCount[0]) + " instances"
+
+# Get the set of values of a slot on an instance. The sets of one instance at a time are kept, as
+# the import script adds all the values of an instance together.
+def getSlotValueSet(theInstance, theSlot):
+    if _valueSetInstance[0] is not theInstance:
+        _valueSetInstance[0] = theInstance
+        _valueSets.clear()
+    try:
+        return _valueSets[theSlot]
+    except KeyError:
+        aValueSet = set(theInstance.getDirectOwnSlotValues(theSlot))
+        _valueSets[theSlot] = aValueSet
+        return aValueSet
+
+# Forget the sets of values that a write to a slot of an instance may have made stale: that of the
+# slot itself, and that of its inverse slot, which Protege updates on the values added or replaced,
+# any of which may be the instance the sets are kept for.
+def forgetSlotValueSets(theInstance, theSlot):
+    if _valueSetInstance[0] is theInstance:
+        _valueSets.pop(theSlot, None)
+    anInverseSlot = theSlot.getInverseSlot()
+    if anInverseSlot != None:
+        _valueSets.pop(anInverseSlot, None)
+
+# Set the slot value on the specified instance, replacing any existing value.
+def setSlot(theInstance, theSlotName, theInstanceToAdd):
+    if theInstance == None:
+        return
+    aSlot = getCachedSlot(theSlotName)
+    if aSlot != None:
+        theInstance.setOwnSlotValue(aSlot, theInstanceToAdd)
+        forgetSlotValueSets(theInstance, aSlot)
+    else:
+        print "WARNING: Attempt to set non-existent slot: " + theSlotName
+
+# Add the slot value to the specified instance only if it's not already there.
+def addIfNotThere(theInstance, theSlotName, theInstanceToAdd):
+    if theInstance == None:
+        return
+    aSlot = getCachedSlot(theSlotName)
+    if aSlot == None:
+        print "WARNING: Attempt to set non-existent slot: " + theSlotName
+        return
+    if not aSlot.getAllowsMultipleValues():
+        theInstance.setOwnSlotValue(aSlot, theInstanceToAdd)
+        forgetSlotValueSets(theInstance, aSlot)
+        return
+    try:
+        aValueSet = getSlotValueSet(theInstance, aSlot)
+        if theInstanceToAdd in aValueSet:
+            return
+        aValueSet.add(theInstanceToAdd)
+    except TypeError:
+        # Values that cannot be held in a set, such as lists, are checked one by one
+        for anInst in theInstance.getDirectOwnSlotValues(aSlot):
+            if anInst == theInstanceToAdd:
+                return
+    theInstance.addOwnSlotValue(aSlot, theInstanceToAdd)
+    if theInstanceToAdd is theInstance:
+        # A reference to itself also adds the instance to its own inverse slot
+        forgetSlotValueSets(theInstance, aSlot)
+
+# Get the slot that the named class uses for the name, as GetNameSlot() does.
+def GetNameSlot(theClassName):
+    try:
+        return _nameSlotCache[theClassName]
+    except KeyError:
+        aClass = getCachedCls(theClassName)
+        aNameSlot = getCachedSlot("name")
+        if aClass != None:
+            if aClass.hasSuperclass(getCachedCls("EA_Relation")):
+                aNameSlot = getCachedSlot("relation_name")
+            elif aClass.hasSuperclass(getCachedCls(":EA_Graph_Relation")):
+                aNameSlot = getCachedSlot(":relation_name")
+            elif aClass.hasSuperclass(getCachedCls(":META-CLASS")):
+                aNameSlot = getCachedSlot(":NAME")
+        _nameSlotCache[theClassName] = aNameSlot
+        return aNameSlot
+
+# Find the instance of the specified class that has it's name = theInstanceName, or None.
+def GetInstanceOfClass(theClassName, theInstanceName):
+    aClass = getCachedCls(theClassName)
+    for anInstance in kb.getFramesWithValue(GetNameSlot(theClassName), None, 0, theInstanceName):
+        if anInstance.hasDirectType(aClass):
+            return anInstance
+    return None
+
+# Intelligent Essential Get Instance function, as in the standard functions pack but with cached
+# lookups and throttled progress messages.
+def EssentialGetInstance(theClassName, theInstanceID, theInstanceName, theExternalID, theExternalRepositoryName):
+    aClass = getCachedCls(theClassName)
+    if aClass == None:
+        print "WARNING: Skipping instance of unknown class: " + theClassName
+        return None
+
+    # The instance found is renamed and given an external reference outside addIfNotThere
+    _valueSetInstance[0] = None
+    _valueSets.clear()
+
+    anEssentialInstance = None
+    if theInstanceID != None:
+        anEssentialInstance = FindEssentialInstanceByID(theInstanceID)
+        ProcessFoundInstance(anEssentialInstance, theInstanceName, theExternalRepositoryName, theExternalID)
+
+    if anEssentialInstance == None:
+        anEssentialInstance = FindEssentialInstanceByName(aClass, theInstanceName)
+        UpdateOrAddExternalRef(anEssentialInstance, theExternalRepositoryName, theExternalID)
+
+    if anEssentialInstance == None:
+        anEssentialInstance = CreateNewEssentialInstance(theClassName, theInstanceName)
+        AddExternalReferenceID(anEssentialInstance, theExternalID, theExternalRepositoryName)
+
+    countProgress()
+    return anEssentialInstance
+
+# Create a new instance without searching for existing ones, as in the standard functions pack
+# but without a message for every instance.
+def CreateNewEssentialInstanceWithID(theClassName, theInstanceName, theInstanceID):
+    aNewInst = kb.createInstance(theInstanceID, getCachedCls(theClassName))
+    aNewInst.setOwnSlotValue(GetNameSlot(theClassName), theInstanceName)
+    return aNewInst
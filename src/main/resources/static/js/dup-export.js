@@ -13,6 +13,10 @@ const ITEMS_PER_PAGE = 30;
 let currentPage = 0;
 let totalPages = 0;
 
+// Export job being waited for, kept across page reloads
+const EXPORT_JOB_KEY = 'dupExportJob';
+const EXPORT_JOB_POLL_INTERVAL = 2000;
+
 /**
  * Initialize the page
  */
@@ -20,6 +24,7 @@ document.addEventListener('DOMContentLoaded', function() {
     document.getElementById('repoName').addEventListener('input', validateForm);
     loadRepositories();
     validateForm(); // Initialize button states
+    resumeExportJob();
 });
 
 /**
@@ -551,7 +556,14 @@ async function generateExport() {
         repoId: selectedRepoId,
         externalRepositoryName: repoName,
         idPrefix: idPrefix || null,
-        classSelections: classSelections
+        classSelections: classSelections,
+        refreshFromEas: document.getElementById('refreshFromEas').checked,
+        chunkSize: parseInt(document.getElementById('chunkSize').value, 10) || 0,
+        compactScript: document.getElementById('compactScript').checked,
+        optimisedFunctions: document.getElementById('optimisedFunctions').checked,
+        indexedLookups: document.getElementById('indexedLookups').checked,
+        singlePass: document.getElementById('singlePass').checked,
+        pipelined: document.getElementById('pipelined').checked
     };
 
     // Show progress overlay
@@ -569,9 +581,20 @@ async function generateExport() {
     document.getElementById('generateBtn').disabled = true;
 
     try {
+        if (document.getElementById('backgroundJob').checked) {
+            await runExportJob(exportRequest);
+            updateProgress('Export Complete!', `Downloading ${repoName}.dup`);
+
+            setTimeout(() => {
+                showProgressOverlay(false);
+                showStatus(`✅ Export generated successfully! Downloading ${repoName}.dup`, 'success');
+            }, 1500);
+            return;
+        }
+
         updateProgress('Fetching instances from EAS...', 'This may take a moment for large datasets');
 
-        const response = await fetch('/api/dup/export', {
+        const response = await fetch('/api/dup/export/stream', {
             method: 'POST',
             headers: {
                 'Content-Type': 'application/json'
@@ -624,6 +647,90 @@ async function generateExport() {
     }
 }
 
+/**
+ * Submit an export as a background job, then wait for it and download its archive
+ */
+async function runExportJob(exportRequest) {
+    updateProgress('Queueing export job...', 'The export keeps running if this page is closed or refreshed');
+
+    const response = await fetch('/api/dup/jobs', {
+        method: 'POST',
+        headers: {
+            'Content-Type': 'application/json'
+        },
+        body: JSON.stringify(exportRequest)
+    });
+
+    if (!response.ok) {
+        throw new Error(response.status === 503
+            ? 'Too many export jobs are queued, please try again later'
+            : (await response.text()) || response.statusText);
+    }
+
+    const job = await response.json();
+    localStorage.setItem(EXPORT_JOB_KEY, job.id);
+    return awaitExportJob(job.id);
+}
+
+/**
+ * Poll an export job until it finishes, then download its archive
+ */
+async function awaitExportJob(jobId) {
+    const jobUrl = `/api/dup/jobs/${encodeURIComponent(jobId)}`;
+
+    while (true) {
+        const response = await fetch(jobUrl);
+        if (!response.ok) {
+            localStorage.removeItem(EXPORT_JOB_KEY);
+            throw new Error(response.status === 404 ? 'The export job no longer exists' : response.statusText);
+        }
+
+        const job = await response.json();
+        if (job.status === 'SUCCEEDED') {
+            localStorage.removeItem(EXPORT_JOB_KEY);
+
+            // Let the browser download the archive itself, so it can resume an interrupted download
+            const a = document.createElement('a');
+            a.href = `${jobUrl}/download`;
+            document.body.appendChild(a);
+            a.click();
+            document.body.removeChild(a);
+            return job;
+        }
+        if (job.status === 'FAILED') {
+            localStorage.removeItem(EXPORT_JOB_KEY);
+            throw new Error(job.error || 'The export job failed');
+        }
+
+        updateProgress(job.status === 'QUEUED' ? 'Waiting for other exports to finish...' : 'Generating DUP export...',
+            'The export keeps running if this page is closed or refreshed');
+        await new Promise(resolve => setTimeout(resolve, EXPORT_JOB_POLL_INTERVAL));
+    }
+}
+
+/**
+ * Carry on waiting for the export job started before the page was last loaded, if any
+ */
+async function resumeExportJob() {
+    const jobId = localStorage.getItem(EXPORT_JOB_KEY);
+    if (!jobId) {
+        return;
+    }
+
+    showProgressOverlay(true);
+    updateProgress('Resuming export job...', 'Checking on the export started earlier');
+
+    try {
+        const job = await awaitExportJob(jobId);
+        showProgressOverlay(false);
+        showStatus(`✅ Export generated successfully! Downloading ${job.externalRepositoryName}.dup`, 'success');
+    } catch (error) {
+        showProgressOverlay(false);
+        showStatus(`❌ Error generating export: ${error.message}`, 'error');
+        console.error('Export job error:', error);
+    }
+}
+
 /**
  * Show/hide progress overlay
  */
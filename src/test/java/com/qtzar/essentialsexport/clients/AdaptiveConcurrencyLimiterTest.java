@@ -0,0 +1,156 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = Duration.ofMillis(100).toNanos();
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    private EASResilienceProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new EASResilienceProperties();
+        properties.setInitialConcurrency(4);
+        properties.setMinConcurrency(1);
+        properties.setMaxConcurrency(8);
+        properties.setHealthyLatency(Duration.ofSeconds(2));
+        properties.setBackoffRatio(0.5);
+    }
+
+    @Test
+    void testGrowsAdditivelyWhileHealthy() throws InterruptedException {
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+
+        // Act - each success adds 1/limit, so two round trips add a little under two
+        for (int round = 0; round < 2; round++) {
+            fillAndSucceed(limiter, FAST);
+        }
+
+        // Assert
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testHoldsSteadyWhenSlow() throws InterruptedException {
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+
+        // Act
+        for (int round = 0; round < 10; round++) {
+            fillAndSucceed(limiter, SLOW);
+        }
+
+        // Assert
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void testNeverGrowsBeyondMaximum() throws InterruptedException {
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+
+        // Act
+        for (int round = 0; round < 200; round++) {
+            fillAndSucceed(limiter, FAST);
+        }
+
+        // Assert
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    void testShrinksMultiplicativelyOnceForABurstOfOverloads() throws InterruptedException {
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+
+        // Act - all four in-flight requests are rejected together
+        for (int i = 0; i < 4; i++) {
+            limiter.onOverload(null);
+        }
+
+        // Assert
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testNeverShrinksBelowMinimum() throws InterruptedException {
+        // Arrange
+        properties.setHealthyLatency(Duration.ZERO);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.onOverload(null);
+        }
+
+        // Assert
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void testAcquireWaitsWhileLimitReached() throws Exception {
+        // Arrange
+        properties.setInitialConcurrency(1);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+        limiter.acquire();
+
+        // Act
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Assert
+        assertThrows(TimeoutException.class, () -> waiting.get(100, TimeUnit.MILLISECONDS));
+        limiter.onRelease();
+        waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    void testRetryAfterPausesNewRequests() throws InterruptedException {
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties);
+        limiter.acquire();
+
+        // Act
+        limiter.onOverload(Duration.ofMillis(200));
+        long started = System.nanoTime();
+        limiter.acquire();
+        long waited = System.nanoTime() - started;
+
+        // Assert
+        assertTrue(waited >= Duration.ofMillis(150).toNanos(), "acquire should wait for Retry-After, waited " + waited);
+    }
+
+    private static void fillAndSucceed(AdaptiveConcurrencyLimiter limiter, long latencyNanos) throws InterruptedException {
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < limit; i++) {
+            limiter.onSuccess(latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptivePageSizerTest {
+
+    private static final long FAST = Duration.ofMillis(200).toNanos();
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    private EASFetchProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new EASFetchProperties();
+        properties.setMinPageSize(25);
+        properties.setMaxPageSize(800);
+        properties.setTargetPageLatency(Duration.ofSeconds(2));
+        properties.setMaxPageBytes(DataSize.ofMegabytes(8));
+    }
+
+    @Test
+    void testGrowsWhileFastAndSmall() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 100);
+
+        // Act
+        sizer.record(100, 100, 10_000, FAST);
+
+        // Assert
+        assertEquals(200, sizer.getPageSize());
+    }
+
+    @Test
+    void testNeverGrowsBeyondMaximum() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 100);
+
+        // Act - each page is twice the size and only a little slower, so throughput improves
+        long latency = FAST;
+        for (int i = 0; i < 10; i++) {
+            int size = sizer.getPageSize();
+            sizer.record(size, size, 10_000, latency);
+            latency += FAST / 4;
+        }
+
+        // Assert
+        assertEquals(800, sizer.getPageSize());
+    }
+
+    @Test
+    void testShrinksWhenSlow() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 400);
+
+        // Act
+        sizer.record(400, 400, 10_000, SLOW);
+
+        // Assert
+        assertEquals(200, sizer.getPageSize());
+    }
+
+    @Test
+    void testShrinksWhenPayloadTooLarge() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 400);
+
+        // Act
+        sizer.record(400, 400, DataSize.ofMegabytes(16).toBytes(), FAST);
+
+        // Assert
+        assertEquals(200, sizer.getPageSize());
+    }
+
+    @Test
+    void testNeverShrinksBelowMinimum() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 30);
+
+        // Act
+        sizer.record(30, 30, 10_000, SLOW);
+
+        // Assert
+        assertEquals(25, sizer.getPageSize());
+    }
+
+    @Test
+    void testReturnsToBestSizeWhenThroughputDrops() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 100);
+        sizer.record(100, 100, 10_000, FAST);
+
+        // Act - twice the instances but four times the latency
+        sizer.record(200, 200, 20_000, FAST * 4);
+
+        // Assert
+        assertEquals(100, sizer.getPageSize());
+    }
+
+    @Test
+    void testIgnoresShortFinalPage() {
+        // Arrange
+        AdaptivePageSizer sizer = new AdaptivePageSizer(properties, 100);
+
+        // Act
+        sizer.record(100, 7, 700, SLOW);
+
+        // Assert
+        assertEquals(100, sizer.getPageSize());
+    }
+
+    @Test
+    void testStartSizeIsClamped() {
+        // Assert
+        assertEquals(800, new AdaptivePageSizer(properties, 5000).getPageSize());
+        assertEquals(25, new AdaptivePageSizer(properties, 1).getPageSize());
+    }
+}
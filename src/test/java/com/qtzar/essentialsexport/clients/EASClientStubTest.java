@@ -0,0 +1,292 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
+import com.qtzar.essentialsexport.configuration.EASHttpProperties;
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EASClientStubTest {
+
+    private static final int TOTAL_INSTANCES = 1037;
+
+    @Test
+    void testSerialPagingReturnsAllInstancesInOrder() throws IOException {
+        assertFetchesAllInstances(1);
+    }
+
+    @Test
+    void testPrefetchedPagingReturnsAllInstancesInOrder() throws IOException {
+        assertFetchesAllInstances(4);
+    }
+
+    @Test
+    void testStreamedPagesArriveInOrder() throws IOException {
+        // Arrange
+        EASFetchProperties fetchProperties = new EASFetchProperties();
+        fetchProperties.setPrefetchDepth(4);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        List<List<EASInstance>> pages = new ArrayList<>();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(fetchProperties, httpProperties);
+
+            // Act
+            client.streamInstances("test-repo", "Business_Capability", 1, "id", pages::add);
+            client.shutdown();
+
+            // Assert
+            assertTrue(pages.size() > 1);
+            List<EASInstance> instances = pages.stream().flatMap(List::stream).toList();
+            assertEquals(TOTAL_INSTANCES, instances.size());
+            for (int i = 0; i < TOTAL_INSTANCES; i++) {
+                assertEquals("inst" + i, instances.get(i).id());
+            }
+        }
+    }
+
+    @Test
+    void testPrefetchFollowsNextPageThatBreaksThePattern() throws IOException {
+        // Arrange - every page returns 60 of the 100 asked for, so each prefetch window is discarded
+        EASFetchProperties fetchProperties = fixedPageSize(100);
+        fetchProperties.setPrefetchDepth(4);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            server.capPageSize(60);
+            EASClient client = server.newClient(fetchProperties, httpProperties);
+
+            // Act
+            List<EASInstance> instances = client.getAllInstances("test-repo", "Business_Capability", 1, "id");
+            client.shutdown();
+
+            // Assert
+            assertInstancesInOrder(instances);
+        }
+    }
+
+    @Test
+    void testPrefetchFollowsCursorNextPageOneAtATime() throws IOException {
+        // Arrange - pages from offset 500 on are linked by a cursor instead of a start and count
+        EASFetchProperties fetchProperties = fixedPageSize(100);
+        fetchProperties.setPrefetchDepth(4);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        List<List<EASInstance>> pages = new ArrayList<>();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            server.useCursorPagesFrom(500);
+            EASClient client = server.newClient(fetchProperties, httpProperties);
+
+            // Act
+            client.streamInstances("test-repo", "Business_Capability", 1, "id", pages::add);
+            client.shutdown();
+
+            // Assert
+            assertEquals(11, pages.size());
+            assertInstancesInOrder(pages.stream().flatMap(List::stream).toList());
+        }
+    }
+
+    @Test
+    void testPageMetricsSeparateRequestedFromReturnedInstances() throws IOException {
+        // Arrange
+        EASFetchProperties fetchProperties = fixedPageSize(100);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(fetchProperties, httpProperties, meterRegistry);
+
+            // Act
+            client.getAllInstances("test-repo", "Business_Capability", 1, "id");
+            client.shutdown();
+
+            // Assert - the last page asks for 100 but only 37 are left
+            var requested = meterRegistry.get("eas.fetch.page.size").tags("class", "Business_Capability").summary();
+            var returned = meterRegistry.get("eas.fetch.page.instances").tags("class", "Business_Capability").summary();
+            assertEquals(11, requested.count());
+            assertEquals(1100, requested.totalAmount());
+            assertEquals(11, returned.count());
+            assertEquals(TOTAL_INSTANCES, returned.totalAmount());
+        }
+    }
+
+    @Test
+    void testCompressedTransferIsDecodedAndCounted() throws IOException {
+        // Arrange
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(new EASFetchProperties(), httpProperties, meterRegistry);
+
+            // Act
+            List<EASInstance> instances = client.getAllInstances("test-repo", "Business_Capability", 1, null);
+            Object metadata = client.getClassesMetadata("test-repo");
+            client.shutdown();
+
+            // Assert
+            assertEquals(TOTAL_INSTANCES, instances.size());
+            assertTrue(metadata instanceof Map<?, ?> classes && classes.containsKey("Business_Capability"));
+
+            double wire = meterRegistry.get("eas.transfer.bytes").tags("endpoint", "instances", "form", "wire").counter().count();
+            double decoded = meterRegistry.get("eas.transfer.bytes").tags("endpoint", "instances", "form", "decoded").counter().count();
+            assertTrue(wire > 0);
+            assertTrue(wire < decoded / 2, "repetitive instance JSON should compress well");
+            assertTrue(meterRegistry.get("eas.transfer.bytes").tags("endpoint", "meta-data", "form", "decoded").counter().count() > 0);
+        }
+    }
+
+    @Test
+    void testUncompressedTransferWhenDisabled() throws IOException {
+        // Arrange
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        httpProperties.setCompression(false);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(new EASFetchProperties(), httpProperties, meterRegistry);
+
+            // Act
+            List<EASInstance> instances = client.getAllInstances("test-repo", "Business_Capability", 1, null);
+            client.shutdown();
+
+            // Assert
+            assertEquals(TOTAL_INSTANCES, instances.size());
+            assertEquals(meterRegistry.get("eas.transfer.bytes").tags("endpoint", "instances", "form", "decoded").counter().count(),
+                    meterRegistry.get("eas.transfer.bytes").tags("endpoint", "instances", "form", "wire").counter().count());
+        }
+    }
+
+    @Test
+    void testRateLimitedPageIsRetried() throws IOException {
+        // Arrange
+        EASFetchProperties fetchProperties = new EASFetchProperties();
+        fetchProperties.setPrefetchDepth(4);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(fetchProperties, httpProperties, fastRetries(5), meterRegistry);
+            server.failInstanceRequests(429, 2, "0");
+
+            // Act
+            List<EASInstance> instances = client.getAllInstances("test-repo", "Business_Capability", 1, null);
+            client.shutdown();
+
+            // Assert
+            assertEquals(TOTAL_INSTANCES, instances.size());
+            for (int i = 0; i < TOTAL_INSTANCES; i++) {
+                assertEquals("inst" + i, instances.get(i).id());
+            }
+            assertEquals(2, meterRegistry.get("eas.requests.retried").tags("endpoint", "instances").counter().count());
+        }
+    }
+
+    @Test
+    void testPersistentOverloadFailsAfterMaxAttempts() throws IOException {
+        // Arrange
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(serialFetch(), httpProperties, fastRetries(3), new SimpleMeterRegistry());
+            server.failInstanceRequests(503, Integer.MAX_VALUE, null);
+
+            // Act & Assert
+            HttpServerErrorException e = assertThrows(HttpServerErrorException.class,
+                    () -> client.getAllInstances("test-repo", "Business_Capability", 1, null));
+            assertEquals(503, e.getStatusCode().value());
+            assertEquals(3, server.getInstanceRequests());
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void testClientErrorIsNotRetried() throws IOException {
+        // Arrange
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(serialFetch(), httpProperties, fastRetries(3), new SimpleMeterRegistry());
+            server.failInstanceRequests(404, 1, null);
+
+            // Act & Assert
+            assertThrows(HttpClientErrorException.class,
+                    () -> client.getAllInstances("test-repo", "Business_Capability", 1, null));
+            assertEquals(1, server.getInstanceRequests());
+            client.shutdown();
+        }
+    }
+
+    private static EASFetchProperties serialFetch() {
+        EASFetchProperties properties = new EASFetchProperties();
+        properties.setPrefetchDepth(1);
+        return properties;
+    }
+
+    private static EASResilienceProperties fastRetries(int maxAttempts) {
+        EASResilienceProperties properties = new EASResilienceProperties();
+        properties.setMaxAttempts(maxAttempts);
+        properties.setInitialBackoff(Duration.ofMillis(1));
+        properties.setMaxBackoff(Duration.ofMillis(10));
+        return properties;
+    }
+
+    private void assertFetchesAllInstances(int prefetchDepth) throws IOException {
+        // Arrange
+        EASFetchProperties fetchProperties = new EASFetchProperties();
+        fetchProperties.setPrefetchDepth(prefetchDepth);
+        EASHttpProperties httpProperties = new EASHttpProperties();
+        httpProperties.setWarmupConnections(0);
+
+        try (EASStubServer server = new EASStubServer(TOTAL_INSTANCES)) {
+            EASClient client = server.newClient(fetchProperties, httpProperties);
+
+            // Act
+            List<EASInstance> instances = client.getAllInstances("test-repo", "Business_Capability", 1, "id^name^className^description^owner");
+            client.shutdown();
+
+            // Assert
+            assertInstancesInOrder(instances);
+            assertEquals(Map.of("id", "inst1"), instances.get(0).get("owner"));
+        }
+    }
+
+    private static EASFetchProperties fixedPageSize(int pageSize) {
+        EASFetchProperties fetchProperties = new EASFetchProperties();
+        fetchProperties.setInitialPageSize(pageSize);
+        fetchProperties.setMinPageSize(pageSize);
+        fetchProperties.setMaxPageSize(pageSize);
+        return fetchProperties;
+    }
+
+    /**
+     * Every instance of the stub, each once, in order.
+     */
+    private static void assertInstancesInOrder(List<EASInstance> instances) {
+        assertEquals(TOTAL_INSTANCES, instances.size());
+        for (int i = 0; i < TOTAL_INSTANCES; i++) {
+            assertEquals("inst" + i, instances.get(i).id());
+        }
+    }
+}
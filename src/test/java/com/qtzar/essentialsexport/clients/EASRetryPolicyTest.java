@@ -0,0 +1,110 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EASRetryPolicyTest {
+
+    private EASRetryPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        EASResilienceProperties properties = new EASResilienceProperties();
+        properties.setMaxAttempts(3);
+        properties.setInitialBackoff(Duration.ofMillis(100));
+        properties.setMaxBackoff(Duration.ofSeconds(1));
+        policy = new EASRetryPolicy(properties);
+    }
+
+    @Test
+    void testOverloadStatusesAndConnectionFailuresAreRetried() {
+        assertTrue(policy.isOverload(error(HttpStatus.TOO_MANY_REQUESTS, null)));
+        assertTrue(policy.isOverload(error(HttpStatus.SERVICE_UNAVAILABLE, null)));
+        assertTrue(policy.isOverload(error(HttpStatus.GATEWAY_TIMEOUT, null)));
+        assertTrue(policy.isOverload(new ResourceAccessException("timed out", new IOException())));
+
+        assertFalse(policy.isOverload(error(HttpStatus.NOT_FOUND, null)));
+        assertFalse(policy.isOverload(error(HttpStatus.INTERNAL_SERVER_ERROR, null)));
+        assertFalse(policy.isOverload(new IllegalStateException()));
+    }
+
+    @Test
+    void testCanRetryUntilMaxAttempts() {
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+    @Test
+    void testRetryAfterInSeconds() {
+        assertEquals(Duration.ofSeconds(1), policy.retryAfter(error(HttpStatus.TOO_MANY_REQUESTS, "1")));
+        assertEquals(Duration.ZERO, policy.retryAfter(error(HttpStatus.TOO_MANY_REQUESTS, "0")));
+    }
+
+    @Test
+    void testRetryAfterIsCappedAtMaxBackoff() {
+        assertEquals(Duration.ofSeconds(1), policy.retryAfter(error(HttpStatus.SERVICE_UNAVAILABLE, "3600")));
+    }
+
+    @Test
+    void testRetryAfterAsHttpDate() {
+        // Arrange
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(10));
+
+        // Act & Assert
+        assertEquals(Duration.ZERO, policy.retryAfter(error(HttpStatus.SERVICE_UNAVAILABLE, date)));
+    }
+
+    @Test
+    void testMissingOrInvalidRetryAfter() {
+        assertNull(policy.retryAfter(error(HttpStatus.TOO_MANY_REQUESTS, null)));
+        assertNull(policy.retryAfter(error(HttpStatus.TOO_MANY_REQUESTS, "soon")));
+        assertNull(policy.retryAfter(new ResourceAccessException("timed out")));
+    }
+
+    @Test
+    void testBackoffGrowsExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(policy.backoff(1, null), 50, 100);
+            assertBetween(policy.backoff(2, null), 100, 200);
+            assertBetween(policy.backoff(3, null), 200, 400);
+            assertBetween(policy.backoff(10, null), 500, 1000);
+        }
+    }
+
+    @Test
+    void testBackoffHonoursRetryAfter() {
+        assertEquals(Duration.ofMillis(800), policy.backoff(1, Duration.ofMillis(800)));
+    }
+
+    private static void assertBetween(Duration delay, long minMillis, long maxMillis) {
+        assertTrue(delay.compareTo(Duration.ofMillis(minMillis)) >= 0 && delay.compareTo(Duration.ofMillis(maxMillis)) <= 0,
+                "expected " + minMillis + "-" + maxMillis + " ms but was " + delay.toMillis());
+    }
+
+    private static RuntimeException error(HttpStatus status, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        byte[] body = new byte[0];
+        return status.is4xxClientError()
+                ? HttpClientErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8)
+                : HttpServerErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,258 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
+import com.qtzar.essentialsexport.configuration.EASHttpConfiguration;
+import com.qtzar.essentialsexport.configuration.EASHttpProperties;
+import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
+import com.qtzar.essentialsexport.configuration.EASResilienceProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal local stand-in for the EAS API, serving /oauth/token and paginated /instances responses.
+ */
+class EASStubServer implements AutoCloseable {
+
+    private static final Pattern PAGINATION = Pattern.compile("(start|cursor)=(\\d+)&count=(\\d+)");
+    private static final String TOKEN_RESPONSE =
+            "{\"bearerToken\":\"token\",\"refreshToken\":\"refresh\",\"expiresInMinutes\":30,\"refreshTokenExpiresInMinutes\":60}";
+
+    private final HttpServer server;
+    private final SSLContext sslContext;
+    private final int totalInstances;
+    private final AtomicInteger instanceRequests = new AtomicInteger();
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+    private volatile int failureStatus;
+    private volatile String failureRetryAfter;
+    private volatile int maxPageSize = Integer.MAX_VALUE;
+    private volatile int cursorPagesFrom = Integer.MAX_VALUE;
+
+    EASStubServer(int totalInstances) throws IOException {
+        this(totalInstances, false);
+    }
+
+    /**
+     * @param totalInstances Number of instances the class has
+     * @param tls Serve HTTPS with a throwaway self-signed certificate, so connection setup costs a real handshake
+     */
+    EASStubServer(int totalInstances, boolean tls) throws IOException {
+        this.totalInstances = totalInstances;
+        if (tls) {
+            sslContext = selfSignedContext();
+            HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            server = httpsServer;
+        } else {
+            sslContext = null;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        }
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/oauth/token", exchange -> respond(exchange, TOKEN_RESPONSE));
+        server.createContext("/essential-utility", this::instances);
+        server.createContext("/", exchange -> respond(exchange, "{}"));
+        server.start();
+    }
+
+    String getEndpoint() {
+        return (sslContext != null ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return Context trusting the stub's certificate, or null when serving plain HTTP
+     */
+    SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    int getInstanceRequests() {
+        return instanceRequests.get();
+    }
+
+    /**
+     * Answer the next instance page requests with an error instead of data.
+     *
+     * @param status The HTTP status to respond with
+     * @param times Number of requests to fail
+     * @param retryAfter Value of the Retry-After header, or null to omit it
+     */
+    void failInstanceRequests(int status, int times, String retryAfter) {
+        failureStatus = status;
+        failureRetryAfter = retryAfter;
+        failuresRemaining.set(times);
+    }
+
+    /**
+     * Return at most this many instances per page, however many are asked for, so that next_page
+     * no longer continues at the start plus the count of the page requested.
+     */
+    void capPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Link the pages from this offset on with a cursor next_page rather than a start and count,
+     * so that the client can no longer predict the next page.
+     */
+    void useCursorPagesFrom(int offset) {
+        this.cursorPagesFrom = offset;
+    }
+
+    /**
+     * Create an EASClient wired to this stub the same way Spring would.
+     */
+    EASClient newClient(EASFetchProperties fetchProperties, EASHttpProperties httpProperties) {
+        return newClient(fetchProperties, httpProperties, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Create an EASClient wired to this stub, recording its metrics in the given registry.
+     */
+    EASClient newClient(EASFetchProperties fetchProperties, EASHttpProperties httpProperties, MeterRegistry meterRegistry) {
+        return newClient(fetchProperties, httpProperties, new EASResilienceProperties(), meterRegistry);
+    }
+
+    /**
+     * Create an EASClient wired to this stub with the given limiter and retry settings.
+     */
+    EASClient newClient(EASFetchProperties fetchProperties, EASHttpProperties httpProperties,
+                        EASResilienceProperties resilienceProperties, MeterRegistry meterRegistry) {
+        EASClient client = new EASClient(new EASRepositoriesProperties(), fetchProperties, httpProperties, resilienceProperties,
+                new EASHttpConfiguration().easHttpClient(httpProperties), JsonMapper.builder().build(), meterRegistry);
+        ReflectionTestUtils.setField(client, "endpoint", getEndpoint());
+        ReflectionTestUtils.setField(client, "apiKey", "test-api-key");
+        ReflectionTestUtils.setField(client, "username", "user");
+        ReflectionTestUtils.setField(client, "password", "secret");
+        client.init();
+        return client;
+    }
+
+    private void instances(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestURI().getPath().endsWith("/classes/meta-data")) {
+            respond(exchange, "{\"Business_Capability\":{\"slots\":[\"name\",\"description\",\"owner\"]}}");
+            return;
+        }
+        instanceRequests.incrementAndGet();
+        if (failuresRemaining.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+            if (failureRetryAfter != null) {
+                exchange.getResponseHeaders().add("Retry-After", failureRetryAfter);
+            }
+            exchange.sendResponseHeaders(failureStatus, -1);
+            exchange.close();
+            return;
+        }
+        Matcher matcher = PAGINATION.matcher(exchange.getRequestURI().getQuery());
+        boolean paged = matcher.find();
+        int start = paged ? Integer.parseInt(matcher.group(2)) : 0;
+        int count = paged ? Integer.parseInt(matcher.group(3)) : 100;
+        int end = Math.min(totalInstances, start + Math.min(count, maxPageSize));
+
+        StringBuilder json = new StringBuilder("{\"instances\":[");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"inst").append(i)
+                    .append("\",\"name\":\"Instance ").append(i)
+                    .append("\",\"className\":\"Business_Capability\",\"description\":\"Description of instance ").append(i)
+                    .append("\",\"owner\":{\"id\":\"inst").append((i + 1) % totalInstances).append("\"}}");
+        }
+        json.append(']');
+        if (end < totalInstances) {
+            json.append(",\"next_page\":\"").append(end >= cursorPagesFrom ? "cursor=" : "start=")
+                    .append(end).append(",count=").append(count).append('"');
+        }
+        json.append('}');
+        respond(exchange, json.toString());
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Generate a self-signed certificate for 127.0.0.1 with keytool and build a context that both
+     * serves and trusts it.
+     */
+    private static SSLContext selfSignedContext() throws IOException {
+        Path keyStoreFile = Files.createTempFile("eas-stub", ".p12");
+        Files.delete(keyStoreFile);
+        char[] password = "changeit".toCharArray();
+        try {
+            Process keytool = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                    "-genkeypair", "-alias", "stub", "-keyalg", "EC", "-dname", "CN=127.0.0.1",
+                    "-ext", "SAN=ip:127.0.0.1", "-validity", "1", "-storetype", "PKCS12",
+                    "-keystore", keyStoreFile.toString(), "-storepass", "changeit")
+                    .redirectErrorStream(true)
+                    .start();
+            keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool failed to generate the stub certificate");
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(keyStoreFile)) {
+                keyStore.load(in, password);
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(keyStore);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the stub certificate", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to load the stub certificate", e);
+        } finally {
+            Files.deleteIfExists(keyStoreFile);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,110 @@
+package com.qtzar.essentialsexport.clients;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class EASTokenManagerTest {
+
+    private MockRestServiceServer server;
+    private EASTokenManager tokenManager;
+
+    @BeforeEach
+    void setUp() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("https://test.example.com/api");
+        server = MockRestServiceServer.bindTo(builder).build();
+        tokenManager = new EASTokenManager(builder.build(), "test-api-key", "user", "secret");
+    }
+
+    @AfterEach
+    void tearDown() {
+        tokenManager.close();
+    }
+
+    @Test
+    void testConcurrentCallersShareOneTokenRequest() throws Exception {
+        // Arrange
+        server.expect(once(), requestTo("https://test.example.com/api/oauth/token"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.grantType").value("password"))
+                .andRespond(withSuccess(tokenResponse("token-1", 30), MediaType.APPLICATION_JSON));
+
+        // Act
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return tokenManager.getAuthorization();
+                }));
+            }
+            start.countDown();
+        }
+
+        // Assert
+        for (Future<String> result : results) {
+            assertEquals("Bearer token-1", result.get());
+        }
+        server.verify();
+    }
+
+    @Test
+    void testValidTokenIsReused() {
+        // Arrange
+        server.expect(once(), requestTo("https://test.example.com/api/oauth/token"))
+                .andRespond(withSuccess(tokenResponse("token-1", 30), MediaType.APPLICATION_JSON));
+
+        // Act
+        String first = tokenManager.getAuthorization();
+        String second = tokenManager.getAuthorization();
+
+        // Assert
+        assertEquals("Bearer token-1", first);
+        assertEquals(first, second);
+        server.verify();
+    }
+
+    @Test
+    void testExpiredTokenUsesRefreshGrant() {
+        // Arrange - the first token expires immediately but its refresh token is valid
+        server.expect(once(), requestTo("https://test.example.com/api/oauth/token"))
+                .andExpect(jsonPath("$.grantType").value("password"))
+                .andRespond(withSuccess(tokenResponse("token-1", 0), MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo("https://test.example.com/api/oauth/token"))
+                .andExpect(jsonPath("$.grantType").value("refresh_token"))
+                .andExpect(jsonPath("$.refreshToken").value("refresh-token-1"))
+                .andRespond(withSuccess(tokenResponse("token-2", 30), MediaType.APPLICATION_JSON));
+
+        // Act
+        String first = tokenManager.getAuthorization();
+        String second = tokenManager.getAuthorization();
+
+        // Assert
+        assertEquals("Bearer token-1", first);
+        assertEquals("Bearer token-2", second);
+        server.verify();
+    }
+
+    private static String tokenResponse(String token, int expiresInMinutes) {
+        return """
+                {"bearerToken": "%s", "refreshToken": "refresh-%s", "expiresInMinutes": %d, "refreshTokenExpiresInMinutes": 60}
+                """.formatted(token, token, expiresInMinutes);
+    }
+}
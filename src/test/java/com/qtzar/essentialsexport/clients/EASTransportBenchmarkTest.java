@@ -0,0 +1,76 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.configuration.EASHttpConfiguration;
+import com.qtzar.essentialsexport.configuration.EASHttpProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compares request throughput of a transport that opens a new TLS connection per request against
+ * the configured EAS transport, using a local HTTPS stub server.
+ * Run with {@code mvn test -Dtest=EASTransportBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class EASTransportBenchmarkTest {
+
+    private static final int REQUESTS = 2000;
+    private static final int CONCURRENCY = 32;
+    private static final String PAGE = "/essential-utility/v3/repositories/repo/classes/Business_Capability/instances?maxdepth=1&start=0&count=100";
+
+    @Test
+    void benchmarkTransport() throws IOException {
+        try (EASStubServer server = new EASStubServer(100, true);
+             ExecutorService httpExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpsURLConnection.setDefaultSSLSocketFactory(server.getSslContext().getSocketFactory());
+            RestClient before = RestClient.builder()
+                    .requestFactory(new SimpleClientHttpRequestFactory())
+                    .baseUrl(server.getEndpoint())
+                    .defaultHeader("Connection", "close")
+                    .build();
+
+            HttpClient httpClient = EASHttpConfiguration.httpClientBuilder(new EASHttpProperties(), httpExecutor)
+                    .sslContext(server.getSslContext())
+                    .build();
+            RestClient after = RestClient.builder()
+                    .requestFactory(new JdkClientHttpRequestFactory(httpClient))
+                    .baseUrl(server.getEndpoint())
+                    .build();
+
+            // Warm up the JIT for both before measuring
+            run(before, REQUESTS / 10);
+            run(after, REQUESTS / 10);
+
+            System.out.printf("EAS transport benchmark, %d HTTPS requests at concurrency %d%n", REQUESTS, CONCURRENCY);
+            System.out.printf("  before (new connection per request): %8.0f req/s%n", run(before, REQUESTS));
+            System.out.printf("  after  (pooled eas.http transport):  %8.0f req/s%n", run(after, REQUESTS));
+        }
+    }
+
+    private static double run(RestClient restClient, int requests) {
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                permits.acquireUninterruptibly();
+                executor.submit(() -> {
+                    try {
+                        restClient.get().uri(PAGE).retrieve().body(byte[].class);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        return requests / ((System.nanoTime() - started) / 1e9);
+    }
+}
@@ -0,0 +1,132 @@
+package com.qtzar.essentialsexport.clients;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstancePageParserTest {
+
+    private final InstancePageParser parser = new InstancePageParser(JsonMapper.builder().build());
+
+    @Test
+    void testParsePageWithNextPage() {
+        // Arrange
+        String json = """
+                {"instances": [
+                  {"id": "inst1", "name": "Capability 1", "className": "Business_Capability",
+                   "description": "First", "owner": {"id": "ref1", "name": "Owner", "className": "Individual_Actor"},
+                   "tags": ["a", "b"], "score": 42, "weight": 1.5, "active": true, "notes": null},
+                  {"id": "inst2", "name": "Capability 2", "className": "Business_Capability",
+                   "description": "Second", "owner": null, "tags": [], "score": 7, "weight": 2.0, "active": false, "notes": null}
+                ],
+                "next_page": "start=100,count=100"}
+                """;
+
+        // Act
+        InstancePageParser.ParsedPage page = parse(json);
+
+        // Assert
+        assertEquals("start=100,count=100", page.nextPage());
+        assertEquals(2, page.instances().size());
+
+        EASInstance first = page.instances().get(0);
+        assertEquals("inst1", first.id());
+        assertEquals("Capability 1", first.name());
+        assertEquals("Business_Capability", first.className());
+        assertEquals("First", first.get("description"));
+        assertEquals(Map.of("id", "ref1", "name", "Owner", "className", "Individual_Actor"), first.get("owner"));
+        assertEquals(List.of("a", "b"), first.get("tags"));
+        assertEquals(42, first.get("score"));
+        assertEquals(1.5, first.get("weight"));
+        assertEquals(Boolean.TRUE, first.get("active"));
+        assertNull(first.get("notes"));
+        assertNull(first.get("missing"));
+    }
+
+    @Test
+    void testNonObjectElementsAreSkipped() {
+        // Arrange
+        String json = """
+                {"instances": [
+                  {"id": "inst1", "name": "A", "className": "Business_Capability"},
+                  null,
+                  "unexpected",
+                  [{"id": "nested"}],
+                  {"id": "inst2", "name": "B", "className": "Business_Capability"}
+                ],
+                "next_page": "start=100,count=100"}
+                """;
+
+        // Act
+        InstancePageParser.ParsedPage page = parse(json);
+
+        // Assert
+        assertEquals(List.of("inst1", "inst2"), page.instances().stream().map(EASInstance::id).toList());
+        assertEquals("start=100,count=100", page.nextPage());
+    }
+
+    @Test
+    void testInstancesShareSlotLayoutAndClassName() {
+        // Arrange
+        String json = """
+                {"instances": [
+                  {"id": "inst1", "name": "A", "className": "Business_Capability", "description": "x"},
+                  {"id": "inst2", "name": "B", "className": "Business_Capability", "description": "y"}
+                ]}
+                """;
+
+        // Act
+        List<EASInstance> instances = parse(json).instances();
+
+        // Assert
+        assertSame(instances.get(0).slotNames(), instances.get(1).slotNames());
+        assertSame(instances.get(0).className(), instances.get(1).className());
+    }
+
+    @Test
+    void testLastPageHasNoNextPage() {
+        // Act
+        InstancePageParser.ParsedPage page = parse("{\"instances\": [], \"other\": {\"ignored\": [1, 2]}}");
+
+        // Assert
+        assertTrue(page.instances().isEmpty());
+        assertNull(page.nextPage());
+    }
+
+    @Test
+    void testResponseWithoutInstances() {
+        // Act
+        InstancePageParser.ParsedPage page = parse("{\"message\": \"not found\"}");
+
+        // Assert
+        assertTrue(page.instances().isEmpty());
+        assertNull(page.nextPage());
+    }
+
+    @Test
+    void testMatchesFromMap() {
+        // Arrange
+        String json = "{\"instances\": [{\"id\": \"inst1\", \"name\": \"A\", \"className\": \"C\", \"description\": \"x\"}]}";
+
+        // Act
+        EASInstance parsed = parse(json).instances().get(0);
+        EASInstance fromMap = EASInstance.fromMap(Map.of("id", "inst1", "name", "A", "className", "C", "description", "x"));
+
+        // Assert
+        assertEquals(fromMap.id(), parsed.id());
+        assertEquals(fromMap.name(), parsed.name());
+        assertEquals(fromMap.className(), parsed.className());
+        assertEquals(fromMap.get("description"), parsed.get("description"));
+    }
+
+    private InstancePageParser.ParsedPage parse(String json) {
+        return parser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
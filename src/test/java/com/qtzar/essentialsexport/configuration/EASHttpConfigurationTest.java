@@ -0,0 +1,38 @@
+package com.qtzar.essentialsexport.configuration;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EASHttpConfigurationTest {
+
+    @Test
+    void testShutdownClosesTheExecutorOfTheClient() {
+        // Arrange
+        EASHttpConfiguration configuration = new EASHttpConfiguration();
+        HttpClient client = configuration.easHttpClient(new EASHttpProperties());
+        ExecutorService executor = (ExecutorService) client.executor().orElseThrow();
+
+        // Act
+        client.close();
+        configuration.shutdown();
+
+        // Assert
+        assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    void testClientLeavesTheJvmWidePoolSettingsAlone() {
+        // Arrange
+        String poolSize = System.getProperty("jdk.httpclient.connectionPoolSize");
+
+        // Act
+        try (HttpClient _ = new EASHttpConfiguration().easHttpClient(new EASHttpProperties())) {
+            // Assert
+            assertEquals(poolSize, System.getProperty("jdk.httpclient.connectionPoolSize"));
+        }
+    }
+}
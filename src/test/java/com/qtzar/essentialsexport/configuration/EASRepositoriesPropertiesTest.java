@@ -51,6 +51,21 @@ class EASRepositoriesPropertiesTest {
         assertEquals("test-repo-123", repository.getRepoId());
     }
 
+    @Test
+    void testRepositoryPrefetchDepth() {
+        // Arrange
+        EASRepositoriesProperties.Repository repository = new EASRepositoriesProperties.Repository();
+
+        // Assert - unset means fall back to eas.fetch.prefetch-depth
+        assertNull(repository.getPrefetchDepth());
+
+        // Act
+        repository.setPrefetchDepth(8);
+
+        // Assert
+        assertEquals(8, repository.getPrefetchDepth());
+    }
+
     @Test
     void testSetRepositories() {
         // Arrange
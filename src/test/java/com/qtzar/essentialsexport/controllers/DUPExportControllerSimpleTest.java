@@ -1,10 +1,10 @@
 package com.qtzar.essentialsexport.controllers;
 
-import com.qtzar.essentialsexport.clients.EASClient;
 import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
 import com.qtzar.essentialsexport.model.dup.ClassSelection;
 import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
 import com.qtzar.essentialsexport.model.dup.FieldSelection;
+import com.qtzar.essentialsexport.services.ClassMetadataCache;
 import com.qtzar.essentialsexport.services.DUPExportService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,15 +15,35 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
 class DUPExportControllerSimpleTest {
@@ -32,7 +52,7 @@ class DUPExportControllerSimpleTest {
     private DUPExportService dupExportService;
 
     @Mock
-    private EASClient easClient;
+    private ClassMetadataCache classMetadataCache;
 
     @Mock
     private EASRepositoriesProperties easRepositoriesProperties;
@@ -182,31 +202,106 @@ class DUPExportControllerSimpleTest {
     @Test
     void testGetClasses_Success() {
         // Arrange
-        Map<String, Object> classMetadata = new HashMap<>();
-        Map<String, Object> businessCapability = new HashMap<>();
-        businessCapability.put("className", "Business_Capability");
-        businessCapability.put("slots", Arrays.asList("name", "description", "owner"));
+        when(classMetadataCache.get(eq("test-repo"))).thenReturn(Optional.of(classMetadata()));
 
-        classMetadata.put("Business_Capability", businessCapability);
+        // Act
+        ResponseEntity<Object> response = dupExportController.getClasses("test-repo");
 
-        when(easClient.getClassesMetadata(eq("test-repo"))).thenReturn(classMetadata);
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"abc123\"", response.getHeaders().getETag());
+        assertEquals("no-cache", response.getHeaders().getCacheControl());
+        assertTrue(response.getBody() instanceof byte[]);
+        assertTrue(new String((byte[]) response.getBody(), StandardCharsets.UTF_8).contains("Business_Capability"));
+    }
+
+    @Test
+    void testGetClasses_NotModifiedForMatchingETag() throws Exception {
+        // Arrange
+        when(classMetadataCache.get(eq("test-repo"))).thenReturn(Optional.of(classMetadata()));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(dupExportController).build();
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/classes").param("repoId", "test-repo"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"abc123\""))
+                .andExpect(content().json("{\"Business_Capability\":{\"slots\":[\"name\"]}}"));
+        mockMvc.perform(get("/api/dup/classes").param("repoId", "test-repo").header(HttpHeaders.IF_NONE_MATCH, "\"abc123\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void testStreamExport_WritesArchiveToResponse() throws Exception {
+        // Arrange
+        byte[] archive = "streamed dup content".getBytes(StandardCharsets.UTF_8);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(archive);
+            return null;
+        }).when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(dupExportController).build();
 
         // Act
-        ResponseEntity<Object> response = dupExportController.getClasses("test-repo");
+        MvcResult result = mockMvc.perform(post("/api/dup/export/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"repoId\":\"test-repo\",\"externalRepositoryName\":\"Test Repository\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"Test_Repository.dup\""))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_LENGTH))
+                .andExpect(content().bytes(archive));
+    }
+
+    @Test
+    void testStreamExport_StartsResponseBeforeFetching() throws IOException {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        ResponseEntity<StreamingResponseBody> response = dupExportController.streamExport(testRequest);
+        verifyNoInteractions(dupExportService);
+        response.getBody().writeTo(out);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertNotNull(response.getBody());
-        assertTrue(response.getBody() instanceof Map);
-        @SuppressWarnings("unchecked")
-        Map<String, Object> bodyMap = (Map<String, Object>) response.getBody();
-        assertTrue(bodyMap.containsKey("Business_Capability"));
+        verify(dupExportService).writeDUPExport(testRequest, out);
+    }
+
+    @Test
+    void testStreamExport_FetchFailureAbortsTheResponse() throws IOException {
+        // Arrange
+        doThrow(new IOException("Failed to fetch instances of class Business_Capability"))
+                .when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        ResponseEntity<StreamingResponseBody> response = dupExportController.streamExport(testRequest);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertThrows(IOException.class, () -> response.getBody().writeTo(out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testGetClasses_UnconfiguredRepository() {
+        // Arrange
+        when(classMetadataCache.get(eq("unknown-repo"))).thenReturn(Optional.empty());
+
+        // Act
+        ResponseEntity<Object> response = dupExportController.getClasses("unknown-repo");
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
 
     @Test
     void testGetClasses_ClientException() {
         // Arrange
-        when(easClient.getClassesMetadata(eq("test-repo")))
+        when(classMetadataCache.get(eq("test-repo")))
                 .thenThrow(new RuntimeException("EAS API Error"));
 
         // Act
@@ -216,6 +311,11 @@ class DUPExportControllerSimpleTest {
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
     }
 
+    private static ClassMetadataCache.ClassMetadata classMetadata() {
+        byte[] json = "{\"Business_Capability\":{\"slots\":[\"name\"]}}".getBytes(StandardCharsets.UTF_8);
+        return new ClassMetadataCache.ClassMetadata(json, "\"abc123\"", Instant.now());
+    }
+
     @Test
     void testGenerateExport_EmptyClassSelections() throws IOException {
         // Arrange
@@ -0,0 +1,167 @@
+package com.qtzar.essentialsexport.controllers;
+
+import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
+import com.qtzar.essentialsexport.services.ExportJobService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class ExportJobControllerTest {
+
+    private static final String REQUEST_JSON = "{\"repoId\":\"test-repo\",\"externalRepositoryName\":\"Test Repository\"}";
+
+    @Mock
+    private ExportJobService exportJobService;
+
+    @InjectMocks
+    private ExportJobController exportJobController;
+
+    @TempDir
+    Path tempDir;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(exportJobController).build();
+    }
+
+    @Test
+    void testSubmitJob_Accepted() throws Exception {
+        // Arrange
+        when(exportJobService.submit(any(DUPExportRequest.class))).thenReturn(job("job-1", ExportJobService.Status.QUEUED));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/dup/jobs").contentType(MediaType.APPLICATION_JSON).content(REQUEST_JSON))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "/api/dup/jobs/job-1"))
+                .andExpect(jsonPath("$.id").value("job-1"))
+                .andExpect(jsonPath("$.status").value("QUEUED"));
+    }
+
+    @Test
+    void testSubmitJob_QueueFull() throws Exception {
+        // Arrange
+        when(exportJobService.submit(any(DUPExportRequest.class))).thenThrow(new RejectedExecutionException());
+
+        // Act & Assert
+        mockMvc.perform(post("/api/dup/jobs").contentType(MediaType.APPLICATION_JSON).content(REQUEST_JSON))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void testListJobs() throws Exception {
+        // Arrange
+        when(exportJobService.list()).thenReturn(List.of(
+                job("job-2", ExportJobService.Status.RUNNING), job("job-1", ExportJobService.Status.SUCCEEDED)));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/jobs"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value("job-2"))
+                .andExpect(jsonPath("$[1].status").value("SUCCEEDED"));
+    }
+
+    @Test
+    void testGetJob_NotFound() throws Exception {
+        // Arrange
+        when(exportJobService.get("missing")).thenReturn(Optional.empty());
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/jobs/missing"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testDownloadJob_WholeArchive() throws Exception {
+        // Arrange
+        Path archive = archive("0123456789");
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/jobs/job-1/download"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"Test_Repository.dup\""))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"job-1\""))
+                .andExpect(content().bytes(Files.readAllBytes(archive)));
+    }
+
+    @Test
+    void testDownloadJob_ResumesFromARange() throws Exception {
+        // Arrange
+        archive("0123456789");
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/jobs/job-1/download").header(HttpHeaders.RANGE, "bytes=6-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 6-9/10"))
+                .andExpect(content().bytes("6789".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testDownloadJob_NotFinished() throws Exception {
+        // Arrange
+        when(exportJobService.get("job-1")).thenReturn(Optional.of(job("job-1", ExportJobService.Status.RUNNING)));
+        when(exportJobService.archive("job-1")).thenReturn(Optional.empty());
+
+        // Act & Assert
+        mockMvc.perform(get("/api/dup/jobs/job-1/download"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void testDeleteJob() throws Exception {
+        // Arrange
+        when(exportJobService.delete("job-1")).thenReturn(true);
+        when(exportJobService.delete("missing")).thenReturn(false);
+
+        // Act & Assert
+        mockMvc.perform(delete("/api/dup/jobs/job-1"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(delete("/api/dup/jobs/missing"))
+                .andExpect(status().isNotFound());
+        verify(exportJobService).delete("job-1");
+    }
+
+    private Path archive(String content) throws Exception {
+        Path archive = Files.writeString(tempDir.resolve("job-1.dup"), content);
+        when(exportJobService.get("job-1")).thenReturn(Optional.of(job("job-1", ExportJobService.Status.SUCCEEDED)));
+        when(exportJobService.archive("job-1")).thenReturn(Optional.of(archive));
+        return archive;
+    }
+
+    private static ExportJobService.ExportJob job(String id, ExportJobService.Status status) {
+        Instant now = Instant.now();
+        boolean finished = status == ExportJobService.Status.SUCCEEDED;
+        return new ExportJobService.ExportJob(id, "test-repo", "Test Repository", status, now,
+                status == ExportJobService.Status.QUEUED ? null : now, finished ? now : null, finished ? 10 : 0, null);
+    }
+}
@@ -0,0 +1,137 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.clients.EASClient;
+import com.qtzar.essentialsexport.configuration.EASMetadataProperties;
+import com.qtzar.essentialsexport.configuration.EASRepositoriesProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClassMetadataCacheTest {
+
+    @Mock
+    private EASClient easClient;
+
+    private EASRepositoriesProperties repositoriesProperties;
+    private EASMetadataProperties properties;
+    private ClassMetadataCache cache;
+
+    @BeforeEach
+    void setUp() {
+        repositoriesProperties = new EASRepositoriesProperties();
+        EASRepositoriesProperties.Repository repository = new EASRepositoriesProperties.Repository();
+        repository.setRepoId("repo");
+        repositoriesProperties.setRepositories(List.of(repository));
+        properties = new EASMetadataProperties();
+        cache = new ClassMetadataCache(easClient, repositoriesProperties, properties, JsonMapper.builder().build());
+    }
+
+    @Test
+    void testMetadataIsLoadedOnceAndServedAsJson() {
+        // Arrange
+        when(easClient.getClassesMetadata("repo")).thenReturn(Map.of("Business_Capability", Map.of("slots", List.of("name"))));
+
+        // Act
+        ClassMetadataCache.ClassMetadata first = cache.get("repo").orElseThrow();
+        ClassMetadataCache.ClassMetadata second = cache.get("repo").orElseThrow();
+
+        // Assert
+        verify(easClient, times(1)).getClassesMetadata("repo");
+        assertSame(first, second);
+        assertEquals("{\"Business_Capability\":{\"slots\":[\"name\"]}}", new String(first.json(), StandardCharsets.UTF_8));
+        assertTrue(first.etag().startsWith("\"") && first.etag().endsWith("\""));
+    }
+
+    @Test
+    void testETagChangesOnlyWithContent() {
+        // Arrange
+        when(easClient.getClassesMetadata("repo"))
+                .thenReturn(Map.of("A", Map.of()))
+                .thenReturn(Map.of("A", Map.of()))
+                .thenReturn(Map.of("B", Map.of()));
+        String original = cache.get("repo").orElseThrow().etag();
+
+        // Act
+        cache.refreshAll();
+        String unchanged = cache.get("repo").orElseThrow().etag();
+        cache.refreshAll();
+        String changed = cache.get("repo").orElseThrow().etag();
+
+        // Assert
+        assertEquals(original, unchanged);
+        assertNotEquals(original, changed);
+    }
+
+    @Test
+    void testRefreshAllPrewarmsConfiguredRepositories() {
+        // Arrange
+        EASRepositoriesProperties.Repository production = new EASRepositoriesProperties.Repository();
+        production.setRepoId("prod");
+        EASRepositoriesProperties.Repository development = new EASRepositoriesProperties.Repository();
+        development.setRepoId("dev");
+        repositoriesProperties.setRepositories(List.of(production, development));
+        when(easClient.getClassesMetadata(anyString())).thenReturn(Map.of());
+
+        // Act
+        cache.refreshAll();
+        cache.get("prod");
+        cache.get("dev");
+
+        // Assert
+        verify(easClient, times(1)).getClassesMetadata("prod");
+        verify(easClient, times(1)).getClassesMetadata("dev");
+    }
+
+    @Test
+    void testFailedRefreshKeepsServingPreviousMetadata() {
+        // Arrange
+        when(easClient.getClassesMetadata("repo"))
+                .thenReturn(Map.of("A", Map.of()))
+                .thenThrow(new IllegalStateException("EAS unavailable"));
+        ClassMetadataCache.ClassMetadata loaded = cache.get("repo").orElseThrow();
+
+        // Act
+        cache.refreshAll();
+
+        // Assert
+        assertSame(loaded, cache.get("repo").orElseThrow());
+    }
+
+    @Test
+    void testUnconfiguredRepositoryIsNeitherLoadedNorRefreshed() {
+        // Act
+        var unconfigured = cache.get("unknown");
+        cache.refreshAll();
+
+        // Assert
+        assertTrue(unconfigured.isEmpty());
+        verify(easClient, never()).getClassesMetadata("unknown");
+        verify(easClient, times(1)).getClassesMetadata("repo");
+    }
+
+    @Test
+    void testExpiredMetadataIsReloadedOnRequest() {
+        // Arrange
+        properties.setMaxAge(Duration.ZERO);
+        when(easClient.getClassesMetadata("repo")).thenReturn(Map.of());
+
+        // Act
+        cache.get("repo");
+        cache.get("repo");
+
+        // Assert
+        verify(easClient, times(2)).getClassesMetadata("repo");
+    }
+}
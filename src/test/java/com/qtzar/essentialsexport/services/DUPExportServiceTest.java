@@ -1,19 +1,39 @@
 package com.qtzar.essentialsexport.services;
 
 import com.qtzar.essentialsexport.clients.EASClient;
+import com.qtzar.essentialsexport.configuration.EASCacheProperties;
+import com.qtzar.essentialsexport.configuration.EASExportProperties;
+import com.qtzar.essentialsexport.configuration.EASFetchProperties;
 import com.qtzar.essentialsexport.model.dup.ClassSelection;
 import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
 import com.qtzar.essentialsexport.model.dup.FieldSelection;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Stubber;
+import org.springframework.util.unit.DataSize;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -27,6 +47,21 @@ class DUPExportServiceTest {
     @Mock
     private EASClient easClient;
 
+    @Spy
+    private EASFetchProperties fetchProperties = new EASFetchProperties();
+
+    @Mock
+    private SnapshotStore snapshotStore;
+
+    @Spy
+    private InstanceCache instanceCache = new InstanceCache(new EASCacheProperties(), new SimpleMeterRegistry());
+
+    @Spy
+    private EASExportProperties exportProperties = new EASExportProperties();
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private DUPExportService dupExportService;
 
@@ -60,8 +95,8 @@ class DUPExportServiceTest {
         instance1.put("description", "Test description");
         instance1.put("owner", "owner1");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance1));
+        onePage(instances(instance1)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -98,8 +133,8 @@ class DUPExportServiceTest {
         instance2.put("className", "Business_Capability");
         instance2.put("description", "Test");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Arrays.asList(instance1, instance2));
+        onePage(instances(instance1, instance2)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -126,8 +161,8 @@ class DUPExportServiceTest {
         instance.put("className", "Business_Capability");
         instance.put("description", "Test");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -154,8 +189,8 @@ class DUPExportServiceTest {
         instance.put("description", "Test");
         instance.put("owner", refObject); // Reference object
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -178,8 +213,8 @@ class DUPExportServiceTest {
         instance.put("className", "Business_Capability");
         instance.put("description", Arrays.asList("Desc1", "Desc2", "Desc3"));
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -205,8 +240,8 @@ class DUPExportServiceTest {
         instance.put("className", "Business_Capability");
         instance.put("description", "Test with \\ backslash");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -247,10 +282,10 @@ class DUPExportServiceTest {
         instance2.put("name", "Service 1");
         instance2.put("className", "Application_Service");
 
-        when(easClient.getAllInstancesAsMap(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance1));
-        when(easClient.getAllInstancesAsMap(eq("test-repo"), eq("Application_Service"), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance2));
+        onePage(instances(instance1)).when(easClient)
+            .streamInstances(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString(), any());
+        onePage(instances(instance2)).when(easClient)
+            .streamInstances(eq("test-repo"), eq("Application_Service"), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -293,8 +328,8 @@ class DUPExportServiceTest {
         instance.put("description", "Should not appear");
         instance.put("owner", "owner1");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -319,8 +354,8 @@ class DUPExportServiceTest {
         instance.put("description", null);
         instance.put("owner", "owner1");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -337,21 +372,281 @@ class DUPExportServiceTest {
     @Test
     void testGenerateDUPExport_ClientException() {
         // Arrange
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenThrow(new RuntimeException("EAS API Error"));
+        doThrow(new RuntimeException("EAS API Error")).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
-        // Act & Assert - should not throw exception, should handle gracefully
-        assertDoesNotThrow(() -> {
-            byte[] result = dupExportService.generateDUPExport(testRequest);
-            assertNotNull(result);
-        });
+        // Act & Assert - a class that cannot be fetched fails the export rather than being left out
+        IOException e = assertThrows(IOException.class, () -> dupExportService.generateDUPExport(testRequest));
+        assertTrue(e.getMessage().contains("Business_Capability"));
+        assertEquals("EAS API Error", e.getCause().getMessage());
+    }
+
+    @Test
+    void testWriteDUPExport_StreamsSameArchive() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("description", "Unicode caf\u00e9 \u2013 linked to inst1");
+
+        onePage(instances(instance1)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+
+        // Act
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        dupExportService.writeDUPExport(testRequest, streamed);
+        byte[] generated = dupExportService.generateDUPExport(testRequest);
+
+        // Assert
+        Map<String, String> zipContents = readZipContents(streamed.toByteArray());
+        assertEquals(readZipContents(generated), zipContents);
+        // Non-ASCII characters are written as Python escapes
+        assertTrue(zipContents.get("dup_import_script.py").contains("u'Unicode caf\\u00e9 \\u2013 linked to TST_1'"));
+    }
+
+    @Test
+    void testWriteDUPExport_FetchFailureWritesNothing() {
+        // Arrange
+        doThrow(new RuntimeException("EAS API Error")).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act & Assert
+        assertThrows(IOException.class, () -> dupExportService.writeDUPExport(testRequest, out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testGenerateDUPExport_NoChunkTokensByDefault() throws IOException {
+        // Arrange
+        onePage(capabilities(5)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert
+        assertFalse(script.contains(ChunkingWriter.CHUNK_TOKEN));
+    }
+
+    @Test
+    void testGenerateDUPExport_ChunksByInstanceCount() throws IOException {
+        // Arrange
+        onePage(capabilities(5)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setChunkSize(2);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - 5 instances in each pass make 10 instance blocks, so 5 chunks
+        String[] chunks = script.split(ChunkingWriter.CHUNK_TOKEN + "\n", -1);
+        assertEquals(5, chunks.length);
+        assertTrue(chunks[0].contains("defineExternalRepository"));
+        assertTrue(chunks[2].contains("Record_5=EssentialGetInstance"));
+        assertTrue(chunks[2].contains("addIfNotThere(Record_1, 'description'"));
+        assertTrue(chunks[4].contains("addIfNotThere(Record_5, 'description'"));
+        for (String chunk : chunks) {
+            assertFalse(chunk.isBlank());
+            // Every statement is whole within its chunk
+            for (String line : chunk.split("\n")) {
+                assertTrue(line.isEmpty() || line.startsWith("#") || line.endsWith(")") || line.startsWith("from "), line);
+            }
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_ChunksBySize() throws IOException {
+        // Arrange
+        onePage(capabilities(200)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setChunkKilobytes(4);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - no chunk is much over the limit, as it only ends after a whole instance
+        String[] chunks = script.split(ChunkingWriter.CHUNK_TOKEN + "\n", -1);
+        assertTrue(chunks.length > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() < 4 * 1024 + 512, "Chunk of " + chunk.length() + " characters");
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_CompactScript() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("description", "It's first");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+        instance2.put("owner", "inst1");
+
+        onePage(instances(instance1, instance2)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setCompactScript(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert
+        assertTrue(script.contains("_R = [None] * 2\n"));
+        assertTrue(script.contains("_createInstances('Business_Capability', [\n"
+            + "(0, u'TST_1', u'Capability 1'),\n"
+            + "(1, u'TST_2', u'Capability 2'),\n"
+            + "])\n"));
+        assertTrue(script.contains("_addSlotValues(('description', 'owner'), [\n"
+            + "(0, u'It\\'s first', None),\n"
+            + "(1, None, _R[0]),\n"
+            + "])\n"));
+        assertFalse(script.contains("Record_"));
+    }
+
+    @Test
+    void testGenerateDUPExport_CompactScriptChunksBetweenBatches() throws IOException {
+        // Arrange
+        onePage(capabilities(5)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setCompactScript(true);
+        testRequest.setChunkSize(2);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - batches of 2, 2 and 1 rows in each pass; the last of the first pass shares a chunk
+        String[] chunks = script.split(ChunkingWriter.CHUNK_TOKEN + "\n", -1);
+        assertEquals(5, chunks.length);
+        assertTrue(chunks[0].contains("def _createInstances"));
+        for (String chunk : chunks) {
+            assertTrue(chunk.strip().endsWith("])"), chunk);
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_OptimisedFunctions() throws IOException {
+        // Arrange
+        onePage(capabilities(1)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        String standardFunctions = readZipContents(dupExportService.generateDUPExport(testRequest)).get("standardFunctions.py");
+        testRequest.setOptimisedFunctions(true);
+
+        // Act
+        Map<String, String> zipContents = readZipContents(dupExportService.generateDUPExport(testRequest));
+
+        // Assert - appended to the standard pack, which update.info already lists
+        String functions = zipContents.get("standardFunctions.py");
+        assertTrue(functions.startsWith(standardFunctions));
+        assertTrue(functions.contains("def getCachedSlot(theSlotName):"));
+        assertTrue(functions.contains("def addIfNotThere(theInstance, theSlotName, theInstanceToAdd):"));
+        assertFalse(standardFunctions.contains("def getCachedSlot"));
+        assertFalse(zipContents.containsKey("optimisedFunctions.py"));
+    }
+
+    @Test
+    void testGenerateDUPExport_IndexedLookups() throws IOException {
+        // Arrange
+        onePage(capabilities(2)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setIndexedLookups(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - the index is built once, before any instance is looked up
+        assertTrue(script.contains("def _getInstance(theClassName, theInstanceID, theInstanceName, theExternalID, theExternalRepositoryName):"));
+        int buildIndex = script.indexOf("_buildIndex('Business_Capability')\n");
+        assertTrue(buildIndex > 0);
+        assertEquals(buildIndex, script.lastIndexOf("_buildIndex('Business_Capability')"));
+        assertTrue(script.indexOf("Record_1=_getInstance('Business_Capability', u'TST_1'") > buildIndex);
+        assertFalse(script.contains("EssentialGetInstance("));
+
+        // Assert - the external repository is only looked up once, not for each instance
+        assertEquals(script.indexOf("getExternalRepository("), script.lastIndexOf("getExternalRepository("));
+        assertFalse(script.contains("ProcessFoundInstance("));
+        assertFalse(script.contains("UpdateOrAddExternalRef("));
+        assertFalse(script.contains("AddExternalReferenceID("));
+
+        // Assert - a found instance that is renamed moves to its new name in the index
+        int rename = script.indexOf("UpdateEssentialInstanceName(anInstance, theInstanceName)\n");
+        assertTrue(script.indexOf("_renameInIndex(aNames, anInstance, anOldName,", rename) > rename);
+    }
+
+    @Test
+    void testGenerateDUPExport_IndexedLookupsInCompactScript() throws IOException {
+        // Arrange
+        onePage(capabilities(2)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setIndexedLookups(true);
+        testRequest.setCompactScript(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert
+        assertTrue(script.contains("        aRecord = _getInstance(theClassName, anID, aName, anID, _REPO)\n"));
+        assertFalse(script.contains("EssentialGetInstance("));
+    }
+
+    @Test
+    void testGenerateDUPExport_SinglePass() throws IOException {
+        // Arrange - inst1 refers to inst2, and inst2 and inst3 refer to each other
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("owner", "inst2");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+        instance2.put("description", "Second");
+        instance2.put("owner", Map.of("id", "inst3", "name", "Capability 3"));
+
+        Map<String, Object> instance3 = new HashMap<>();
+        instance3.put("id", "inst3");
+        instance3.put("name", "Capability 3");
+        instance3.put("className", "Business_Capability");
+        instance3.put("owner", List.of("inst2"));
+
+        onePage(instances(instance1, instance2, instance3)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        testRequest.setSinglePass(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - each instance is created once, after the instances it refers to where possible
+        assertFalse(script.contains("SECOND PASS"));
+        int create2 = script.indexOf("Record_2=EssentialGetInstance(");
+        int description2 = script.indexOf("addIfNotThere(Record_2, 'description', u'Second')");
+        int create3 = script.indexOf("Record_3=EssentialGetInstance(");
+        int owner3 = script.indexOf("addIfNotThere(Record_3, 'owner', Record_2)");
+        int owner2 = script.indexOf("addIfNotThere(Record_2, 'owner', Record_3)");
+        int create1 = script.indexOf("Record_1=EssentialGetInstance(");
+        int owner1 = script.indexOf("addIfNotThere(Record_1, 'owner', Record_2)");
+        assertTrue(create2 >= 0 && create2 < description2, script);
+        assertTrue(description2 < create3, script);
+        assertTrue(create3 < owner3, script);
+        // Only the field referring forward within the cycle is deferred
+        assertTrue(owner3 < owner2, script);
+        assertTrue(owner2 < create1, script);
+        assertTrue(create1 < owner1, script);
+        assertEquals(create1, script.lastIndexOf("Record_1=EssentialGetInstance("));
     }
 
     @Test
     void testGenerateDUPExport_EmptyInstances() throws IOException {
         // Arrange
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.emptyList());
+        onePage(Collections.emptyList()).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -376,8 +671,8 @@ class DUPExportServiceTest {
         instance.put("description", true);
         instance.put("owner", 42);
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Collections.singletonList(instance));
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -406,8 +701,8 @@ class DUPExportServiceTest {
         instance2.put("name", "Instance 2");
         instance2.put("className", "Business_Capability");
 
-        when(easClient.getAllInstancesAsMap(anyString(), anyString(), anyInt(), anyString()))
-            .thenReturn(Arrays.asList(instance1, instance2));
+        onePage(instances(instance1, instance2)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
 
         // Act
         byte[] result = dupExportService.generateDUPExport(testRequest);
@@ -423,6 +718,479 @@ class DUPExportServiceTest {
         assertTrue(script.contains("TST_2"));
     }
 
+    @Test
+    void testGenerateDUPExport_ConcurrentFetchKeepsRequestOrder() throws IOException {
+        // Arrange
+        ClassSelection class2 = new ClassSelection();
+        class2.setClassName("Application_Service");
+        class2.setSelected(true);
+        class2.setFields(Collections.singletonList(new FieldSelection("name", true)));
+
+        List<ClassSelection> classSelections = new ArrayList<>(testRequest.getClassSelections());
+        classSelections.add(class2);
+        testRequest.setClassSelections(classSelections);
+
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Service 1");
+        instance2.put("className", "Application_Service");
+
+        // The first class in the request finishes last
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            invocation.<Consumer<List<EASInstance>>>getArgument(4).accept(instances(instance1));
+            return null;
+        }).when(easClient).streamInstances(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString(), any());
+        onePage(instances(instance2)).when(easClient)
+            .streamInstances(eq("test-repo"), eq("Application_Service"), anyInt(), anyString(), any());
+
+        // Act
+        byte[] result = dupExportService.generateDUPExport(testRequest);
+
+        // Assert
+        String script = readZipContents(result).get("dup_import_script.py");
+        assertTrue(script.indexOf("# Class: Business_Capability") < script.indexOf("# Class: Application_Service"));
+        assertTrue(script.contains("Record_1=EssentialGetInstance('Business_Capability'"));
+        assertTrue(script.contains("Record_2=EssentialGetInstance('Application_Service'"));
+    }
+
+    @Test
+    void testGenerateDUPExport_ServedFromSnapshot() throws IOException {
+        // Arrange
+        Map<String, Object> instance = new HashMap<>();
+        instance.put("id", "inst1");
+        instance.put("name", "Capability 1");
+        instance.put("className", "Business_Capability");
+        Instant fetchedAt = Instant.now().minus(Duration.ofHours(5)).truncatedTo(ChronoUnit.SECONDS);
+        when(snapshotStore.read(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString()))
+            .thenReturn(Optional.of(new SnapshotStore.Snapshot(instances(instance), fetchedAt)));
+
+        // Act
+        byte[] result = dupExportService.generateDUPExport(testRequest);
+
+        // Assert - the script says how old the snapshot is, and it is not cached
+        String script = readZipContents(result).get("dup_import_script.py");
+        assertTrue(script.contains("Capability 1"));
+        assertTrue(script.contains("#   Business_Capability: " + fetchedAt + " (5h 0m ago)\n"));
+        assertTrue(instanceCache.getEntries().isEmpty());
+        verifyNoInteractions(easClient);
+        verify(snapshotStore, never()).write(anyString(), anyString(), anyInt(), anyString(), anyList());
+    }
+
+    @Test
+    void testGenerateDUPExport_RefreshFromEasBypassesSnapshotAndCache() throws IOException {
+        // Arrange
+        Map<String, Object> instance = new HashMap<>();
+        instance.put("id", "inst1");
+        instance.put("name", "Capability 1");
+        instance.put("className", "Business_Capability");
+        onePage(instances(instance)).when(easClient)
+            .streamInstances(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString(), any());
+        dupExportService.generateDUPExport(testRequest);
+        testRequest.setRefreshFromEas(true);
+
+        // Act
+        dupExportService.generateDUPExport(testRequest);
+
+        // Assert
+        verify(easClient, times(2)).streamInstances(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString(), any());
+        verify(snapshotStore, times(1)).read(anyString(), anyString(), anyInt(), anyString());
+        verify(snapshotStore, times(2)).write(eq("test-repo"), eq("Business_Capability"), anyInt(), anyString(), anyList());
+    }
+
+    @Test
+    void testGenerateDUPExport_SpillsBeyondMemoryBudget(@TempDir Path spillDirectory) throws IOException {
+        // Arrange
+        onePage(capabilities(3)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        byte[] inMemory = dupExportService.generateDUPExport(testRequest);
+        exportProperties.setMemoryBudget(DataSize.ofBytes(1));
+        exportProperties.setSpillDirectory(spillDirectory);
+
+        // Act
+        byte[] spilled = dupExportService.generateDUPExport(testRequest);
+
+        // Assert
+        assertEquals(readZipContents(inMemory), readZipContents(spilled));
+        assertTrue(meterRegistry.counter("eas.export.spill.bytes").count() > 0);
+        verify(instanceCache).invalidate("test-repo", "Business_Capability");
+        assertTrue(instanceCache.getEntries().isEmpty());
+        try (var files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_SpillsPageByPageOnceBudgetIsUsedUp(@TempDir Path spillDirectory) throws IOException {
+        // Arrange - a page of one at a time, with a budget that only two of them fit
+        List<EASInstance> capabilities = capabilities(5);
+        List<String> fieldNames = List.of("description", "owner");
+        doAnswer(invocation -> {
+            Consumer<List<EASInstance>> pages = invocation.getArgument(4);
+            capabilities.forEach(instance -> pages.accept(List.of(instance)));
+            return null;
+        }).when(easClient).streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        byte[] inMemory = dupExportService.generateDUPExport(testRequest);
+        exportProperties.setMemoryBudget(DataSize.ofBytes(InstanceColumns.estimateBytes(capabilities.subList(0, 1), fieldNames)
+                + InstanceColumns.estimateBytes(capabilities.subList(1, 2), fieldNames)));
+        exportProperties.setSpillDirectory(spillDirectory);
+        testRequest.setRefreshFromEas(true);
+
+        // Act
+        byte[] spilled = dupExportService.generateDUPExport(testRequest);
+
+        // Assert - the class is written from where it was spilled as it was fetched
+        assertEquals(readZipContents(inMemory), readZipContents(spilled));
+        assertTrue(meterRegistry.counter("eas.export.spill.bytes").count() > 0);
+        assertTrue(instanceCache.getEntries().isEmpty());
+        verify(snapshotStore, times(1)).write(anyString(), anyString(), anyInt(), anyString(), anyList());
+    }
+
+    @Test
+    void testGenerateDUPExport_SinglePassStopsAtThePageBeyondMemoryBudget() {
+        // Arrange
+        List<EASInstance> capabilities = capabilities(5);
+        AtomicInteger acceptedPages = new AtomicInteger();
+        doAnswer(invocation -> {
+            Consumer<List<EASInstance>> pages = invocation.getArgument(4);
+            for (EASInstance instance : capabilities) {
+                pages.accept(List.of(instance));
+                acceptedPages.incrementAndGet();
+            }
+            return null;
+        }).when(easClient).streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        exportProperties.setMemoryBudget(DataSize.ofBytes(
+                InstanceColumns.estimateBytes(capabilities.subList(0, 1), List.of("description", "owner"))));
+        testRequest.setSinglePass(true);
+
+        // Act
+        IOException e = assertThrows(IOException.class, () -> dupExportService.generateDUPExport(testRequest));
+
+        // Assert - the second page is the first that does not fit, and no page after it is fetched
+        assertTrue(e.getMessage().contains("exceeds its memory budget"));
+        assertEquals(1, acceptedPages.get());
+    }
+
+    @Test
+    void testGenerateDUPExport_SinglePassBeyondMemoryBudget(@TempDir Path spillDirectory) throws IOException {
+        // Arrange
+        onePage(capabilities(3)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        exportProperties.setMemoryBudget(DataSize.ofBytes(1));
+        exportProperties.setSpillDirectory(spillDirectory);
+        testRequest.setSinglePass(true);
+
+        // Act
+        IOException e = assertThrows(IOException.class, () -> dupExportService.generateDUPExport(testRequest));
+
+        // Assert
+        assertTrue(e.getMessage().contains("exceeds its memory budget"));
+        assertTrue(e.getMessage().contains("Business_Capability"));
+        try (var files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testPrepareDUPExport_CloseWithoutWritingDeletesSpill(@TempDir Path spillDirectory) throws IOException {
+        // Arrange
+        onePage(capabilities(3)).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+        exportProperties.setMemoryBudget(DataSize.ofBytes(1));
+        exportProperties.setSpillDirectory(spillDirectory);
+        DUPExportService.PreparedExport export = dupExportService.prepareDUPExport(testRequest);
+
+        // Act
+        export.close();
+
+        // Assert
+        try (var files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_Pipelined(@TempDir Path spillDirectory) throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("description", "It's first");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+        instance2.put("owner", "inst1");
+
+        streamPages(instances(instance2, instance1), instances(instance1, instance2));
+        exportProperties.setSpillDirectory(spillDirectory);
+        testRequest.setPipelined(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - record variables follow the first pass, which fetched inst2 first
+        int secondPass = script.indexOf("# SECOND PASS");
+        int create1 = script.indexOf("Record_2=EssentialGetInstance('Business_Capability', u'TST_2', u'Capability 1'");
+        int create2 = script.indexOf("Record_1=EssentialGetInstance('Business_Capability', u'TST_1', u'Capability 2'");
+        assertTrue(create1 >= 0 && create1 < create2 && create2 < secondPass);
+        assertTrue(script.indexOf("_addIfPresent(Record_2, 'description', u'It\\'s first')") > secondPass);
+        assertTrue(script.indexOf("_addIfPresent(Record_1, 'owner', Record_2)") > secondPass);
+        int addIfPresent = script.indexOf("\n_addIfPresent = addIfNotThere\n");
+        assertTrue(addIfPresent >= 0 && addIfPresent < secondPass);
+        verify(easClient).streamInstances(eq("test-repo"), eq("Business_Capability"), eq(1), eq("id"), any());
+        verify(instanceCache, never()).refresh(anyString(), anyString(), anyInt(), anyString(), any());
+        verifyNoInteractions(snapshotStore);
+        try (var files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testGenerateDUPExport_PipelinedFetchesClassesAtOnceInRequestOrder() throws IOException {
+        // Arrange - each pass over the first class only completes once the second class has been fetched
+        ClassSelection class2 = new ClassSelection();
+        class2.setClassName("Application_Service");
+        class2.setSelected(true);
+        class2.setFields(Collections.singletonList(new FieldSelection("name", true)));
+        List<ClassSelection> classSelections = new ArrayList<>(testRequest.getClassSelections());
+        classSelections.add(class2);
+        testRequest.setClassSelections(classSelections);
+        testRequest.setPipelined(true);
+
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Service 1");
+        instance2.put("className", "Application_Service");
+
+        CountDownLatch secondIdsFetched = new CountDownLatch(1);
+        CountDownLatch secondInstancesFetched = new CountDownLatch(1);
+        AtomicInteger overlappingPasses = new AtomicInteger();
+        doAnswer(invocation -> {
+            Consumer<List<EASInstance>> pages = invocation.getArgument(4);
+            CountDownLatch secondFetched = "id".equals(invocation.getArgument(3)) ? secondIdsFetched : secondInstancesFetched;
+            if ("Business_Capability".equals(invocation.getArgument(1))) {
+                if (secondFetched.await(5, TimeUnit.SECONDS)) {
+                    overlappingPasses.incrementAndGet();
+                }
+                pages.accept(instances(instance1));
+            } else {
+                pages.accept(instances(instance2));
+                secondFetched.countDown();
+            }
+            return null;
+        }).when(easClient).streamInstances(anyString(), anyString(), anyInt(), anyString(), any());
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert
+        assertEquals(2, overlappingPasses.get());
+        int create1 = script.indexOf("Record_1=EssentialGetInstance('Business_Capability'");
+        int create2 = script.indexOf("Record_2=EssentialGetInstance('Application_Service'");
+        assertTrue(create1 >= 0 && create1 < create2);
+    }
+
+    @Test
+    void testGenerateDUPExport_PipelinedCompactScript() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("description", "It's first");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+        instance2.put("owner", "inst1");
+
+        streamPages(instances(instance1, instance2), instances(instance1, instance2));
+        testRequest.setCompactScript(true);
+        testRequest.setPipelined(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - each page is written as batches of its own
+        assertTrue(script.contains("_R = [None] * 2\n"));
+        assertTrue(script.contains("_createInstances('Business_Capability', [\n"
+            + "(0, u'TST_1', u'Capability 1'),\n"
+            + "])\n"
+            + "_createInstances('Business_Capability', [\n"
+            + "(1, u'TST_2', u'Capability 2'),\n"
+            + "])\n"));
+        assertTrue(script.contains("_addSlotValues(('description', 'owner'), [\n"
+            + "(0, u'It\\'s first', None),\n"
+            + "])\n"
+            + "_addSlotValues(('description', 'owner'), [\n"
+            + "(1, None, _R[0]),\n"
+            + "])\n"));
+        assertTrue(script.indexOf("# SECOND PASS") < script.indexOf("_addSlotValues(("));
+    }
+
+    @Test
+    void testGenerateDUPExport_PipelinedSkipsInstancesCreatedSinceItsIdsWereFetched() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+
+        streamPages(instances(instance1), instances(instance1, instance2));
+        testRequest.setPipelined(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert
+        assertTrue(script.contains("Capability 1"));
+        assertFalse(script.contains("Capability 2"));
+    }
+
+    @Test
+    void testGenerateDUPExport_PipelinedDropsInstancesDeletedSinceItsIdsWereFetched() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("owner", "inst2");
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+
+        streamPages(instances(instance1, instance2), instances(instance1));
+        testRequest.setPipelined(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - the deleted instance is bound to None before the second pass refers to it
+        int secondPass = script.indexOf("# SECOND PASS");
+        int deleted = script.indexOf("Record_2=None\n");
+        assertTrue(deleted >= 0 && deleted < secondPass);
+        int addIfPresent = script.indexOf("def _addIfPresent(");
+        assertTrue(addIfPresent >= 0 && addIfPresent < secondPass);
+        assertTrue(script.indexOf("_addIfPresent(Record_1, 'owner', Record_2)") > secondPass);
+        assertFalse(script.contains("def addIfNotThere("));
+        assertFalse(script.contains("EssentialGetInstance('Business_Capability', u'TST_2'"));
+    }
+
+    @Test
+    void testGenerateDUPExport_PipelinedCompactScriptDropsDeletedInstances() throws IOException {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+        instance1.put("owner", List.of("inst2"));
+
+        Map<String, Object> instance2 = new HashMap<>();
+        instance2.put("id", "inst2");
+        instance2.put("name", "Capability 2");
+        instance2.put("className", "Business_Capability");
+
+        streamPages(instances(instance1, instance2), instances(instance1));
+        testRequest.setPipelined(true);
+        testRequest.setCompactScript(true);
+
+        // Act
+        String script = readZipContents(dupExportService.generateDUPExport(testRequest)).get("dup_import_script.py");
+
+        // Assert - the record list already holds None for the deleted instance
+        int secondPass = script.indexOf("# SECOND PASS");
+        int addIfPresent = script.indexOf("def _addIfPresent(");
+        assertTrue(addIfPresent >= 0 && addIfPresent < secondPass);
+        assertFalse(script.contains("def addIfNotThere("));
+        assertFalse(script.contains("=None\n"));
+        assertTrue(script.indexOf("_addSlotValues(") > secondPass);
+    }
+
+    @Test
+    void testWriteDUPExport_PipelinedFetchFailure() {
+        // Arrange
+        Map<String, Object> instance1 = new HashMap<>();
+        instance1.put("id", "inst1");
+        instance1.put("name", "Capability 1");
+        instance1.put("className", "Business_Capability");
+
+        streamPages(instances(instance1), instances(instance1));
+        doThrow(new RuntimeException("EAS API Error")).when(easClient)
+            .streamInstances(anyString(), anyString(), anyInt(), argThat(slots -> !"id".equals(slots)), any());
+        testRequest.setPipelined(true);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act & Assert - the archive is left without the end of its central directory
+        IOException e = assertThrows(IOException.class, () -> dupExportService.writeDUPExport(testRequest, out));
+        assertTrue(e.getMessage().contains("Business_Capability"));
+        assertFalse(out.toString(StandardCharsets.ISO_8859_1).contains("PK\u0005\u0006"));
+    }
+
+    /**
+     * Stub the client to stream instances a page of one at a time, the IDs of the first pass of a
+     * pipelined export from one list and the full instances from another.
+     */
+    @SuppressWarnings("unchecked")
+    private void streamPages(List<EASInstance> ids, List<EASInstance> instances) {
+        doAnswer(invocation -> {
+            Consumer<List<EASInstance>> pages = invocation.getArgument(4);
+            List<EASInstance> streamed = "id".equals(invocation.getArgument(3)) ? ids : instances;
+            streamed.forEach(instance -> pages.accept(List.of(instance)));
+            return null;
+        }).when(easClient).streamInstances(anyString(), anyString(), anyInt(), anyString(), any(Consumer.class));
+    }
+
+    /**
+     * Answer a stream of instances with all of them as a single page.
+     */
+    private static Stubber onePage(List<EASInstance> instances) {
+        return doAnswer(invocation -> {
+            Consumer<List<EASInstance>> pages = invocation.getArgument(4);
+            pages.accept(instances);
+            return null;
+        });
+    }
+
+    @SafeVarargs
+    private static List<EASInstance> instances(Map<String, Object>... instances) {
+        return Arrays.stream(instances).map(EASInstance::fromMap).toList();
+    }
+
+    private static List<EASInstance> capabilities(int count) {
+        List<EASInstance> capabilities = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            Map<String, Object> instance = new HashMap<>();
+            instance.put("id", "inst" + i);
+            instance.put("name", "Capability " + i);
+            instance.put("className", "Business_Capability");
+            instance.put("description", "Description of capability " + i);
+            capabilities.add(EASInstance.fromMap(instance));
+        }
+        return capabilities;
+    }
+
     private Map<String, String> readZipContents(byte[] zipData) throws IOException {
         Map<String, String> contents = new HashMap<>();
 
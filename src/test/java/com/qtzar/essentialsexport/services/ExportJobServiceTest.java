@@ -0,0 +1,213 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASJobProperties;
+import com.qtzar.essentialsexport.model.dup.DUPExportRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(MockitoExtension.class)
+class ExportJobServiceTest {
+
+    @Mock
+    private DUPExportService dupExportService;
+
+    @TempDir
+    Path artifactDirectory;
+
+    private EASJobProperties properties;
+    private ExportJobService service;
+    private DUPExportRequest request;
+
+    @BeforeEach
+    void setUp() {
+        properties = new EASJobProperties();
+        properties.setArtifactDirectory(artifactDirectory);
+        properties.setMaxConcurrentJobs(1);
+        properties.setQueueCapacity(1);
+        service = new ExportJobService(dupExportService, properties, JsonMapper.builder().build());
+
+        request = new DUPExportRequest();
+        request.setRepoId("test-repo");
+        request.setExternalRepositoryName("Test Repository");
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testSubmittedJobWritesItsArchive() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write("dup content".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+
+        // Act
+        ExportJobService.ExportJob queued = service.submit(request);
+        ExportJobService.ExportJob finished = awaitFinished(queued.id());
+
+        // Assert
+        assertEquals(ExportJobService.Status.QUEUED, queued.status());
+        assertEquals(ExportJobService.Status.SUCCEEDED, finished.status());
+        assertEquals("Test Repository", finished.externalRepositoryName());
+        assertEquals(11, finished.size());
+        assertNotNull(finished.startedAt());
+        Path archive = service.archive(queued.id()).orElseThrow();
+        assertEquals("dup content", Files.readString(archive));
+        assertTrue(Files.exists(artifactDirectory.resolve(queued.id() + ".json")));
+        assertEquals(1, service.list().size());
+    }
+
+    @Test
+    void testFailedJobKeepsItsErrorAndNoFiles() throws Exception {
+        // Arrange
+        doThrow(new IOException("Failed to fetch instances of class Business_Capability"))
+                .when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+
+        // Act
+        ExportJobService.ExportJob finished = awaitFinished(service.submit(request).id());
+
+        // Assert
+        assertEquals(ExportJobService.Status.FAILED, finished.status());
+        assertEquals("Failed to fetch instances of class Business_Capability", finished.error());
+        assertTrue(service.archive(finished.id()).isEmpty());
+        try (var files = Files.list(artifactDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testSubmissionsBeyondTheQueueAreRefused() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        }).when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+
+        try {
+            service.submit(request);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            service.submit(request);
+
+            // Act & Assert
+            assertThrows(RejectedExecutionException.class, () -> service.submit(request));
+            assertEquals(2, service.list().size());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testDeletingAQueuedJobFreesItsPlaceInTheQueue() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return null;
+        }).when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+
+        try {
+            service.submit(request);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            String queued = service.submit(request).id();
+
+            // Act
+            boolean deleted = service.delete(queued);
+
+            // Assert
+            assertTrue(deleted);
+            assertTrue(service.get(queued).isEmpty());
+            assertFalse(service.delete(queued));
+            assertDoesNotThrow(() -> service.submit(request));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testFinishedJobsAreRestoredAfterARestart() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write("dup content".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(dupExportService).writeDUPExport(any(DUPExportRequest.class), any(OutputStream.class));
+        ExportJobService.ExportJob finished = awaitFinished(service.submit(request).id());
+        service.shutdown();
+        Files.writeString(artifactDirectory.resolve("interrupted.dup.part"), "partial");
+        Files.writeString(artifactDirectory.resolve("orphaned.dup"), "no job");
+
+        // Act
+        service = new ExportJobService(dupExportService, properties, JsonMapper.builder().build());
+        service.restore();
+
+        // Assert
+        ExportJobService.ExportJob restored = service.get(finished.id()).orElseThrow();
+        assertEquals(ExportJobService.Status.SUCCEEDED, restored.status());
+        assertEquals(finished.size(), restored.size());
+        assertEquals(finished.finishedAt(), restored.finishedAt());
+        assertTrue(service.archive(finished.id()).isPresent());
+        assertFalse(Files.exists(artifactDirectory.resolve("interrupted.dup.part")));
+        assertFalse(Files.exists(artifactDirectory.resolve("orphaned.dup")));
+    }
+
+    @Test
+    void testSweepDeletesJobsPastTheirRetention() throws Exception {
+        // Arrange
+        ExportJobService.ExportJob finished = awaitFinished(service.submit(request).id());
+
+        // Act
+        properties.setRetention(Duration.ofHours(1));
+        service.sweep();
+        boolean keptWithinRetention = service.get(finished.id()).isPresent();
+        properties.setRetention(Duration.ZERO);
+        Thread.sleep(5);
+        service.sweep();
+
+        // Assert
+        assertTrue(keptWithinRetention);
+        assertTrue(service.get(finished.id()).isEmpty());
+        try (var files = Files.list(artifactDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private ExportJobService.ExportJob awaitFinished(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            ExportJobService.ExportJob job = service.get(id).orElseThrow();
+            if (job.status() == ExportJobService.Status.SUCCEEDED || job.status() == ExportJobService.Status.FAILED) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Export job " + id + " did not finish");
+    }
+}
@@ -0,0 +1,112 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportSpillTest {
+
+    private static final String[] SLOTS = {"description", "supports"};
+
+    @TempDir
+    private Path spillDirectory;
+
+    @Test
+    void testSpilledClassIsReadBackInSegments() throws IOException {
+        // Arrange
+        List<EASInstance> rows = new ArrayList<>();
+        ExportSymbols symbols = new ExportSymbols(0, false);
+        for (int i = 0; i < ExportSpill.SEGMENT_ROWS + 1; i++) {
+            rows.add(new EASInstance("store_71_Class" + i, "Capability " + i, "Business_Capability", SLOTS,
+                    new Object[]{"Description " + i, Map.of("id", "store_71_Class0")}));
+            symbols.add("store_71_Class" + i);
+        }
+
+        try (ExportSpill spill = ExportSpill.create(spillDirectory)) {
+            // Act
+            ExportSpill.SpilledClass spilled = spill.write("Business_Capability", rows, List.of(SLOTS));
+            InstanceColumns first = spilled.readSegment(0, symbols);
+            InstanceColumns last = spilled.readSegment(1, symbols);
+
+            // Assert
+            assertEquals(ExportSpill.SEGMENT_ROWS + 1, spilled.size());
+            assertEquals(2, spilled.segmentCount());
+            assertTrue(spilled.bytes() > 0);
+            assertEquals(ExportSpill.SEGMENT_ROWS, first.size());
+            assertEquals("Capability 1", first.name(1));
+            assertEquals(1, first.symbol(1));
+            assertEquals("Description 1", first.column(0).string(1));
+            assertEquals(InstanceColumns.Column.REFERENCE, first.column(1).kind(1));
+            assertEquals(0, first.column(1).reference(1));
+            assertEquals(1, last.size());
+            assertEquals(ExportSpill.SEGMENT_ROWS, last.symbol(0));
+        }
+    }
+
+    @Test
+    void testInterleavedAppendsAreReadBackByClass() throws IOException {
+        // Arrange
+        List<EASInstance> capabilities = instances("Business_Capability", 3);
+        List<EASInstance> services = instances("Application_Service", 2);
+
+        try (ExportSpill spill = ExportSpill.create(spillDirectory)) {
+            ExportSpill.Appender capabilityAppender = spill.append("Business_Capability", List.of(SLOTS));
+            ExportSpill.Appender serviceAppender = spill.append("Application_Service", List.of(SLOTS));
+
+            // Act - each page as it is fetched, the two classes taking turns
+            capabilityAppender.write(capabilities.subList(0, 2));
+            serviceAppender.write(services.subList(0, 1));
+            capabilityAppender.write(capabilities.subList(2, 3));
+            serviceAppender.write(services.subList(1, 2));
+            ExportSpill.SpilledClass spilledCapabilities = capabilityAppender.finish();
+            ExportSpill.SpilledClass spilledServices = serviceAppender.finish();
+
+            // Assert
+            assertEquals(3, spilledCapabilities.size());
+            assertEquals(2, spilledCapabilities.segmentCount());
+            assertEquals(ids(capabilities.subList(0, 2)), ids(spilledCapabilities.readRows(0)));
+            assertEquals(ids(capabilities.subList(2, 3)), ids(spilledCapabilities.readRows(1)));
+            assertEquals(2, spilledServices.size());
+            assertEquals(ids(services.subList(0, 1)), ids(spilledServices.readRows(0)));
+            assertEquals(ids(services.subList(1, 2)), ids(spilledServices.readRows(1)));
+        }
+    }
+
+    @Test
+    void testCloseDeletesTheSpillFile() throws IOException {
+        // Arrange
+        ExportSpill spill = ExportSpill.create(spillDirectory);
+        spill.write("Business_Capability", List.of(new EASInstance("store_71_Class1", "Capability 1",
+                "Business_Capability", SLOTS, new Object[]{null, null})), List.of(SLOTS));
+
+        // Act
+        spill.close();
+
+        // Assert
+        try (var files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static List<EASInstance> instances(String className, int count) {
+        List<EASInstance> instances = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            instances.add(new EASInstance("store_71_" + className + i, className + " " + i, className, SLOTS,
+                    new Object[]{"Description " + i, null}));
+        }
+        return instances;
+    }
+
+    private static List<String> ids(List<EASInstance> instances) {
+        return instances.stream().map(EASInstance::id).toList();
+    }
+}
@@ -0,0 +1,100 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportSymbolsTest {
+
+    @Test
+    void testSymbolsAreDenseInFirstAddedOrder() {
+        // Arrange
+        ExportSymbols symbols = new ExportSymbols(0, false);
+
+        // Act
+        int first = symbols.add("store_71_Class1");
+        int second = symbols.add("store_71_Class2");
+        int again = symbols.add("store_71_Class1");
+
+        // Assert
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(0, again);
+        assertEquals(2, symbols.size());
+        assertEquals(1, symbols.indexOf("store_71_Class2"));
+        assertEquals(-1, symbols.indexOf("store_71_Class3"));
+        assertEquals("store_71_Class2", symbols.id(1));
+    }
+
+    @Test
+    void testLookupsSurviveGrowth() {
+        // Arrange
+        ExportSymbols symbols = new ExportSymbols(4, false);
+
+        // Act
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i, symbols.add("Essential_Baseline_v3_0_Class" + i));
+        }
+
+        // Assert
+        assertEquals(100_000, symbols.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i, symbols.indexOf("Essential_Baseline_v3_0_Class" + i));
+        }
+        assertEquals(-1, symbols.indexOf("Essential_Baseline_v3_0_Class100000"));
+    }
+
+    @Test
+    void testRecordVariables() {
+        // Arrange
+        ExportSymbols statements = new ExportSymbols(2, false);
+        ExportSymbols compact = new ExportSymbols(2, true);
+        statements.add("store_71_Class1");
+        compact.add("store_71_Class1");
+
+        // Act & Assert
+        assertEquals("Record_1", statements.recordVar(0));
+        assertEquals("_R[0]", compact.recordVar(0));
+    }
+
+    @Test
+    void testWithoutPrefixIdsAreKept() {
+        // Arrange
+        ExportSymbols symbols = new ExportSymbols(2, false);
+        symbols.add("store_71_Class1");
+
+        // Act
+        symbols.transformIds("  ");
+
+        // Assert
+        assertEquals("store_71_Class1", symbols.transformedId(0));
+        assertFalse(symbols.isTransformed(0));
+    }
+
+    @Test
+    void testPrefixedIdsAreKeptAndTheirSequencesSkipped() {
+        // Arrange
+        ExportSymbols symbols = new ExportSymbols(8, false);
+        symbols.add("store_71_Class1");
+        symbols.add("TST_2");
+        symbols.add("store_71_Class2");
+        symbols.add("TST_003");
+        symbols.add("TST_custom");
+        symbols.add("TST_99999999999");
+        symbols.add("store_71_Class3");
+
+        // Act
+        symbols.transformIds(" TST ");
+
+        // Assert
+        assertEquals("TST_1", symbols.transformedId(0));
+        assertEquals("TST_2", symbols.transformedId(1));
+        assertEquals("TST_4", symbols.transformedId(2));
+        assertEquals("TST_003", symbols.transformedId(3));
+        assertEquals("TST_custom", symbols.transformedId(4));
+        assertEquals("TST_99999999999", symbols.transformedId(5));
+        assertEquals("TST_5", symbols.transformedId(6));
+        assertTrue(symbols.isTransformed(0));
+        assertFalse(symbols.isTransformed(1));
+    }
+}
@@ -0,0 +1,74 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares rewriting the IDs inside string slot values with one {@link String#replace} per mapped
+ * ID against {@link IdReplacer}, for exports of 10k, 50k and 100k instances with one description
+ * per instance. The per-ID loop is far too slow to run over every value at these sizes, so it is
+ * timed on a sample and its cost per value extrapolated.
+ * Run with {@code mvn test -Dtest=IdReplacerBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class IdReplacerBenchmarkTest {
+
+    private static final int SAMPLE = 50;
+
+    @Test
+    void benchmarkIdReplacement() {
+        System.out.println("ID replacement benchmark, one string slot value per instance");
+        for (int instances : new int[] {10_000, 50_000, 100_000}) {
+            Map<String, String> mapping = new HashMap<>();
+            for (int i = 0; i < instances; i++) {
+                mapping.put("Essential_Baseline_v3_0_Class" + (100_000 + i), "TST_" + (i + 1));
+            }
+            List<String> values = new ArrayList<>(instances);
+            for (int i = 0; i < instances; i++) {
+                values.add(i % 10 == 0
+                        ? "Replaces Essential_Baseline_v3_0_Class" + (100_000 + (i * 7) % instances) + " from the 2019 roadmap"
+                        : "Capability " + i + " supports the customer onboarding journey across all regions");
+            }
+
+            // Warm up and check both give the same output
+            IdReplacer replacer = IdReplacer.of(mapping);
+            for (int i = 0; i < SAMPLE; i++) {
+                assertEquals(replaceLoop(values.get(i), mapping), replacer.replaceIn(values.get(i)));
+            }
+
+            long started = System.nanoTime();
+            for (int i = 0; i < SAMPLE; i++) {
+                replaceLoop(values.get(i), mapping);
+            }
+            double loopNanosPerValue = (System.nanoTime() - started) / (double) SAMPLE;
+
+            started = System.nanoTime();
+            replacer = IdReplacer.of(mapping);
+            for (String value : values) {
+                replacer.replaceIn(value);
+            }
+            double replacerNanosPerValue = (System.nanoTime() - started) / (double) instances;
+
+            double speedup = loopNanosPerValue / replacerNanosPerValue;
+            System.out.printf("  %,7d instances: replace loop %,12.0f ns/value (%,8.1f s total), IdReplacer %,8.0f ns/value (%,8.3f s total, build included), %,.0fx%n",
+                    instances, loopNanosPerValue, loopNanosPerValue * instances / 1e9,
+                    replacerNanosPerValue, replacerNanosPerValue * instances / 1e9, speedup);
+            assertTrue(speedup > 100, "IdReplacer should be far faster than one replace per mapped ID");
+        }
+    }
+
+    private static String replaceLoop(String value, Map<String, String> mapping) {
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            value = value.replace(entry.getKey(), entry.getValue());
+        }
+        return value;
+    }
+}
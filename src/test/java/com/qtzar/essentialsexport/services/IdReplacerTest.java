@@ -0,0 +1,90 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdReplacerTest {
+
+    @Test
+    void testReplacesEveryOccurrenceOfMappedIds() {
+        // Arrange
+        Map<String, String> mapping = Map.of(
+                "store_71_Class1", "TST_1",
+                "store_71_Class2", "TST_2",
+                "TST_5", "TST_5");
+        IdReplacer replacer = IdReplacer.of(mapping);
+
+        // Act
+        String result = replacer.replaceIn("See store_71_Class2, store_71_Class1 and store_71_Class2 (not TST_5)");
+
+        // Assert
+        assertEquals("See TST_2, TST_1 and TST_2 (not TST_5)", result);
+    }
+
+    @Test
+    void testValueWithoutIdsIsReturnedUnchanged() {
+        // Arrange
+        IdReplacer replacer = IdReplacer.of(Map.of("store_71_Class1", "TST_1"));
+        String value = "A plain description with store_71_Class but no full ID";
+
+        // Act & Assert
+        assertSame(value, replacer.replaceIn(value));
+        assertSame("", replacer.replaceIn(""));
+    }
+
+    @Test
+    void testIdentityMappingNeverChangesValues() {
+        // Arrange
+        IdReplacer replacer = IdReplacer.of(Map.of("store_71_Class1", "store_71_Class1", "", "TST_9"));
+        String value = "Refers to store_71_Class1";
+
+        // Act & Assert
+        assertSame(value, replacer.replaceIn(value));
+    }
+
+    @Test
+    void testLongestIdWinsWhenIdsOverlap() {
+        // Arrange
+        Map<String, String> mapping = new LinkedHashMap<>();
+        mapping.put("Class1", "TST_1");
+        mapping.put("Class10", "TST_2");
+        IdReplacer replacer = IdReplacer.of(mapping);
+
+        // Act & Assert
+        assertEquals("TST_2 then TST_1 then TST_20", replacer.replaceIn("Class10 then Class1 then Class100"));
+    }
+
+    @Test
+    void testMatchesReplaceLoopOnRandomValues() {
+        // Arrange - IDs of one fixed length never overlap, so the old loop is well defined
+        Random random = new Random(42);
+        Map<String, String> mapping = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            mapping.put("Ess_Class%05d".formatted(i), "TST_" + (i + 1));
+        }
+        IdReplacer replacer = IdReplacer.of(mapping);
+
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder value = new StringBuilder();
+            int parts = random.nextInt(6);
+            for (int p = 0; p < parts; p++) {
+                value.append(random.nextBoolean() ? "text 'quoted' é " : "Ess_Class%05d".formatted(random.nextInt(600)));
+            }
+
+            // Act
+            String expected = value.toString();
+            for (Map.Entry<String, String> entry : mapping.entrySet()) {
+                expected = expected.replace(entry.getKey(), entry.getValue());
+            }
+
+            // Assert
+            assertEquals(expected, replacer.replaceIn(value.toString()));
+        }
+    }
+}
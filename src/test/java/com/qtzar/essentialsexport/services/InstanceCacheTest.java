@@ -0,0 +1,220 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASCacheProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceCacheTest {
+
+    private static final String SLOTS = "id^name^className^description^owner";
+
+    private EASCacheProperties properties;
+    private MutableClock clock;
+    private InstanceCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        properties = new EASCacheProperties();
+        properties.setTtl(Duration.ofMinutes(10));
+        clock = new MutableClock();
+        cache = new InstanceCache(properties, new SimpleMeterRegistry(), clock);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void testRepeatRequestIsServedFromCache() {
+        // Act
+        List<EASInstance> first = fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+        List<EASInstance> second = fetch("repo", "Business_Capability", 1, "id^name^className^owner^description", loader(3));
+
+        // Assert - slot order does not matter
+        assertEquals(1, loads.get());
+        assertSame(first, second);
+    }
+
+    @Test
+    void testDifferentDepthOrRepositoryIsAMiss() {
+        // Act
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+        fetch("repo", "Business_Capability", 2, SLOTS, loader(3));
+        fetch("other", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Assert
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testSubsetOfSlotsIsProjectedFromSuperset() {
+        // Arrange
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Act
+        List<EASInstance> subset = fetch("repo", "Business_Capability", 1, "id^name^className^owner", loader(3));
+
+        // Assert
+        assertEquals(1, loads.get());
+        assertEquals(3, subset.size());
+        assertEquals("inst0", subset.get(0).id());
+        assertEquals("Instance 0", subset.get(0).name());
+        assertEquals("owner0", subset.get(0).get("owner"));
+        assertNull(subset.get(0).get("description"));
+        assertArrayEquals(new String[]{"owner"}, subset.get(0).slotNames());
+        assertSame(subset.get(0).slotNames(), subset.get(1).slotNames());
+    }
+
+    @Test
+    void testSupersetIsNotServedFromSubset() {
+        // Arrange
+        fetch("repo", "Business_Capability", 1, "id^name^className^owner", loader(3));
+
+        // Act
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testEntriesExpireAfterTtl() {
+        // Arrange
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Act
+        clock.advance(Duration.ofMinutes(11));
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvictedBeyondMaxWeight() {
+        // Arrange - each instance weighs 5, so two lists of 10 fit but not three
+        properties.setMaxWeight(100);
+        fetch("repo", "A", 1, SLOTS, loader(10));
+        fetch("repo", "B", 1, SLOTS, loader(10));
+        fetch("repo", "A", 1, SLOTS, loader(10));
+
+        // Act
+        fetch("repo", "C", 1, SLOTS, loader(10));
+
+        // Assert
+        assertEquals(List.of("A", "C"), cache.getEntries().stream().map(entry -> entry.key().className()).toList());
+    }
+
+    @Test
+    void testEvictionBeyondMaxEntries() {
+        // Arrange
+        properties.setMaxEntries(2);
+
+        // Act
+        fetch("repo", "A", 1, SLOTS, loader(1));
+        fetch("repo", "B", 1, SLOTS, loader(1));
+        fetch("repo", "C", 1, SLOTS, loader(1));
+
+        // Assert
+        assertEquals(2, cache.getEntries().size());
+    }
+
+    @Test
+    void testInvalidateClassAndRepository() {
+        // Arrange
+        fetch("repo", "A", 1, SLOTS, loader(1));
+        fetch("repo", "B", 1, SLOTS, loader(1));
+        fetch("other", "A", 1, SLOTS, loader(1));
+
+        // Act & Assert
+        assertEquals(1, cache.invalidate("repo", "A"));
+        assertEquals(1, cache.invalidate("repo", null));
+        assertEquals(1, cache.invalidateAll());
+        assertTrue(cache.getEntries().isEmpty());
+    }
+
+    @Test
+    void testRefreshReplacesTheCachedEntry() {
+        // Arrange
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Act
+        List<EASInstance> refreshed = cache.refresh("repo", "Business_Capability", 1, SLOTS, loader(4));
+
+        // Assert
+        assertEquals(2, loads.get());
+        assertSame(refreshed, cache.getIfPresent("repo", "Business_Capability", 1, SLOTS).orElseThrow());
+        assertEquals(1, cache.getEntries().size());
+    }
+
+    @Test
+    void testDisabledCacheAlwaysLoads() {
+        // Arrange
+        properties.setEnabled(false);
+
+        // Act
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+        fetch("repo", "Business_Capability", 1, SLOTS, loader(3));
+
+        // Assert
+        assertEquals(2, loads.get());
+        assertTrue(cache.getIfPresent("repo", "Business_Capability", 1, SLOTS).isEmpty());
+        assertTrue(cache.getEntries().isEmpty());
+    }
+
+    /**
+     * Get the instances the way an export does: from the cache, or else loaded and cached.
+     */
+    private List<EASInstance> fetch(String repoId, String className, int maxDepth, String slots,
+                                    Supplier<List<EASInstance>> loader) {
+        return cache.getIfPresent(repoId, className, maxDepth, slots)
+                .orElseGet(() -> cache.refresh(repoId, className, maxDepth, slots, loader));
+    }
+
+    private Supplier<List<EASInstance>> loader(int count) {
+        return () -> {
+            loads.incrementAndGet();
+            String[] layout = {"description", "owner"};
+            return IntStream.range(0, count)
+                    .mapToObj(i -> new EASInstance("inst" + i, "Instance " + i, "Business_Capability", layout,
+                            new Object[]{"Description " + i, "owner" + i}))
+                    .toList();
+        };
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
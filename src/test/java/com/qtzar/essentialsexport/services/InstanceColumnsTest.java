@@ -0,0 +1,102 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceColumnsTest {
+
+    private static final String[] SLOTS = {"description", "supports", "realises"};
+
+    @Test
+    void testCellsAreClassifiedByHowTheyAreWritten() {
+        // Arrange
+        List<EASInstance> instances = List.of(
+                new EASInstance("store_71_Class1", "Capability 1", "Business_Capability", SLOTS,
+                        new Object[]{"Refers to store_71_Class2", "store_71_Class2",
+                                List.of(Map.of("id", "store_71_Class1"), "store_71_Class2")}),
+                new EASInstance("store_71_Class2", null, "Business_Capability", SLOTS,
+                        new Object[]{null, Map.of("id", "store_99_Unknown"),
+                                List.of(Map.of("id", "store_71_Class1", "name", "Capability 1"))}),
+                new EASInstance("store_71_Class3", "Capability 3", "Business_Capability", SLOTS,
+                        new Object[]{42, List.of("store_71_Class1", "Not an ID"), List.of()}));
+        ExportSymbols symbols = new ExportSymbols(3, false);
+        instances.forEach(instance -> symbols.add(instance.id()));
+
+        // Act
+        InstanceColumns columns = InstanceColumns.of("Business_Capability", new int[]{0, 1, 2}, instances,
+                List.of(SLOTS), symbols);
+
+        // Assert
+        assertEquals(3, columns.size());
+        assertEquals("Capability 1", columns.name(0));
+        assertNull(columns.name(1));
+
+        InstanceColumns.Column description = columns.column(0);
+        assertEquals(InstanceColumns.Column.STRING, description.kind(0));
+        assertEquals("Refers to store_71_Class2", description.string(0));
+        assertTrue(description.isNull(1));
+        assertEquals(InstanceColumns.Column.OTHER, description.kind(2));
+        assertEquals(42, description.other(2));
+
+        InstanceColumns.Column supports = columns.column(1);
+        assertEquals(InstanceColumns.Column.REFERENCE, supports.kind(0));
+        assertEquals(1, supports.reference(0));
+        assertEquals(InstanceColumns.Column.OTHER, supports.kind(1));
+        assertEquals(InstanceColumns.Column.OTHER, supports.kind(2));
+
+        InstanceColumns.Column realises = columns.column(2);
+        assertEquals(InstanceColumns.Column.REFERENCES, realises.kind(0));
+        assertEquals(2, realises.referenceCount(0));
+        assertEquals(0, realises.reference(0, 0));
+        assertEquals(1, realises.reference(0, 1));
+        // A single reference in a list is written without the brackets
+        assertEquals(InstanceColumns.Column.REFERENCE, realises.kind(1));
+        assertEquals(0, realises.reference(1));
+        assertEquals(InstanceColumns.Column.REFERENCES, realises.kind(2));
+        assertEquals(0, realises.referenceCount(2));
+    }
+
+    @Test
+    void testRepeatedStringsShareADictionaryEntry() {
+        // Arrange
+        List<EASInstance> instances = List.of(
+                new EASInstance("a", "Active", "Lifecycle_Status", SLOTS, new Object[]{"Active", null, null}),
+                new EASInstance("b", new String("Active"), "Lifecycle_Status", SLOTS, new Object[]{"Retired", null, null}),
+                new EASInstance("c", "Retired", "Lifecycle_Status", SLOTS, new Object[]{new String("Active"), null, null}));
+        ExportSymbols symbols = new ExportSymbols(3, false);
+        instances.forEach(instance -> symbols.add(instance.id()));
+
+        // Act
+        InstanceColumns columns = InstanceColumns.of("Lifecycle_Status", new int[]{0, 1, 2}, instances,
+                List.of("description"), symbols);
+
+        // Assert
+        InstanceColumns.Column description = columns.column(0);
+        assertSame(description.string(0), description.string(2));
+        assertEquals("Retired", description.string(1));
+        assertSame(columns.name(0), columns.name(1));
+    }
+
+    @Test
+    void testEstimateGrowsWithTheValuesHeld() {
+        // Arrange
+        List<EASInstance> empty = List.of(
+                new EASInstance("a", null, "Lifecycle_Status", SLOTS, new Object[]{null, null, null}));
+        List<EASInstance> full = List.of(
+                new EASInstance("a", "Active", "Lifecycle_Status", SLOTS,
+                        new Object[]{"A long description", Map.of("id", "b"), List.of("c", "d")}));
+
+        // Act
+        long emptyBytes = InstanceColumns.estimateBytes(empty, List.of(SLOTS));
+        long fullBytes = InstanceColumns.estimateBytes(full, List.of(SLOTS));
+
+        // Assert
+        assertTrue(emptyBytes > 0);
+        assertTrue(fullBytes > emptyBytes + "A long description".length());
+    }
+}
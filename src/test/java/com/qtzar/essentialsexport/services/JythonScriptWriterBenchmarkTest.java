@@ -0,0 +1,90 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares escaping each value with a chain of {@link String#replace} calls and writing it through
+ * a {@link BufferedWriter} over an {@link OutputStreamWriter} against {@link JythonScriptWriter},
+ * on a mix of instance names and long descriptions like those in an EAS repository. Reports the
+ * time and the bytes allocated for each, the best of several rounds.
+ * Run with {@code mvn test -Dtest=JythonScriptWriterBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class JythonScriptWriterBenchmarkTest {
+
+    private static final int VALUES = 200_000;
+    private static final int ROUNDS = 10;
+
+    @Test
+    void benchmarkLiteralWriting() throws IOException {
+        List<String> values = new ArrayList<>(VALUES);
+        for (int i = 0; i < VALUES; i++) {
+            values.add(switch (i % 4) {
+                case 0 -> "Customer Onboarding " + i;
+                case 1 -> "Capability " + i + " supports the customer onboarding journey across all regions, "
+                        + "including the partner's self-service portal and the \"Know Your Customer\" checks "
+                        + "required by the 2019 regulatory roadmap.";
+                case 2 -> "Caf\u00e9 & Retail \u2013 Z\u00fcrich " + i;
+                default -> "Line one of the notes for " + i + "\nLine two:\tC:\\Shared\\Architecture";
+            });
+        }
+
+        long replaceNanos = Long.MAX_VALUE, writerNanos = Long.MAX_VALUE;
+        long replaceBytes = Long.MAX_VALUE, writerBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 << 20);
+            long allocated = allocatedBytes();
+            long started = System.nanoTime();
+            Writer writer = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8), 64 * 1024);
+            for (String value : values) {
+                writer.write("u'" + escapeForJython(value) + "'\n");
+            }
+            writer.flush();
+            replaceNanos = Math.min(replaceNanos, System.nanoTime() - started);
+            replaceBytes = Math.min(replaceBytes, allocatedBytes() - allocated);
+
+            bytes = new ByteArrayOutputStream(64 << 20);
+            allocated = allocatedBytes();
+            started = System.nanoTime();
+            JythonScriptWriter script = new JythonScriptWriter(bytes, 64 * 1024);
+            for (String value : values) {
+                script.writeUnicodeLiteral(value);
+                script.write('\n');
+            }
+            script.flush();
+            writerNanos = Math.min(writerNanos, System.nanoTime() - started);
+            writerBytes = Math.min(writerBytes, allocatedBytes() - allocated);
+        }
+
+        double speedup = (double) replaceNanos / writerNanos;
+        System.out.printf("Jython literal benchmark, %,d values%n", VALUES);
+        System.out.printf("  replace chain:      %,8.1f ms, %,12d bytes allocated%n", replaceNanos / 1e6, replaceBytes);
+        System.out.printf("  JythonScriptWriter: %,8.1f ms, %,12d bytes allocated, %.2fx%n", writerNanos / 1e6, writerBytes, speedup);
+        assertTrue(speedup > 1, "JythonScriptWriter should be faster than the replace chain");
+    }
+
+    private static String escapeForJython(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("'", "\\'")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r");
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
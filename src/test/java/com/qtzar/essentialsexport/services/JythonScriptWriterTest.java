@@ -0,0 +1,122 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JythonScriptWriterTest {
+
+    @Test
+    void testPlainValueIsWrittenAsIs() throws IOException {
+        assertEquals("u'Capability 1 supports onboarding'", unicode("Capability 1 supports onboarding"));
+        assertEquals("u''", unicode(""));
+        assertEquals("u''", unicode(null));
+    }
+
+    @Test
+    void testQuotesBackslashesAndLineBreaksAreEscaped() throws IOException {
+        assertEquals("u'It\\'s a \\\"test\\\" with \\\\ and\\nlines\\r\\tend'",
+                unicode("It's a \"test\" with \\ and\nlines\r\tend"));
+    }
+
+    @Test
+    void testControlAndNonAsciiCharactersAreUnicodeEscapes() throws IOException {
+        assertEquals("u'bell\\x07 del\\x7f caf\\u00e9 \\u2013 \\U0001f600'",
+                unicode("bell\u0007 del\u007f caf\u00e9 \u2013 \ud83d\ude00"));
+        assertEquals("u'\\ud83d!\\ude00'", unicode("\uD83D!\uDE00"));
+    }
+
+    @Test
+    void testByteStringLeavesNonAsciiAlone() throws IOException {
+        // Arrange
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JythonScriptWriter writer = new JythonScriptWriter(bytes, 64);
+
+        // Act
+        int written = writer.writeStringLiteral("caf\u00e9's\n\ud83d\ude00");
+        writer.flush();
+
+        // Assert
+        assertEquals("'caf\u00e9\\'s\\n\ud83d\ude00'", bytes.toString(StandardCharsets.UTF_8));
+        assertEquals(13, written);
+    }
+
+    @Test
+    void testLongLiteralAcrossBufferAndBlockBoundaries() throws IOException {
+        // Arrange
+        StringBuilder value = new StringBuilder();
+        StringBuilder expected = new StringBuilder("u'");
+        for (int i = 0; i < 10_000; i++) {
+            value.append(i % 7 == 0 ? "'\ud83d\ude00" : "text ");
+            expected.append(i % 7 == 0 ? "\\'\\U0001f600" : "text ");
+        }
+        expected.append("'");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JythonScriptWriter writer = new JythonScriptWriter(bytes, 100);
+
+        // Act
+        int written = writer.writeUnicodeLiteral(value.toString());
+        writer.flush();
+
+        // Assert
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+        assertEquals(expected.length(), written);
+    }
+
+    @Test
+    void testEncodesLikeStringGetBytes() throws IOException {
+        // Arrange - ASCII, two and three byte characters and surrogate pairs, across buffer boundaries
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        String[] pieces = {"Capability ", "caf\u00e9", "\u2013", "\ud83d\ude00", "\n", "x"};
+        for (int i = 0; i < 5_000; i++) {
+            text.append(pieces[random.nextInt(pieces.length)]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // Act - in slices of random length, so pairs are split across writes
+        JythonScriptWriter writer = new JythonScriptWriter(bytes, 16);
+        for (int start = 0; start < text.length(); ) {
+            int end = Math.min(text.length(), start + 1 + random.nextInt(40));
+            if (random.nextBoolean()) {
+                writer.write(text.toString(), start, end - start);
+            } else {
+                writer.write(text.toString().toCharArray(), start, end - start);
+            }
+            start = end;
+        }
+        writer.flush();
+
+        // Assert
+        assertArrayEquals(text.toString().getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+    }
+
+    @Test
+    void testUnpairedSurrogatesAreReplaced() throws IOException {
+        // Arrange
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JythonScriptWriter writer = new JythonScriptWriter(bytes, 64);
+
+        // Act
+        writer.write("a\uD83Db\uDE00c\uD83D");
+        writer.close();
+
+        // Assert
+        assertEquals("a?b?c?", bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String unicode(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JythonScriptWriter writer = new JythonScriptWriter(bytes, 64);
+        int written = writer.writeUnicodeLiteral(value);
+        writer.flush();
+        String literal = bytes.toString(StandardCharsets.UTF_8);
+        assertEquals(literal.length(), written);
+        return literal;
+    }
+}
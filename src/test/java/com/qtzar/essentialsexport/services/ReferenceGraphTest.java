@@ -0,0 +1,59 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReferenceGraphTest {
+
+    @Test
+    void testReferencedNodesComeFirst() {
+        // Arrange - 0 -> 1 -> 2, and 3 -> 2
+        int[][] edges = {{1}, {2}, {}, {2}};
+
+        // Act
+        List<int[]> components = ReferenceGraph.components(edges);
+
+        // Assert
+        assertEquals(4, components.size());
+        assertArrayEquals(new int[]{2}, components.get(0));
+        assertArrayEquals(new int[]{1}, components.get(1));
+        assertArrayEquals(new int[]{0}, components.get(2));
+        assertArrayEquals(new int[]{3}, components.get(3));
+    }
+
+    @Test
+    void testCycleIsOneComponent() {
+        // Arrange - 0 -> 1 -> 2 -> 1, 2 -> 3, and 3 refers to itself
+        int[][] edges = {{1}, {2}, {1, 3}, {3, 3}};
+
+        // Act
+        List<int[]> components = ReferenceGraph.components(edges);
+
+        // Assert
+        assertEquals(3, components.size());
+        assertArrayEquals(new int[]{3}, components.get(0));
+        assertArrayEquals(new int[]{1, 2}, components.get(1));
+        assertArrayEquals(new int[]{0}, components.get(2));
+    }
+
+    @Test
+    void testLongChainDoesNotOverflowTheStack() {
+        // Arrange
+        int nodeCount = 1_000_000;
+        int[][] edges = new int[nodeCount][];
+        for (int i = 0; i < nodeCount; i++) {
+            edges[i] = i + 1 < nodeCount ? new int[]{i + 1} : new int[0];
+        }
+
+        // Act
+        List<int[]> components = ReferenceGraph.components(edges);
+
+        // Assert
+        assertEquals(nodeCount, components.size());
+        assertArrayEquals(new int[]{nodeCount - 1}, components.get(0));
+        assertArrayEquals(new int[]{0}, components.get(nodeCount - 1));
+    }
+}
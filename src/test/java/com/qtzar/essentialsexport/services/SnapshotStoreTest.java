@@ -0,0 +1,260 @@
+package com.qtzar.essentialsexport.services;
+
+import com.qtzar.essentialsexport.configuration.EASSnapshotProperties;
+import com.qtzar.essentialsexport.model.essential.response.EASInstance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotStoreTest {
+
+    private static final String SLOTS = "id^name^className^description^owner";
+    private static final Instant NOW = Instant.parse("2025-01-01T12:00:00Z");
+
+    @TempDir
+    private Path dataDirectory;
+
+    private EASSnapshotProperties properties;
+    private SnapshotStore store;
+
+    @BeforeEach
+    void setUp() {
+        properties = new EASSnapshotProperties();
+        properties.setDataDirectory(dataDirectory);
+        properties.setMaxAge(Duration.ofHours(24));
+        properties.setEnabled(true);
+        store = newStore(NOW);
+    }
+
+    @Test
+    void testRoundTripPreservesValuesAndTypes() {
+        // Arrange
+        Map<String, Object> owner = new LinkedHashMap<>();
+        owner.put("id", "inst2");
+        owner.put("className", "Individual_Actor");
+        List<Object> list = new ArrayList<>(Arrays.asList("a", 1, 2L, 1.5, true, null));
+        EASInstance instance = new EASInstance("inst1", "Capability é中", "Business_Capability",
+                new String[]{"owner", "tags", "count", "big", "decimal", "flag", "missing"},
+                new Object[]{owner, list, 42, new BigInteger("123456789012345678901234567890"),
+                        new BigDecimal("1.50"), Boolean.FALSE, null});
+
+        // Act
+        store.write("repo", "Business_Capability", 1, SLOTS, List.of(instance));
+        List<EASInstance> read = store.read("repo", "Business_Capability", 1, SLOTS).orElseThrow().instances();
+
+        // Assert
+        EASInstance copy = read.getFirst();
+        assertEquals("inst1", copy.id());
+        assertEquals("Capability é中", copy.name());
+        assertEquals("Business_Capability", copy.className());
+        assertArrayEquals(instance.slotNames(), copy.slotNames());
+        assertEquals(owner, copy.get("owner"));
+        assertEquals(list, copy.get("tags"));
+        assertEquals(42, copy.get("count"));
+        assertEquals(new BigInteger("123456789012345678901234567890"), copy.get("big"));
+        assertEquals("1.50", copy.get("decimal").toString());
+        assertEquals(Boolean.FALSE, copy.get("flag"));
+        assertNull(copy.get("missing"));
+    }
+
+    @Test
+    void testInstancesWithTheSameLayoutShareIt() {
+        // Act
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(100, "v1"));
+        List<EASInstance> read = store.read("repo", "Business_Capability", 1, SLOTS).orElseThrow().instances();
+
+        // Assert
+        assertEquals(100, read.size());
+        assertSame(read.get(0).slotNames(), read.get(99).slotNames());
+    }
+
+    @Test
+    void testSnapshotSurvivesRestart() {
+        // Arrange
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(10, "v1"));
+
+        // Act
+        Optional<SnapshotStore.Snapshot> read = newStore(NOW).read("repo", "Business_Capability", 1, SLOTS);
+
+        // Assert
+        assertTrue(read.isPresent());
+        assertEquals(10, read.get().instances().size());
+    }
+
+    @Test
+    void testNewerSnapshotSupersedesOlder() {
+        // Arrange
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(10, "v1"));
+        newStore(NOW.plusSeconds(60)).write("repo", "Business_Capability", 1, SLOTS, instances(10, "v2"));
+
+        // Act
+        List<EASInstance> read = newStore(NOW.plusSeconds(120)).read("repo", "Business_Capability", 1, SLOTS).orElseThrow().instances();
+
+        // Assert
+        assertEquals("v2 0", read.getFirst().get("description"));
+    }
+
+    @Test
+    void testReadReportsWhenTheSnapshotWasFetched() {
+        // Arrange
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(10, "v1"));
+
+        // Act
+        SnapshotStore.Snapshot read = newStore(NOW.plus(Duration.ofHours(3))).read("repo", "Business_Capability", 1, SLOTS).orElseThrow();
+
+        // Assert
+        assertEquals(NOW, read.fetchedAt());
+    }
+
+    @Test
+    void testSnapshotsAreOffByDefault() {
+        // Arrange
+        properties.setEnabled(new EASSnapshotProperties().isEnabled());
+
+        // Act
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(10, "v1"));
+
+        // Assert
+        assertTrue(store.read("repo", "Business_Capability", 1, SLOTS).isEmpty());
+        assertFalse(Files.exists(dataDirectory.resolve("repo.snap")));
+    }
+
+    @Test
+    void testSubsetOfSlotsIsProjected() {
+        // Arrange
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(3, "v1"));
+
+        // Act
+        List<EASInstance> read = store.read("repo", "Business_Capability", 1, "id^name^className^owner").orElseThrow().instances();
+
+        // Assert
+        assertArrayEquals(new String[]{"owner"}, read.getFirst().slotNames());
+        assertTrue(store.read("repo", "Business_Capability", 1, SLOTS + "^extra").isEmpty());
+        assertTrue(store.read("repo", "Business_Capability", 2, SLOTS).isEmpty());
+    }
+
+    @Test
+    void testSnapshotOlderThanMaxAgeIsIgnored() {
+        // Arrange
+        store.write("repo", "Business_Capability", 1, SLOTS, instances(3, "v1"));
+
+        // Act & Assert
+        assertTrue(newStore(NOW.plus(Duration.ofHours(25))).read("repo", "Business_Capability", 1, SLOTS).isEmpty());
+    }
+
+    @Test
+    void testPartialRecordAtEndIsIgnoredAndOverwritten() throws IOException {
+        // Arrange - simulate a crash halfway through appending a second record
+        store.write("repo", "A", 1, SLOTS, instances(5, "v1"));
+        Path file = dataDirectory.resolve("repo.snap");
+        long intact = Files.size(file);
+        store.write("repo", "B", 1, SLOTS, instances(5, "v1"));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(intact + 20);
+        }
+
+        // Act
+        SnapshotStore reopened = newStore(NOW);
+        reopened.write("repo", "C", 1, SLOTS, instances(5, "v1"));
+
+        // Assert
+        assertTrue(reopened.read("repo", "A", 1, SLOTS).isPresent());
+        assertTrue(reopened.read("repo", "B", 1, SLOTS).isEmpty());
+        assertTrue(newStore(NOW).read("repo", "C", 1, SLOTS).isPresent());
+    }
+
+    @Test
+    void testCorruptRecordIsNotServed() throws IOException {
+        // Arrange
+        store.write("repo", "A", 1, SLOTS, instances(50, "v1"));
+        Path file = dataDirectory.resolve("repo.snap");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 10] ^= 0x5A;
+        Files.write(file, bytes);
+
+        // Act & Assert
+        assertTrue(newStore(NOW).read("repo", "A", 1, SLOTS).isEmpty());
+    }
+
+    @Test
+    void testSupersededRecordsAreCompactedAway() throws IOException {
+        // Arrange
+        properties.setCompactThreshold(DataSize.ofBytes(1));
+        Path file = dataDirectory.resolve("repo.snap");
+        store.write("repo", "A", 1, SLOTS, instances(200, "v1"));
+        store.write("repo", "B", 1, SLOTS, instances(10, "v1"));
+        long initialSize = Files.size(file);
+
+        // Act
+        for (int i = 0; i < 5; i++) {
+            store.write("repo", "A", 1, SLOTS, instances(200, "v" + (i + 2)));
+        }
+
+        // Assert
+        assertTrue(Files.size(file) < initialSize * 2, "file should only hold live records");
+        SnapshotStore reopened = newStore(NOW);
+        assertEquals("v6 0", reopened.read("repo", "A", 1, SLOTS).orElseThrow().instances().getFirst().get("description"));
+        assertEquals(10, reopened.read("repo", "B", 1, SLOTS).orElseThrow().instances().size());
+    }
+
+    @Test
+    void testRecordsOlderThanMaxAgeAreDeletedOnTheNextWrite() throws IOException {
+        // Arrange
+        Path file = dataDirectory.resolve("repo.snap");
+        store.write("repo", "A", 1, SLOTS, instances(200, "v1"));
+        long expiredSize = Files.size(file);
+
+        // Act
+        SnapshotStore later = newStore(NOW.plus(Duration.ofHours(25)));
+        later.write("repo", "B", 1, SLOTS, instances(10, "v1"));
+
+        // Assert
+        assertTrue(Files.size(file) < expiredSize, "file should no longer hold the expired record");
+        SnapshotStore reopened = newStore(NOW.plus(Duration.ofHours(25)));
+        assertTrue(reopened.read("repo", "A", 1, SLOTS).isEmpty());
+        assertEquals(10, reopened.read("repo", "B", 1, SLOTS).orElseThrow().instances().size());
+    }
+
+    @Test
+    void testDisabledStoreWritesNothing() {
+        // Arrange
+        properties.setEnabled(false);
+
+        // Act
+        store.write("repo", "A", 1, SLOTS, instances(5, "v1"));
+
+        // Assert
+        assertTrue(store.read("repo", "A", 1, SLOTS).isEmpty());
+        assertFalse(Files.exists(dataDirectory.resolve("repo.snap")));
+    }
+
+    private SnapshotStore newStore(Instant now) {
+        return new SnapshotStore(properties, new SimpleMeterRegistry(), Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static List<EASInstance> instances(int count, String version) {
+        String[] layout = {"description", "owner"};
+        return IntStream.range(0, count)
+                .mapToObj(i -> new EASInstance("inst" + i, "Instance " + i, "Business_Capability", layout,
+                        new Object[]{version + " " + i, Map.of("id", "inst" + ((i + 1) % count))}))
+                .toList();
+    }
+}
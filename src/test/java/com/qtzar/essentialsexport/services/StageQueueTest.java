@@ -0,0 +1,66 @@
+package com.qtzar.essentialsexport.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StageQueueTest {
+
+    @Test
+    void testItemsAreTakenInOrderUntilTheEnd() throws Exception {
+        // Arrange
+        StageQueue<String> queue = new StageQueue<>(4);
+        Thread producer = Thread.ofVirtual().start(() -> {
+            try {
+                for (int i = 0; i < 10; i++) {
+                    queue.put("page" + i);
+                }
+                queue.end();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // Act & Assert
+        for (int i = 0; i < 10; i++) {
+            assertEquals("page" + i, queue.take());
+        }
+        assertNull(queue.take());
+        producer.join();
+    }
+
+    @Test
+    void testFailureReplacesQueuedItems() throws Exception {
+        // Arrange
+        StageQueue<String> queue = new StageQueue<>(1);
+        queue.put("page0");
+
+        // Act
+        queue.fail(new IllegalStateException("EAS API Error"));
+
+        // Assert
+        IOException e = assertThrows(IOException.class, queue::take);
+        assertEquals("EAS API Error", e.getCause().getMessage());
+    }
+
+    @Test
+    void testFailureWakesABlockedConsumer() throws Exception {
+        // Arrange
+        StageQueue<String> queue = new StageQueue<>(1);
+        Thread producer = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.fail(new IOException("Failed to fetch instances of class Business_Capability"));
+        });
+
+        // Act & Assert
+        IOException e = assertThrows(IOException.class, queue::take);
+        assertEquals("Failed to fetch instances of class Business_Capability", e.getMessage());
+        producer.join();
+    }
+}